@@ -63,14 +63,14 @@ api.interceptors.response.use(
 
 // API方法
 export const mobileApi = {
-  // 扫描网络设备
-  scanNetwork() {
-    return api.post('/mobile/scan')
+  // 扫描网络设备（stream为true时立即返回扫描ID，结果通过WebSocket逐个推送）
+  scanNetwork(stream = false) {
+    return api.post('/mobile/scan', null, { params: { stream } })
   },
   
-  // 获取设备列表
-  getDevices() {
-    return api.get('/mobile/devices')
+  // 获取设备列表（指定sinceVersion时只返回该版本以来的增量，没有变化时返回304）
+  getDevices(sinceVersion) {
+    return api.get('/mobile/devices', { params: { sinceVersion } })
   },
   
   // 获取指定设备信息
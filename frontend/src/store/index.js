@@ -3,6 +3,97 @@ import Vuex from 'vuex'
 
 Vue.use(Vuex)
 
+// 二进制屏幕帧协议（与后端 FrameCodec 保持一致）
+const FRAME_TYPE_FRAME = 1
+const FRAME_TYPE_DELTA = 2
+const FRAME_HEADER_SIZE = 18
+const TILE_HEADER_SIZE = 8
+
+// 当前订阅的设备（重连后重新订阅）
+const subscribedDevices = new Set()
+
+// 当前聚焦的设备（优先获得全帧率）
+let focusedDevice = null
+
+// 设备窗口的显示尺寸（长边像素数），服务端据此发送缩小的画面
+const deviceSizes = new Map()
+
+// 设备当前画面的帧序号，增量图块只能拼接在基准帧上
+const frameSequences = new Map()
+
+// 已请求完整帧、尚未收到的设备
+const keyframeRequests = new Set()
+
+// 最近结束的扫描（扫描结束事件可能先于扫描请求的响应到达）
+const completedScans = new Map()
+
+// 已应用的设备列表版本，重连后只请求之后的增量
+let deviceListVersion = 0
+
+// 结束流式扫描：复位扫描状态并通知页面
+function finishScan(commit, data) {
+  commit('SET_SCAN_PROGRESS', { probed: data.total, found: data.count })
+  commit('SET_SCANNING', false)
+  window.dispatchEvent(new CustomEvent('scanCompleted', { detail: data }))
+}
+
+// 发送WebSocket消息（连接未就绪时忽略，连接建立后会重新同步订阅）
+function sendWsMessage(message) {
+  const ws = Vue.prototype.$ws
+  if (ws && ws.readyState === WebSocket.OPEN) {
+    ws.send(JSON.stringify(message))
+  }
+}
+
+// 解析二进制屏幕帧：固定头 + 原始JPEG，或固定头 + 增量图块
+function decodeBinaryFrame(buffer) {
+  const view = new DataView(buffer)
+  const type = view.getUint8(0)
+  if (type !== FRAME_TYPE_FRAME && type !== FRAME_TYPE_DELTA) {
+    return null
+  }
+  const frame = {
+    deviceId: view.getInt32(2),
+    sequence: view.getUint32(6),
+    timestamp: view.getUint32(10) * 4294967296 + view.getUint32(14)
+  }
+  if (type === FRAME_TYPE_FRAME) {
+    frame.blob = new Blob([new Uint8Array(buffer, FRAME_HEADER_SIZE)], { type: 'image/jpeg' })
+    return frame
+  }
+  
+  frame.baseSequence = view.getUint32(FRAME_HEADER_SIZE)
+  frame.tiles = []
+  const count = view.getUint16(FRAME_HEADER_SIZE + 4)
+  let offset = FRAME_HEADER_SIZE + 6
+  for (let i = 0; i < count; i++) {
+    const length = view.getUint32(offset + 4)
+    frame.tiles.push({
+      x: view.getUint16(offset),
+      y: view.getUint16(offset + 2),
+      blob: new Blob([new Uint8Array(buffer, offset + TILE_HEADER_SIZE, length)], { type: 'image/jpeg' })
+    })
+    offset += TILE_HEADER_SIZE + length
+  }
+  return frame
+}
+
+// 检查帧能否显示：增量图块的基准帧不是当前画面时丢弃并请求完整帧
+function acceptFrame(frame) {
+  if (frame.tiles && frameSequences.get(frame.deviceId) !== frame.baseSequence) {
+    if (!keyframeRequests.has(frame.deviceId)) {
+      keyframeRequests.add(frame.deviceId)
+      sendWsMessage({ type: 'request_keyframe', deviceId: frame.deviceId })
+    }
+    return false
+  }
+  if (!frame.tiles) {
+    keyframeRequests.delete(frame.deviceId)
+  }
+  frameSequences.set(frame.deviceId, frame.sequence)
+  return true
+}
+
 export default new Vuex.Store({
   state: {
     // 设备列表
@@ -24,7 +115,14 @@ export default new Vuex.Store({
       streamPort: 9802
     },
     // 扫描状态
-    isScanning: false
+    isScanning: false,
+    // 流式扫描进度
+    scanProgress: {
+      scanId: null,
+      probed: 0,
+      total: 0,
+      found: 0
+    }
   },
   
   mutations: {
@@ -76,21 +174,47 @@ export default new Vuex.Store({
     // 设置扫描状态
     SET_SCANNING(state, isScanning) {
       state.isScanning = isScanning
+    },
+    
+    // 设置扫描进度
+    SET_SCAN_PROGRESS(state, progress) {
+      state.scanProgress = { ...state.scanProgress, ...progress }
     }
   },
   
   actions: {
     // 连接WebSocket
     connectWebSocket({ commit, dispatch }) {
-      const wsUrl = `${Vue.prototype.$WS_BASE}/ws/screen`
+      // 使用二进制帧协议，避免Base64和JSON的额外开销；只接收订阅的设备画面，画面局部变化时只接收变化的图块
+      const wsUrl = `${Vue.prototype.$WS_BASE}/ws/screen?protocol=binary&subscribe=none&delta=true`
       const ws = new WebSocket(wsUrl)
+      ws.binaryType = 'arraybuffer'
       
       ws.onopen = () => {
         console.log('WebSocket连接成功')
         commit('SET_WS_CONNECTED', true)
+        frameSequences.clear()
+        keyframeRequests.clear()
+        // 断线期间的设备变化
+        sendWsMessage({ type: 'request_device_list', sinceVersion: deviceListVersion })
+        // 只接收正在显示的设备画面
+        sendWsMessage({ type: 'subscribe', deviceIds: [...subscribedDevices] })
+        if (focusedDevice !== null) {
+          sendWsMessage({ type: 'view_hint', deviceIds: [focusedDevice], tier: 'focused' })
+        }
+        deviceSizes.forEach((size, deviceId) => {
+          sendWsMessage({ type: 'view_hint', deviceIds: [deviceId], size })
+        })
       }
       
       ws.onmessage = (event) => {
+        if (event.data instanceof ArrayBuffer) {
+          const frame = decodeBinaryFrame(event.data)
+          if (frame && acceptFrame(frame)) {
+            window.dispatchEvent(new CustomEvent('screenFrame', { detail: frame }))
+          }
+          return
+        }
         try {
           const data = JSON.parse(event.data)
           dispatch('handleWebSocketMessage', data)
@@ -117,8 +241,55 @@ export default new Vuex.Store({
       Vue.prototype.$ws = ws
     },
     
+    // 订阅设备画面
+    subscribeDevice(context, deviceId) {
+      if (!subscribedDevices.has(deviceId)) {
+        subscribedDevices.add(deviceId)
+        sendWsMessage({ type: 'subscribe', deviceIds: [deviceId] })
+      }
+    },
+    
+    // 聚焦设备窗口，之前聚焦的设备恢复为普通可见窗口
+    focusDevice(context, deviceId) {
+      if (focusedDevice === deviceId) {
+        return
+      }
+      if (focusedDevice !== null) {
+        sendWsMessage({ type: 'view_hint', deviceIds: [focusedDevice], tier: 'visible' })
+      }
+      focusedDevice = deviceId
+      sendWsMessage({ type: 'view_hint', deviceIds: [deviceId], tier: 'focused' })
+    },
+    
+    // 提示设备窗口的显示尺寸，尺寸不变时不重复发送
+    setDeviceSize(context, { deviceId, size }) {
+      if (deviceSizes.get(deviceId) !== size) {
+        deviceSizes.set(deviceId, size)
+        sendWsMessage({ type: 'view_hint', deviceIds: [deviceId], size })
+      }
+    },
+    
+    // 取消订阅设备画面
+    unsubscribeDevice(context, deviceId) {
+      if (subscribedDevices.delete(deviceId)) {
+        frameSequences.delete(deviceId)
+        keyframeRequests.delete(deviceId)
+        sendWsMessage({ type: 'unsubscribe', deviceIds: [deviceId] })
+      }
+    },
+    
+    // 跟踪流式扫描，结束事件已先到达时直接结束
+    trackScan({ commit }, { scanId, total }) {
+      commit('SET_SCAN_PROGRESS', { scanId, probed: 0, total, found: 0 })
+      const completed = completedScans.get(scanId)
+      if (completed) {
+        completedScans.delete(scanId)
+        finishScan(commit, completed)
+      }
+    },
+    
     // 处理WebSocket消息
-    handleWebSocketMessage({ commit }, data) {
+    handleWebSocketMessage({ commit, state }, data) {
       switch (data.type) {
         case 'frame': {
           // 处理屏幕帧数据
@@ -132,18 +303,52 @@ export default new Vuex.Store({
           window.dispatchEvent(frameEvent)
           break
         }
-        case 'device_status': {
-          // 更新设备状态
-          commit('UPDATE_DEVICE_STATUS', {
-            deviceId: data.deviceId,
-            status: data.status,
-            connected: data.connected
+        case 'device_status_batch': {
+          // 更新设备状态（服务端把同一刻度内的变化合并为一条消息）
+          data.updates.forEach(update => {
+            commit('UPDATE_DEVICE_STATUS', {
+              deviceId: update.deviceId,
+              status: update.status,
+              connected: update.connected
+            })
           })
           break
         }
-        case 'device_list': {
-          // 更新设备列表
-          commit('SET_DEVICES', data.devices)
+        case 'subscriptions':
+          break
+        case 'device_found': {
+          // 流式扫描：设备应答后立即加入列表（扫描ID返回前到达的事件同样接收）
+          if (state.isScanning) {
+            commit('ADD_DEVICE', data.device)
+          }
+          break
+        }
+        case 'scan_progress': {
+          if (data.scanId === state.scanProgress.scanId) {
+            commit('SET_SCAN_PROGRESS', { probed: data.probed, total: data.total, found: data.found })
+          }
+          break
+        }
+        case 'scan_completed': {
+          if (data.scanId === state.scanProgress.scanId) {
+            finishScan(commit, data)
+          } else {
+            completedScans.set(data.scanId, data)
+            if (completedScans.size > 10) {
+              completedScans.delete(completedScans.keys().next().value)
+            }
+          }
+          break
+        }
+        case 'device_list_delta': {
+          // 设备列表增量：完整列表直接替换，否则合并新增、变化的设备并删除已移除的设备
+          if (data.full) {
+            commit('SET_DEVICES', data.devices)
+          } else {
+            data.devices.forEach(device => commit('ADD_DEVICE', device))
+            data.removed.forEach(deviceId => commit('REMOVE_DEVICE', deviceId))
+          }
+          deviceListVersion = data.version
           break
         }
         default:
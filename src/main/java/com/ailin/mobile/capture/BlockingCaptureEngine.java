@@ -0,0 +1,174 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 阻塞式捕获引擎：每个设备一个阻塞Socket和一个线程
+ */
+@Slf4j
+public class BlockingCaptureEngine implements CaptureEngine {
+    
+    private final MobileConfig.Capture config;
+    
+    private final CaptureListener listener;
+    
+    private final FrameBufferPool bufferPool;
+    
+    /**
+     * 设备连接映射
+     */
+    private final ConcurrentHashMap<Integer, Socket> deviceConnections = new ConcurrentHashMap<>();
+    
+    /**
+     * 线程池
+     */
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    
+    public BlockingCaptureEngine(MobileConfig.Capture config, FrameBufferPool bufferPool, CaptureListener listener) {
+        this.config = config;
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+    }
+    
+    @Override
+    public boolean start(DeviceInfo device) {
+        int deviceId = device.getId();
+        Socket socket = new Socket();
+        
+        // 先占位，避免重复捕获
+        if (deviceConnections.putIfAbsent(deviceId, socket) != null) {
+            return false;
+        }
+        
+        executorService.submit(() -> {
+            Throwable error = null;
+            try {
+                log.info("开始连接设备进行屏幕捕获: {}:{} (ID: {})", device.getIp(), device.getPort(), deviceId);
+                
+                socket.connect(new java.net.InetSocketAddress(device.getIp(), device.getPort()));
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(config.getReadTimeout());
+                
+                listener.onConnected(device);
+                
+                // 开始接收数据
+                captureFrames(device, socket);
+            
+            } catch (Exception e) {
+                if (!socket.isClosed()) {
+                    error = e;
+                }
+            } finally {
+                // 清理连接
+                deviceConnections.remove(deviceId, socket);
+                if (!socket.isClosed()) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        log.error("关闭socket连接失败", e);
+                    }
+                }
+                listener.onDisconnected(device, error);
+            }
+        });
+        return true;
+    }
+    
+    /**
+     * 捕获帧数据
+     */
+    private void captureFrames(DeviceInfo device, Socket socket) throws IOException {
+        int deviceId = device.getId();
+        InputStream inputStream = socket.getInputStream();
+        
+        MjpegFrameParser parser = new MjpegFrameParser(bufferPool, config.getInitialBufferSize(),
+                config.getReadChunkSize(), config.getMaxFrameSize(),
+                (buffer, offset, length) -> listener.onFrame(device, buffer, offset, length));
+        
+        log.info("开始接收设备 {} 的屏幕数据", deviceId);
+        
+        try {
+            while (!socket.isClosed() && socket.isConnected()) {
+                try {
+                    // 读取并增量解析数据
+                    long framesBefore = parser.getFrameCount();
+                    int bytesRead = parser.readFrom(inputStream);
+                    
+                    if (bytesRead == -1) {
+                        log.warn("设备 {} 连接已断开", deviceId);
+                        break;
+                    }
+                    
+                    if (parser.getFrameCount() / 100 != framesBefore / 100) {
+                        log.debug("设备 {} 已捕获 {} 帧", deviceId, parser.getFrameCount());
+                    }
+                    
+                } catch (IOException e) {
+                    if (!socket.isClosed()) {
+                        log.error("设备 {} 读取数据失败: {}", deviceId, e.getMessage());
+                        throw e;
+                    }
+                    break;
+                }
+            }
+        } finally {
+            parser.release();
+        }
+        
+        if (parser.getOversizedFrames() > 0) {
+            log.warn("设备 {} 丢弃超大帧 {} 个", deviceId, parser.getOversizedFrames());
+        }
+        log.info("设备 {} 屏幕捕获结束，共捕获 {} 帧", deviceId, parser.getFrameCount());
+    }
+    
+    @Override
+    public boolean stop(int deviceId) {
+        Socket socket = deviceConnections.remove(deviceId);
+        if (socket == null) {
+            return false;
+        }
+        closeQuietly(deviceId, socket);
+        return true;
+    }
+    
+    @Override
+    public void stopAll() {
+        deviceConnections.forEach(this::closeQuietly);
+        deviceConnections.clear();
+    }
+    
+    @Override
+    public boolean isCapturing(int deviceId) {
+        return deviceConnections.containsKey(deviceId);
+    }
+    
+    @Override
+    public int getActiveConnectionCount() {
+        return deviceConnections.size();
+    }
+    
+    @Override
+    public void shutdown() {
+        stopAll();
+        executorService.shutdownNow();
+    }
+    
+    private void closeQuietly(int deviceId, Socket socket) {
+        if (!socket.isClosed()) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.error("关闭设备 {} 连接失败", deviceId, e);
+            }
+        }
+    }
+}
\ No newline at end of file
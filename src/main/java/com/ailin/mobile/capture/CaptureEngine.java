@@ -0,0 +1,43 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.model.DeviceInfo;
+
+/**
+ * 屏幕捕获引擎
+ */
+public interface CaptureEngine {
+    
+    /**
+     * 开始捕获指定设备
+     *
+     * @return 设备已在捕获中时返回false
+     */
+    boolean start(DeviceInfo device);
+    
+    /**
+     * 停止捕获指定设备
+     *
+     * @return 设备不在捕获中时返回false
+     */
+    boolean stop(int deviceId);
+    
+    /**
+     * 停止所有捕获
+     */
+    void stopAll();
+    
+    /**
+     * 是否正在捕获指定设备
+     */
+    boolean isCapturing(int deviceId);
+    
+    /**
+     * 获取活跃连接数
+     */
+    int getActiveConnectionCount();
+    
+    /**
+     * 关闭引擎并释放线程
+     */
+    void shutdown();
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.model.DeviceInfo;
+
+/**
+ * 捕获引擎事件回调
+ */
+public interface CaptureListener {
+    
+    /**
+     * 已连接到设备投屏端口
+     */
+    void onConnected(DeviceInfo device);
+    
+    /**
+     * 解析出完整的JPEG帧；需在回调之后继续使用时调用 {@link FrameBuffer#retain()}
+     */
+    void onFrame(DeviceInfo device, FrameBuffer buffer, int offset, int length);
+    
+    /**
+     * 连接结束
+     *
+     * @param error 异常原因，正常停止或对端关闭时为null
+     */
+    void onDisconnected(DeviceInfo device, Throwable error);
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.ailin.mobile.capture;
+
+/**
+ * 捕获会话的健康状态，由 {@link CaptureSupervisor} 维护
+ */
+public enum CaptureState {
+    
+    /**
+     * 正在连接，或已连接但还没有收到第一帧
+     */
+    CONNECTING("connecting", false),
+    
+    /**
+     * 正常接收画面
+     */
+    STREAMING("online", true),
+    
+    /**
+     * 连接仍在但超过停滞时间没有收到新帧
+     */
+    STALLED("stalled", true),
+    
+    /**
+     * 连接断开，等待退避时间后重连
+     */
+    BACKOFF("reconnecting", false),
+    
+    /**
+     * 连续重连失败，停止重连，等待重新扫描发现设备
+     */
+    DEAD("offline", false);
+    
+    /**
+     * 对应的设备状态（DeviceInfo.status）
+     */
+    private final String status;
+    
+    /**
+     * 与设备的连接是否存在
+     */
+    private final boolean connected;
+    
+    CaptureState(String status, boolean connected) {
+        this.status = status;
+        this.connected = connected;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public boolean isConnected() {
+        return connected;
+    }
+}
\ No newline at end of file
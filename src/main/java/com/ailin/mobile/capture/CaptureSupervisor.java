@@ -0,0 +1,483 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.liveness.TimerWheel;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * 捕获会话监督：跟踪每个设备的捕获状态（连接中、推流、停滞、退避、离线），断线后自动重连
+ *
+ * <p>停滞按两帧间隔判断，不必等读取超时；停滞过久时主动断开重连。每个会话在时间轮上只挂一个到期检查，
+ * 收到帧时只记录时间，到期时再按最近一帧的时间顺延或处理。重连采用带随机抖动的指数退避，
+ * 到期的重连再经过全局令牌桶限速，网络抖动后大量设备同时掉线时不会一起涌向服务端。</p>
+ *
+ * <p>主动停止（空闲断开、移除设备）先注销会话再关闭连接，随后的断开回调不会触发重连。</p>
+ */
+@Slf4j
+public class CaptureSupervisor {
+    
+    private final MobileConfig.Capture config;
+    
+    private final CaptureEngine engine;
+    
+    /**
+     * 停滞检查的时间轮，到期后转到监督线程处理
+     */
+    private final TimerWheel timerWheel;
+    
+    /**
+     * 按设备ID取得当前应当捕获的设备，设备已移除或无人观看时返回null
+     */
+    private final IntFunction<DeviceInfo> deviceResolver;
+    
+    /**
+     * 状态变化回调
+     */
+    private final BiConsumer<DeviceInfo, CaptureState> stateListener;
+    
+    /**
+     * 设备ID -> 捕获会话
+     */
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    
+    /**
+     * 退避到期、等待令牌的重连（仅在监督线程上访问）
+     */
+    private final ArrayDeque<Session> reconnectQueue = new ArrayDeque<>();
+    
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new CustomizableThreadFactory("capture-supervisor-"));
+    
+    private final AtomicLong reconnects = new AtomicLong();
+    
+    private final AtomicLong stalls = new AtomicLong();
+    
+    /**
+     * 因停滞主动断开的次数
+     */
+    private final AtomicLong stallDisconnects = new AtomicLong();
+    
+    /**
+     * 重连令牌数（仅在监督线程上访问）
+     */
+    private double tokens;
+    
+    private long lastRefill = System.nanoTime();
+    
+    /**
+     * 是否已安排令牌补充后的下一次重连
+     */
+    private boolean pumpScheduled;
+    
+    public CaptureSupervisor(MobileConfig.Capture config, CaptureEngine engine, TimerWheel timerWheel,
+                             IntFunction<DeviceInfo> deviceResolver, BiConsumer<DeviceInfo, CaptureState> stateListener) {
+        this.config = config;
+        this.engine = engine;
+        this.timerWheel = timerWheel;
+        this.deviceResolver = deviceResolver;
+        this.stateListener = stateListener;
+        this.tokens = getRate();
+    }
+    
+    /**
+     * 开始捕获并监督设备，已离线的设备重新开始计算重连次数
+     *
+     * @return 设备已在捕获或等待重连时返回false
+     */
+    public boolean start(DeviceInfo device) {
+        Session[] created = new Session[1];
+        sessions.compute(device.getId(), (id, existing) -> {
+            if (existing != null && existing.state != CaptureState.DEAD) {
+                return existing;
+            }
+            created[0] = new Session(id);
+            return created[0];
+        });
+        Session session = created[0];
+        if (session == null) {
+            return false;
+        }
+        
+        // 先登记会话再连接，立即失败的连接也会进入重连；持有锁保证断开回调在进入连接状态之后处理
+        synchronized (session) {
+            if (!engine.start(device)) {
+                sessions.remove(device.getId(), session);
+                session.removed = true;
+                return false;
+            }
+            transition(session, CaptureState.CONNECTING, device);
+        }
+        return true;
+    }
+    
+    /**
+     * 主动停止捕获，不再重连
+     *
+     * @return 设备不在捕获中时返回false
+     */
+    public boolean stop(int deviceId) {
+        Session session = sessions.remove(deviceId);
+        if (session != null) {
+            synchronized (session) {
+                session.removed = true;
+                cancelRetry(session);
+                cancelDeadline(session);
+            }
+        }
+        return engine.stop(deviceId) || session != null;
+    }
+    
+    /**
+     * 主动停止所有捕获，不再重连
+     */
+    public void stopAll() {
+        for (Integer deviceId : sessions.keySet()) {
+            Session session = sessions.remove(deviceId);
+            if (session != null) {
+                synchronized (session) {
+                    session.removed = true;
+                    cancelRetry(session);
+                    cancelDeadline(session);
+                }
+            }
+        }
+        engine.stopAll();
+    }
+    
+    /**
+     * 设备是否在捕获中或等待重连
+     */
+    public boolean isActive(int deviceId) {
+        Session session = sessions.get(deviceId);
+        return session != null ? session.state != CaptureState.DEAD : engine.isCapturing(deviceId);
+    }
+    
+    public CaptureState getState(int deviceId) {
+        Session session = sessions.get(deviceId);
+        return session != null ? session.state : null;
+    }
+    
+    /**
+     * 已连接到设备，收到第一帧后才进入推流状态
+     */
+    public void onConnected(DeviceInfo device) {
+        Session session = sessions.get(device.getId());
+        if (session != null) {
+            session.lastFrameAt = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * 收到一帧（捕获线程调用，只在状态变化时加锁）
+     */
+    public void onFrame(DeviceInfo device, long now) {
+        Session session = sessions.get(device.getId());
+        if (session == null) {
+            return;
+        }
+        session.lastFrameAt = now;
+        if (session.state != CaptureState.STREAMING) {
+            synchronized (session) {
+                if (session.removed || session.state == CaptureState.STREAMING) {
+                    return;
+                }
+                if (session.state == CaptureState.STALLED) {
+                    log.info("设备 {} 画面恢复", device.getId());
+                }
+                session.attempts = 0;
+                cancelRetry(session);
+                transition(session, CaptureState.STREAMING, device);
+            }
+        }
+    }
+    
+    /**
+     * 连接结束：会话仍在监督中说明不是主动停止，进入退避等待重连
+     */
+    public void onDisconnected(DeviceInfo device, Throwable error) {
+        Session session = sessions.get(device.getId());
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.removed || session.state == CaptureState.BACKOFF || session.state == CaptureState.DEAD) {
+                return;
+            }
+            session.attempts++;
+            int maxAttempts = config.getReconnectMaxAttempts();
+            if (maxAttempts > 0 && session.attempts > maxAttempts) {
+                log.warn("设备 {} 连续 {} 次重连失败，停止重连", device.getId(), maxAttempts);
+                transition(session, CaptureState.DEAD, device);
+                return;
+            }
+            
+            long delay = getBackoffDelay(session.attempts);
+            log.info("设备 {} 连接断开（{}），{}ms 后第 {} 次重连", device.getId(),
+                    error != null ? error.getMessage() : "连接关闭", delay, session.attempts);
+            transition(session, CaptureState.BACKOFF, device);
+            session.retryTask = scheduler.schedule(() -> enqueueReconnect(session), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * 获取监督统计
+     */
+    public Map<String, Object> getStats() {
+        Map<CaptureState, Integer> counts = new EnumMap<>(CaptureState.class);
+        Map<Integer, String> devices = new HashMap<>();
+        for (Session session : sessions.values()) {
+            CaptureState state = session.state;
+            if (state == null) {
+                continue;
+            }
+            counts.merge(state, 1, Integer::sum);
+            if (state != CaptureState.STREAMING) {
+                devices.put(session.deviceId, state.name().toLowerCase());
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        counts.forEach((state, count) -> result.put(state.name().toLowerCase(), count));
+        result.put("unhealthyDevices", devices);
+        result.put("reconnects", reconnects.get());
+        result.put("stalls", stalls.get());
+        result.put("stallDisconnects", stallDisconnects.get());
+        return result;
+    }
+    
+    public void shutdown() {
+        scheduler.shutdownNow();
+        sessions.clear();
+    }
+    
+    /**
+     * 第n次重连的退避时间：基础时间按次数翻倍，不超过上限，在后一半区间内随机取值
+     */
+    private long getBackoffDelay(int attempt) {
+        long base = Math.max(1, config.getReconnectBaseDelay());
+        long max = Math.max(base, config.getReconnectMaxDelay());
+        long delay = attempt >= 31 ? max : Math.min(max, base << Math.min(attempt - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    private double getRate() {
+        return Math.max(1, config.getReconnectRate());
+    }
+    
+    private void cancelRetry(Session session) {
+        if (session.retryTask != null) {
+            session.retryTask.cancel(false);
+            session.retryTask = null;
+        }
+    }
+    
+    /**
+     * 退避到期，排队等待重连令牌（监督线程）
+     */
+    private void enqueueReconnect(Session session) {
+        reconnectQueue.add(session);
+        pumpReconnects();
+    }
+    
+    /**
+     * 按令牌桶发起排队的重连，令牌不足时在补充后继续（监督线程）
+     */
+    private void pumpReconnects() {
+        pumpScheduled = false;
+        double rate = getRate();
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+        
+        Session session;
+        while (tokens >= 1 && (session = reconnectQueue.poll()) != null) {
+            if (reconnect(session)) {
+                tokens--;
+            }
+        }
+        if (!reconnectQueue.isEmpty() && !pumpScheduled) {
+            pumpScheduled = true;
+            long wait = (long) Math.ceil((1 - tokens) * 1000 / rate);
+            scheduler.schedule(this::pumpReconnects, Math.max(1, wait), TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * 发起一次重连
+     *
+     * @return 是否实际发起了连接（消耗令牌）
+     */
+    private boolean reconnect(Session session) {
+        synchronized (session) {
+            session.retryTask = null;
+            if (session.removed || session.state != CaptureState.BACKOFF) {
+                return false;
+            }
+            DeviceInfo device = deviceResolver.apply(session.deviceId);
+            if (device == null) {
+                // 设备已移除或不再有人观看，放弃重连
+                sessions.remove(session.deviceId, session);
+                session.removed = true;
+                log.info("设备 {} 不再需要捕获，放弃重连", session.deviceId);
+                return false;
+            }
+            transition(session, CaptureState.CONNECTING, device);
+            if (!engine.start(device)) {
+                // 旧连接仍在关闭中，下次断开回调会再次进入退避
+                return false;
+            }
+            reconnects.incrementAndGet();
+            return true;
+        }
+    }
+    
+    /**
+     * 当前状态的超时时间：推流中按停滞时间，连接中和停滞中按断开重连时间，其余状态不检查
+     */
+    private long getDeadlineTimeout(CaptureState state) {
+        switch (state) {
+            case STREAMING:
+                return config.getStallTimeout();
+            case CONNECTING:
+            case STALLED:
+                return config.getStallReconnectTimeout();
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * 按当前状态和最近一帧的时间安排超时检查，替换已有的检查（持有会话锁）
+     */
+    private void armDeadline(Session session) {
+        cancelDeadline(session);
+        long timeout = getDeadlineTimeout(session.state);
+        if (timeout <= 0) {
+            return;
+        }
+        scheduleDeadline(session, session.lastFrameAt + timeout - System.currentTimeMillis());
+    }
+    
+    private void scheduleDeadline(Session session, long delay) {
+        session.deadline = timerWheel.schedule(() -> scheduler.execute(() -> checkDeadline(session)),
+                Math.max(0, delay));
+    }
+    
+    private void cancelDeadline(Session session) {
+        if (session.deadline != null) {
+            session.deadline.cancel();
+            session.deadline = null;
+        }
+    }
+    
+    /**
+     * 超时检查到期（监督线程）：期间收到过帧则顺延；推流中进入停滞，停滞或连接过久时断开，由断开回调进入退避重连
+     */
+    private void checkDeadline(Session session) {
+        CaptureState state;
+        long timeout;
+        long gap;
+        synchronized (session) {
+            session.deadline = null;
+            state = session.state;
+            timeout = getDeadlineTimeout(state);
+            if (session.removed || timeout <= 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            gap = now - session.lastFrameAt;
+            if (gap < timeout) {
+                armDeadline(session);
+                return;
+            }
+            
+            if (state == CaptureState.STREAMING) {
+                DeviceInfo device = deviceResolver.apply(session.deviceId);
+                if (device != null) {
+                    stalls.incrementAndGet();
+                    log.warn("设备 {} 已 {}ms 没有新画面", session.deviceId, gap);
+                    transition(session, CaptureState.STALLED, device);
+                } else {
+                    // 无人观看、等待空闲断开的设备不标记停滞，重新被观看时仍需检查
+                    scheduleDeadline(session, timeout);
+                }
+                return;
+            }
+            // 重置计时，断开回调到达前不重复断开
+            session.lastFrameAt = now;
+            armDeadline(session);
+        }
+        
+        log.warn("设备 {} {}超过 {}ms，断开重连", session.deviceId,
+                state == CaptureState.STALLED ? "画面停滞" : "连接", timeout);
+        stallDisconnects.incrementAndGet();
+        engine.stop(session.deviceId);
+    }
+    
+    private void transition(Session session, CaptureState state, DeviceInfo device) {
+        if (session.state == state) {
+            return;
+        }
+        session.state = state;
+        if (state == CaptureState.CONNECTING) {
+            session.lastFrameAt = System.currentTimeMillis();
+        }
+        armDeadline(session);
+        try {
+            stateListener.accept(device, state);
+        } catch (Exception e) {
+            log.error("通知设备 {} 捕获状态失败", session.deviceId, e);
+        }
+    }
+    
+    /**
+     * 单个设备的捕获会话，状态变化由对象锁保护
+     */
+    private static final class Session {
+        
+        private final int deviceId;
+        
+        private volatile CaptureState state;
+        
+        /**
+         * 最近一帧的时间（连接中时为开始连接的时间）
+         */
+        private volatile long lastFrameAt = System.currentTimeMillis();
+        
+        /**
+         * 连续重连失败次数，收到画面后清零
+         */
+        private int attempts;
+        
+        private ScheduledFuture<?> retryTask;
+        
+        /**
+         * 当前状态的超时检查
+         */
+        private TimerWheel.Timeout deadline;
+        
+        /**
+         * 已主动停止或放弃重连
+         */
+        private boolean removed;
+        
+        Session(int deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.ailin.mobile.capture;
+
+/**
+ * 设备画面的观看优先级，由客户端的 view_hint 消息给出
+ */
+public enum CaptureTier {
+    
+    /**
+     * 聚焦或放大的窗口，优先获得全帧率名额
+     */
+    FOCUSED,
+    
+    /**
+     * 可见的缩略窗口，全帧率名额用完后降低帧率
+     */
+    VISIBLE,
+    
+    /**
+     * 不在屏幕上的窗口，暂停推送，不计为观看者
+     */
+    HIDDEN;
+    
+    /**
+     * 解析客户端提示，如 focused、visible、hidden，无法识别时返回null
+     */
+    public static CaptureTier parse(String value) {
+        if (value != null) {
+            for (CaptureTier tier : values()) {
+                if (tier.name().equalsIgnoreCase(value.trim())) {
+                    return tier;
+                }
+            }
+        }
+        return null;
+    }
+}
\ No newline at end of file
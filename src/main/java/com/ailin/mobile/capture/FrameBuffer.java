@@ -0,0 +1,95 @@
+package com.ailin.mobile.capture;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 引用计数的帧缓冲区
+ *
+ * <p>解析器直接读入该缓冲区，解析出的帧以切片形式引用它；
+ * 每个持有者（解析器、分发槽位、会话发送队列等）各持有一次引用，
+ * 全部释放后缓冲区归还到缓冲池。</p>
+ */
+public class FrameBuffer {
+    
+    private final byte[] array;
+    
+    /**
+     * 所属缓冲池，为null时释放后直接丢弃
+     */
+    private final FrameBufferPool pool;
+    
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    
+    FrameBuffer(byte[] array, FrameBufferPool pool) {
+        this.array = array;
+        this.pool = pool;
+    }
+    
+    /**
+     * 包装已有数组（不入池）
+     */
+    public static FrameBuffer wrap(byte[] array) {
+        return new FrameBuffer(array, null);
+    }
+    
+    public byte[] array() {
+        return array;
+    }
+    
+    public int capacity() {
+        return array.length;
+    }
+    
+    public int refCnt() {
+        return refCnt.get();
+    }
+    
+    /**
+     * 增加一次引用
+     */
+    public FrameBuffer retain() {
+        int count;
+        do {
+            count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("缓冲区已释放");
+            }
+        } while (!refCnt.compareAndSet(count, count + 1));
+        return this;
+    }
+    
+    /**
+     * 释放一次引用，计数归零时归还缓冲池
+     */
+    public void release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        } else if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("缓冲区重复释放");
+        }
+    }
+    
+    /**
+     * 获取指定区域的只读视图（独立的position/limit）
+     */
+    public ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = ByteBuffer.wrap(array).asReadOnlyBuffer();
+        // 通过Buffer调用，兼容Java 8运行时
+        ((Buffer) view).limit(offset + length);
+        ((Buffer) view).position(offset);
+        return view.slice();
+    }
+    
+    /**
+     * 从缓冲池取出时重置引用计数
+     */
+    void reset() {
+        refCnt.set(1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.ailin.mobile.capture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧缓冲池
+ *
+ * <p>按2的幂划分容量等级（64KB起），每个等级一个无锁空闲队列，
+ * 池中缓存的总字节数受上限约束。超过最大等级的请求直接分配且不入池。</p>
+ */
+public class FrameBufferPool {
+    
+    private static final int MIN_SHIFT = 16;
+    
+    private static final int MAX_SHIFT = 24;
+    
+    private final long maxPooledBytes;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedQueue<FrameBuffer>[] freeLists = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    
+    private final AtomicLong pooledBytes = new AtomicLong();
+    
+    private final AtomicLong acquired = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong outstanding = new AtomicLong();
+    
+    public FrameBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+    
+    /**
+     * 获取容量不小于指定值的缓冲区，引用计数为1
+     */
+    public FrameBuffer acquire(int minCapacity) {
+        acquired.incrementAndGet();
+        outstanding.incrementAndGet();
+        
+        int index = classIndex(minCapacity);
+        if (index < 0) {
+            return new FrameBuffer(new byte[minCapacity], this);
+        }
+        
+        FrameBuffer buffer = freeLists[index].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.incrementAndGet();
+            buffer.reset();
+            return buffer;
+        }
+        return new FrameBuffer(new byte[1 << (index + MIN_SHIFT)], this);
+    }
+    
+    /**
+     * 回收引用计数归零的缓冲区
+     */
+    void recycle(FrameBuffer buffer) {
+        outstanding.decrementAndGet();
+        
+        int capacity = buffer.capacity();
+        int index = classIndex(capacity);
+        if (index < 0 || capacity != 1 << (index + MIN_SHIFT)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        freeLists[index].offer(buffer);
+    }
+    
+    /**
+     * 容量等级，超出最大等级返回-1
+     */
+    private static int classIndex(int capacity) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1));
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+    
+    /**
+     * 获取缓冲池指标
+     */
+    public Map<String, Object> getMetrics() {
+        long acquiredCount = acquired.get();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("acquired", acquiredCount);
+        metrics.put("hits", hits.get());
+        metrics.put("hitRate", acquiredCount == 0 ? 0.0 : (double) hits.get() / acquiredCount);
+        metrics.put("outstanding", outstanding.get());
+        metrics.put("pooledBytes", pooledBytes.get());
+        return metrics;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.model.ScreenFrame;
+
+/**
+ * 屏幕帧消费者（WebSocket推送等），由帧分发器调用
+ */
+public interface FrameConsumer {
+    
+    /**
+     * 处理一帧，不应长时间阻塞；需在返回后继续使用帧时调用 {@link ScreenFrame#retain()}
+     */
+    void onFrame(ScreenFrame frame);
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.model.ScreenFrame;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * 帧的低分辨率亮度签名
+ *
+ * <p>JPEG按行列间隔抽样解码为长边约四倍网格大小的小图，再把每个网格单元平均为一个亮度值，
+ * 用于比较两帧画面是否有明显变化；比逐像素比较完整图像便宜得多。</p>
+ */
+public final class FrameSignature {
+    
+    /**
+     * 签名网格边长（单元数）
+     */
+    public static final int GRID = 32;
+    
+    /**
+     * 单元亮度差超过该值才算变化，过滤JPEG压缩噪声
+     */
+    private static final int CELL_THRESHOLD = 12;
+    
+    private FrameSignature() {
+    }
+    
+    /**
+     * 计算帧的签名
+     *
+     * @return GRID*GRID 个单元的平均亮度（0-255）
+     * @throws IOException 帧不是可解码的JPEG
+     */
+    public static byte[] compute(ScreenFrame frame) throws IOException {
+        // 抽样到长边约四倍网格大小，短边每个单元也能覆盖几个像素
+        BufferedImage image = JpegCodec.decode(frame, GRID * 4);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        
+        int[] sums = new int[GRID * GRID];
+        int[] counts = new int[GRID * GRID];
+        for (int y = 0; y < height; y++) {
+            int row = y * GRID / height * GRID;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[y * width + x];
+                int luma = (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+                int cell = row + x * GRID / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        
+        byte[] signature = new byte[GRID * GRID];
+        for (int i = 0; i < signature.length; i++) {
+            // 图像小于网格时部分单元没有像素，记为0
+            signature[i] = (byte) (counts[i] > 0 ? sums[i] / counts[i] : 0);
+        }
+        return signature;
+    }
+    
+    /**
+     * 计算两个签名中发生变化的单元比例
+     */
+    public static double changedRatio(byte[] previous, byte[] current) {
+        int changed = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (Math.abs((previous[i] & 0xff) - (current[i] & 0xff)) > CELL_THRESHOLD) {
+                changed++;
+            }
+        }
+        return (double) changed / current.length;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.model.ScreenFrame;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * JPEG解码、缩放与编码
+ */
+public final class JpegCodec {
+    
+    private JpegCodec() {
+    }
+    
+    /**
+     * 按原始分辨率解码
+     *
+     * @throws IOException 帧不是可解码的JPEG
+     */
+    public static BufferedImage decode(ScreenFrame frame) throws IOException {
+        return decode(frame, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * 按相同的行列间隔抽样解码，保持宽高比，结果长边不小于给定值（原图更小时按原图）
+     *
+     * @throws IOException 帧不是可解码的JPEG
+     */
+    public static BufferedImage decode(ScreenFrame frame, int minLongEdge) throws IOException {
+        ImageReader reader = getReader();
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(
+                frame.getBuffer().array(), frame.getOffset(), frame.getLength()))) {
+            reader.setInput(input, true, true);
+            
+            ImageReadParam param = reader.getDefaultReadParam();
+            int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+            int step = Math.max(1, longEdge / Math.max(1, minLongEdge));
+            param.setSourceSubsampling(step, step, 0, 0);
+            
+            BufferedImage image = reader.read(0, param);
+            if (image == null) {
+                throw new IOException("JPEG解码失败");
+            }
+            return image;
+        } catch (RuntimeException e) {
+            // 损坏的JPEG可能在解码器内部抛出运行时异常
+            throw new IOException("JPEG解码失败", e);
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    /**
+     * 只读取JPEG头，获取图像长边像素数
+     *
+     * @throws IOException 帧不是可解码的JPEG
+     */
+    public static int readLongEdge(ScreenFrame frame) throws IOException {
+        ImageReader reader = getReader();
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(
+                frame.getBuffer().array(), frame.getOffset(), frame.getLength()))) {
+            reader.setInput(input, true, true);
+            return Math.max(reader.getWidth(0), reader.getHeight(0));
+        } catch (RuntimeException e) {
+            throw new IOException("JPEG头解析失败", e);
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    /**
+     * 双线性缩放到指定尺寸
+     */
+    public static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+    
+    /**
+     * 编码为JPEG
+     *
+     * @param quality 压缩质量（0-1）
+     */
+    public static byte[] encode(BufferedImage image, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("没有可用的JPEG编码器");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+    
+    private static ImageReader getReader() throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext()) {
+            throw new IOException("没有可用的JPEG解码器");
+        }
+        return readers.next();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+package com.ailin.mobile.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * MJPEG流式帧解析器
+ *
+ * <p>在一块可复用、可增长的缓冲区上增量扫描 SOI(0xFFD8)/EOI(0xFFD9) 标记：
+ * 每次只扫描新读入的字节，已消费的空间在需要写入时通过整理（只搬移未完成的帧）回收，
+ * 完整帧以缓冲区切片的形式回调，不会重复拷贝整个缓冲区。
+ * 被拆分在两次读取之间的 0xFF 会保留在缓冲区中，下次扫描时自然衔接。</p>
+ *
+ * <p>缓冲区来自 {@link FrameBufferPool}：回调方可以 retain 缓冲区而无需拷贝帧数据；
+ * 缓冲区仍被帧引用时，解析器改为从池中取新缓冲区，只搬移未完成的帧。</p>
+ *
+ * <p>非线程安全，每个设备连接独占一个实例。</p>
+ */
+public class MjpegFrameParser {
+    
+    private static final byte MARKER = (byte) 0xFF;
+    private static final byte SOI = (byte) 0xD8;
+    private static final byte EOI = (byte) 0xD9;
+    
+    /**
+     * 帧回调
+     */
+    public interface FrameHandler {
+        /**
+         * 收到完整的JPEG帧；需在回调之后继续使用时调用 {@link FrameBuffer#retain()}
+         */
+        void onFrame(FrameBuffer buffer, int offset, int length);
+    }
+    
+    private final FrameHandler handler;
+    
+    /**
+     * 缓冲池，为null时直接分配
+     */
+    private final FrameBufferPool pool;
+    
+    /**
+     * 单帧最大字节数，超过后丢弃当前帧重新同步
+     */
+    private final int maxFrameSize;
+    
+    /**
+     * 每次读取的最小可写空间
+     */
+    private final int readChunkSize;
+    
+    private FrameBuffer frameBuffer;
+    
+    /**
+     * 当前缓冲区的底层数组
+     */
+    private byte[] buffer;
+    
+    /**
+     * 未消费数据起点（帧起点或待查找SOI的位置）
+     */
+    private int readIndex;
+    
+    /**
+     * 下一个待检查的标记第二字节位置，其前一字节为标记第一字节
+     */
+    private int scanIndex = 1;
+    
+    /**
+     * 写入位置
+     */
+    private int writeIndex;
+    
+    /**
+     * 是否已找到SOI
+     */
+    private boolean inFrame;
+    
+    private long frameCount;
+    private long discardedBytes;
+    private long oversizedFrames;
+    
+    public MjpegFrameParser(FrameBufferPool pool, int initialCapacity, int readChunkSize, int maxFrameSize,
+                            FrameHandler handler) {
+        this.pool = pool;
+        this.frameBuffer = allocate(Math.max(initialCapacity, readChunkSize));
+        this.buffer = frameBuffer.array();
+        this.readChunkSize = readChunkSize;
+        this.maxFrameSize = maxFrameSize;
+        this.handler = handler;
+    }
+    
+    /**
+     * 从输入流读取一次数据并解析
+     *
+     * @return 读取的字节数，-1表示流已结束
+     */
+    public int readFrom(InputStream inputStream) throws IOException {
+        ensureWritable(readChunkSize);
+        int bytesRead = inputStream.read(buffer, writeIndex, buffer.length - writeIndex);
+        if (bytesRead > 0) {
+            writeIndex += bytesRead;
+            scan();
+        }
+        return bytesRead;
+    }
+    
+    /**
+     * 从通道（可为非阻塞）读取一次数据并解析
+     *
+     * @return 读取的字节数，0表示暂无数据，-1表示流已结束
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureWritable(readChunkSize);
+        int bytesRead = channel.read(ByteBuffer.wrap(buffer, writeIndex, buffer.length - writeIndex));
+        if (bytesRead > 0) {
+            writeIndex += bytesRead;
+            scan();
+        }
+        return bytesRead;
+    }
+    
+    /**
+     * 追加数据并解析
+     */
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            ensureWritable(Math.min(length, readChunkSize));
+            int n = Math.min(length, buffer.length - writeIndex);
+            System.arraycopy(data, offset, buffer, writeIndex, n);
+            writeIndex += n;
+            offset += n;
+            length -= n;
+            scan();
+        }
+    }
+    
+    /**
+     * 从上次停止的位置继续扫描新数据
+     */
+    private void scan() {
+        byte[] buf = buffer;
+        int i = scanIndex;
+        int limit = writeIndex;
+        
+        while (i < limit) {
+            if (buf[i - 1] == MARKER) {
+                byte marker = buf[i];
+                if (!inFrame) {
+                    if (marker == SOI) {
+                        discardedBytes += i - 1 - readIndex;
+                        readIndex = i - 1;
+                        inFrame = true;
+                    }
+                } else if (marker == EOI) {
+                    int end = i + 1;
+                    frameCount++;
+                    handler.onFrame(frameBuffer, readIndex, end - readIndex);
+                    readIndex = end;
+                    inFrame = false;
+                    // 下一个标记至少从帧尾之后两个字节开始
+                    i = end + 1;
+                    continue;
+                }
+            }
+            i++;
+        }
+        scanIndex = i;
+        
+        if (!inFrame) {
+            // 丢弃SOI之前的无用数据，仅保留最后一个字节（可能是被拆分的0xFF）
+            int keep = Math.max(readIndex, limit - 1);
+            discardedBytes += keep - readIndex;
+            readIndex = keep;
+            scanIndex = Math.max(scanIndex, readIndex + 1);
+        } else if (limit - readIndex > maxFrameSize) {
+            // 帧过大，视为数据损坏，丢弃后重新查找SOI
+            oversizedFrames++;
+            discardedBytes += limit - 1 - readIndex;
+            readIndex = limit - 1;
+            scanIndex = limit;
+            inFrame = false;
+        }
+    }
+    
+    /**
+     * 保证至少有指定的可写空间：优先整理回收已消费空间，不足或缓冲区仍被帧引用时换新缓冲区
+     */
+    private void ensureWritable(int minWritable) {
+        if (buffer.length - writeIndex >= minWritable) {
+            return;
+        }
+        
+        int remaining = writeIndex - readIndex;
+        boolean shared = frameBuffer.refCnt() > 1;
+        
+        if (!shared && buffer.length - remaining >= minWritable) {
+            // 仅解析器持有，原地整理
+            System.arraycopy(buffer, readIndex, buffer, 0, remaining);
+        } else {
+            // 已发出的帧仍引用当前缓冲区，或空间不足：换新缓冲区，只搬移未完成的部分
+            int newCapacity = buffer.length - remaining >= minWritable
+                    ? buffer.length : Math.max(buffer.length * 2, remaining + minWritable);
+            FrameBuffer newBuffer = allocate(newCapacity);
+            System.arraycopy(buffer, readIndex, newBuffer.array(), 0, remaining);
+            frameBuffer.release();
+            frameBuffer = newBuffer;
+            buffer = newBuffer.array();
+        }
+        
+        scanIndex -= readIndex;
+        writeIndex = remaining;
+        readIndex = 0;
+    }
+    
+    private FrameBuffer allocate(int capacity) {
+        return pool != null ? pool.acquire(capacity) : FrameBuffer.wrap(new byte[capacity]);
+    }
+    
+    /**
+     * 释放解析缓冲区，之后不可再使用
+     */
+    public void release() {
+        if (frameBuffer != null) {
+            frameBuffer.release();
+            frameBuffer = null;
+            buffer = null;
+        }
+    }
+    
+    /**
+     * 重置解析状态（保留缓冲区以便复用）
+     */
+    public void reset() {
+        readIndex = 0;
+        writeIndex = 0;
+        scanIndex = 1;
+        inFrame = false;
+    }
+    
+    public long getFrameCount() {
+        return frameCount;
+    }
+    
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+    
+    public long getOversizedFrames() {
+        return oversizedFrames;
+    }
+    
+    public int getCapacity() {
+        return buffer.length;
+    }
+}
\ No newline at end of file
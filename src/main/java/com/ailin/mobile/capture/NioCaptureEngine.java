@@ -0,0 +1,319 @@
+package com.ailin.mobile.capture;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO捕获引擎：少量Selector线程驱动所有设备的非阻塞SocketChannel
+ */
+@Slf4j
+public class NioCaptureEngine implements CaptureEngine {
+    
+    /**
+     * 单次就绪事件最多连续读取的次数，避免单个设备独占Selector线程
+     */
+    private static final int MAX_READS_PER_EVENT = 16;
+    
+    /**
+     * 超时检查间隔（毫秒）
+     */
+    private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+    
+    private final MobileConfig.Capture config;
+    
+    private final int connectTimeout;
+    
+    private final CaptureListener listener;
+    
+    private final FrameBufferPool bufferPool;
+    
+    private final SelectorLoop[] loops;
+    
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    
+    /**
+     * 设备连接映射
+     */
+    private final ConcurrentHashMap<Integer, Connection> connections = new ConcurrentHashMap<>();
+    
+    public NioCaptureEngine(MobileConfig.Capture config, int connectTimeout, FrameBufferPool bufferPool,
+                            CaptureListener listener) throws IOException {
+        this.config = config;
+        this.connectTimeout = connectTimeout;
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+        
+        int threads = Math.max(1, config.getSelectorThreads());
+        this.loops = new SelectorLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new SelectorLoop(i);
+            loops[i].thread.start();
+        }
+        log.info("NIO捕获引擎已启动，Selector线程数: {}", threads);
+    }
+    
+    @Override
+    public boolean start(DeviceInfo device) {
+        // 先占位再创建连接，重复启动不会从缓冲池取出解析缓冲区
+        boolean[] created = new boolean[1];
+        Connection connection = connections.computeIfAbsent(device.getId(), id -> {
+            created[0] = true;
+            return new Connection(device, loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)]);
+        });
+        if (!created[0]) {
+            return false;
+        }
+        
+        log.info("开始连接设备进行屏幕捕获: {}:{} (ID: {})", device.getIp(), device.getPort(), device.getId());
+        connection.loop.execute(connection::open);
+        return true;
+    }
+    
+    @Override
+    public boolean stop(int deviceId) {
+        Connection connection = connections.get(deviceId);
+        if (connection == null) {
+            return false;
+        }
+        connection.loop.execute(() -> connection.close(null));
+        return true;
+    }
+    
+    @Override
+    public void stopAll() {
+        connections.values().forEach(connection -> connection.loop.execute(() -> connection.close(null)));
+    }
+    
+    @Override
+    public boolean isCapturing(int deviceId) {
+        return connections.containsKey(deviceId);
+    }
+    
+    @Override
+    public int getActiveConnectionCount() {
+        return connections.size();
+    }
+    
+    @Override
+    public void shutdown() {
+        stopAll();
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+    
+    /**
+     * Selector线程
+     */
+    private class SelectorLoop implements Runnable {
+        
+        private final Selector selector;
+        
+        private final Thread thread;
+        
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        
+        private volatile boolean running = true;
+        
+        private long lastTimeoutCheck = System.currentTimeMillis();
+        
+        SelectorLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-capture-" + index);
+            this.thread.setDaemon(true);
+        }
+        
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+        
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(TIMEOUT_CHECK_INTERVAL);
+                    
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                    
+                    long now = System.currentTimeMillis();
+                    if (now - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL) {
+                        lastTimeoutCheck = now;
+                        checkTimeouts(now);
+                    }
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (Exception e) {
+                    log.error("NIO捕获线程异常", e);
+                }
+            }
+            
+            // 关闭剩余连接
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close(null);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("关闭Selector失败", e);
+            }
+        }
+        
+        private void checkTimeouts(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.connecting) {
+                    if (now - connection.lastActivity > connectTimeout) {
+                        connection.close(new SocketTimeoutException("connect timed out"));
+                    }
+                } else if (now - connection.lastActivity > config.getReadTimeout()) {
+                    connection.close(new SocketTimeoutException("Read timed out"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * 单个设备的非阻塞连接，仅在所属Selector线程上访问
+     */
+    private class Connection {
+        
+        private final DeviceInfo device;
+        
+        private final SelectorLoop loop;
+        
+        private final MjpegFrameParser parser;
+        
+        private SocketChannel channel;
+        
+        private boolean connecting = true;
+        
+        private boolean closed;
+        
+        private long lastActivity = System.currentTimeMillis();
+        
+        Connection(DeviceInfo device, SelectorLoop loop) {
+            this.device = device;
+            this.loop = loop;
+            this.parser = new MjpegFrameParser(bufferPool, config.getInitialBufferSize(), config.getReadChunkSize(),
+                    config.getMaxFrameSize(), (buffer, offset, length) -> listener.onFrame(device, buffer, offset, length));
+        }
+        
+        void open() {
+            if (closed) {
+                return;
+            }
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                lastActivity = System.currentTimeMillis();
+                
+                if (channel.connect(new InetSocketAddress(device.getIp(), device.getPort()))) {
+                    onConnected(channel.register(loop.selector, SelectionKey.OP_READ, this));
+                } else {
+                    channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+        
+        void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable() && channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    onConnected(key);
+                } else if (key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                log.error("设备 {} 读取数据失败: {}", device.getId(), e.getMessage());
+                close(e);
+            } catch (RuntimeException e) {
+                log.error("设备 {} 处理数据异常", device.getId(), e);
+                close(e);
+            }
+        }
+        
+        private void onConnected(SelectionKey key) {
+            connecting = false;
+            lastActivity = System.currentTimeMillis();
+            log.info("开始接收设备 {} 的屏幕数据", device.getId());
+            listener.onConnected(device);
+        }
+        
+        private void read() throws IOException {
+            for (int i = 0; i < MAX_READS_PER_EVENT && !closed; i++) {
+                long framesBefore = parser.getFrameCount();
+                int bytesRead = parser.readFrom(channel);
+                
+                if (bytesRead == -1) {
+                    log.warn("设备 {} 连接已断开", device.getId());
+                    close(null);
+                    return;
+                }
+                if (bytesRead == 0) {
+                    return;
+                }
+                
+                lastActivity = System.currentTimeMillis();
+                if (parser.getFrameCount() / 100 != framesBefore / 100) {
+                    log.debug("设备 {} 已捕获 {} 帧", device.getId(), parser.getFrameCount());
+                }
+            }
+        }
+        
+        void close(Throwable error) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections.remove(device.getId(), this);
+            
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.error("关闭设备 {} 连接失败", device.getId(), e);
+                }
+            }
+            
+            if (parser.getOversizedFrames() > 0) {
+                log.warn("设备 {} 丢弃超大帧 {} 个", device.getId(), parser.getOversizedFrames());
+            }
+            log.info("设备 {} 屏幕捕获结束，共捕获 {} 帧", device.getId(), parser.getFrameCount());
+            parser.release();
+            listener.onDisconnected(device, error);
+        }
+    }
+}
\ No newline at end of file
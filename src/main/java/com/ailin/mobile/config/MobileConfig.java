@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 手机中控配置类
  */
@@ -22,6 +25,41 @@ public class MobileConfig {
      */
     private Websocket websocket = new Websocket();
     
+    /**
+     * 屏幕捕获配置
+     */
+    private Capture capture = new Capture();
+    
+    /**
+     * 马赛克合成配置
+     */
+    private Mosaic mosaic = new Mosaic();
+    
+    /**
+     * HTTP MJPEG推流配置
+     */
+    private Mjpeg mjpeg = new Mjpeg();
+    
+    /**
+     * 画面录制配置
+     */
+    private Recording recording = new Recording();
+    
+    /**
+     * 录制回放配置
+     */
+    private Replay replay = new Replay();
+    
+    /**
+     * 设备存活监测配置
+     */
+    private Liveness liveness = new Liveness();
+    
+    /**
+     * 后台持续发现配置
+     */
+    private Discovery discovery = new Discovery();
+    
     @Data
     public static class Network {
         /**
@@ -60,14 +98,19 @@ public class MobileConfig {
         private int httpTimeout = 1000;
         
         /**
-         * 最大窗口数
+         * 全帧率推送的最大窗口数，聚焦窗口优先
          */
         private int maxWindows = 20;
         
         /**
-         * 分批扫描大小
+         * 同时在途的TCP连接探测数上限
          */
-        private int batchSize = 10;
+        private int maxInFlightProbes = 256;
+        
+        /**
+         * HTTP检测线程数
+         */
+        private int verifyThreads = 16;
     }
     
     @Data
@@ -81,5 +124,411 @@ public class MobileConfig {
          * 允许的跨域来源
          */
         private String allowedOrigins = "*";
+        
+        /**
+         * 发送线程数
+         */
+        private int senderThreads = 4;
+        
+        /**
+         * 每个会话发送队列的最大消息数
+         */
+        private int sendQueueCapacity = 100;
+        
+        /**
+         * 每个会话发送队列的最大字节数
+         */
+        private int sendBufferSizeLimit = 4 * 1024 * 1024;
+        
+        /**
+         * 单条消息的最长发送时间（毫秒），超过后关闭会话
+         */
+        private int sendTimeLimit = 5000;
+        
+        /**
+         * 发送队列溢出策略：drop-oldest（丢弃同一设备最早的帧）、close-session（关闭会话）
+         */
+        private String overflowPolicy = "drop-oldest";
+    }
+    
+    @Data
+    public static class Capture {
+        /**
+         * 捕获引擎：blocking（每设备一个阻塞线程）、nio（少量Selector线程）
+         */
+        private String engine = "blocking";
+        
+        /**
+         * NIO引擎的Selector线程数
+         */
+        private int selectorThreads = 2;
+        
+        /**
+         * 读取超时时间（毫秒），超过该时间没有数据则断开
+         */
+        private int readTimeout = 30000;
+        
+        /**
+         * 解析缓冲区初始大小（字节）
+         */
+        private int initialBufferSize = 256 * 1024;
+        
+        /**
+         * 每次读取的字节数
+         */
+        private int readChunkSize = 16 * 1024;
+        
+        /**
+         * 单帧最大字节数，避免内存溢出
+         */
+        private int maxFrameSize = 1024 * 1024;
+        
+        /**
+         * 帧缓冲池最多缓存的字节数
+         */
+        private long bufferPoolMaxBytes = 64 * 1024 * 1024;
+        
+        /**
+         * 是否合并帧：下游较慢时只分发每个设备的最新帧，跳过过期帧
+         */
+        private boolean coalesce = true;
+        
+        /**
+         * 帧分发线程数
+         */
+        private int dispatchThreads = 4;
+        
+        /**
+         * 按需捕获：只连接有人观看的设备
+         */
+        private boolean onDemand = true;
+        
+        /**
+         * 最后一个观看者离开后保持连接的时间（毫秒）
+         */
+        private long idleGracePeriod = 10000;
+        
+        /**
+         * 超出全帧率名额（network.max-windows）的设备的推送帧率
+         */
+        private int reducedFps = 2;
+        
+        /**
+         * 最新帧缓存的最大总字节数，超出时淘汰最久未更新的设备
+         */
+        private long frameCacheMaxBytes = 32 * 1024 * 1024;
+        
+        /**
+         * 是否丢弃与上一帧完全相同的帧
+         */
+        private boolean dedup = false;
+        
+        /**
+         * 去重时画面静止的设备重发一帧的间隔（毫秒），让客户端确认设备仍在线
+         */
+        private long dedupKeepAliveInterval = 5000;
+        
+        /**
+         * 是否检测画面静止并降低静止设备的推送帧率
+         */
+        private boolean changeDetection = false;
+        
+        /**
+         * 画面静止设备的推送帧率
+         */
+        private int idleFps = 1;
+        
+        /**
+         * 画面持续无明显变化多久后视为静止（毫秒）
+         */
+        private long idleDelay = 3000;
+        
+        /**
+         * 单个设备两次变化检测的最小间隔（毫秒）
+         */
+        private long changeAnalyzeInterval = 500;
+        
+        /**
+         * 签名中变化单元所占比例超过该值才算画面变化
+         */
+        private double changeThreshold = 0.01;
+        
+        /**
+         * 变化检测线程数
+         */
+        private int changeDetectThreads = 2;
+        
+        /**
+         * 缩小画面的长边尺寸档位（像素），为空时不转码
+         */
+        private List<Integer> renditions = new ArrayList<>();
+        
+        /**
+         * 缩小画面的JPEG压缩质量（0-1）
+         */
+        private float renditionQuality = 0.7f;
+        
+        /**
+         * 转码线程数
+         */
+        private int transcodeThreads = 2;
+        
+        /**
+         * 是否允许增量画面：客户端以 ?delta=true 连接时只发送变化的图块
+         */
+        private boolean delta = false;
+        
+        /**
+         * 增量画面的图块边长（像素），取16的倍数与JPEG编码块对齐
+         */
+        private int deltaTileSize = 64;
+        
+        /**
+         * 增量画面的关键帧间隔（毫秒），到期后发送完整帧
+         */
+        private long deltaKeyframeInterval = 10000;
+        
+        /**
+         * 变化图块比例超过该值时直接发送完整帧
+         */
+        private double deltaMaxChangedRatio = 0.5;
+        
+        /**
+         * 图块的JPEG压缩质量(0-1)
+         */
+        private float deltaQuality = 0.8f;
+        
+        /**
+         * 增量编码线程数
+         */
+        private int deltaThreads = 2;
+        
+        /**
+         * 两帧间隔超过该时间视为画面停滞（毫秒）
+         */
+        private long stallTimeout = 5000;
+        
+        /**
+         * 停滞或连接中超过该时间断开重连（毫秒），0表示只依赖读取超时
+         */
+        private long stallReconnectTimeout = 15000;
+        
+        /**
+         * 断线重连的初始退避时间（毫秒），每次失败翻倍并加入随机抖动
+         */
+        private long reconnectBaseDelay = 1000;
+        
+        /**
+         * 断线重连的最大退避时间（毫秒）
+         */
+        private long reconnectMaxDelay = 60000;
+        
+        /**
+         * 连续重连失败次数上限，超过后标记为离线等待重新扫描；0表示一直重连
+         */
+        private int reconnectMaxAttempts = 10;
+        
+        /**
+         * 全局每秒最多发起的重连数，避免网络抖动后所有设备同时重连
+         */
+        private int reconnectRate = 5;
+    }
+    
+    @Data
+    public static class Mosaic {
+        /**
+         * 默认网格列数
+         */
+        private int columns = 6;
+        
+        /**
+         * 默认格子宽度（像素）
+         */
+        private int tileWidth = 180;
+        
+        /**
+         * 默认格子高度（像素）
+         */
+        private int tileHeight = 320;
+        
+        /**
+         * 默认输出帧率
+         */
+        private int fps = 2;
+        
+        /**
+         * 输出JPEG压缩质量（0-1）
+         */
+        private float quality = 0.7f;
+        
+        /**
+         * 单个马赛克的最大设备数
+         */
+        private int maxTiles = 64;
+        
+        /**
+         * 合成线程数
+         */
+        private int threads = 2;
+    }
+    
+    @Data
+    public static class Mjpeg {
+        /**
+         * 客户端未指定 fps 参数时的帧率
+         */
+        private int defaultFps = 5;
+        
+        /**
+         * 单个客户端的最大帧率
+         */
+        private int maxFps = 15;
+        
+        /**
+         * 最大同时连接的MJPEG客户端数
+         */
+        private int maxClients = 32;
+    }
+    
+    @Data
+    public static class Recording {
+        /**
+         * 是否开启录制功能，开启后通过接口选择录制的设备
+         */
+        private boolean enabled = false;
+        
+        /**
+         * 录制目录，每个设备一个子目录
+         */
+        private String directory = "recordings";
+        
+        /**
+         * 单个分段的最大字节数
+         */
+        private long segmentMaxBytes = 64L * 1024 * 1024;
+        
+        /**
+         * 单个分段的最长时长（毫秒）
+         */
+        private long segmentMaxDuration = 600000;
+        
+        /**
+         * 所有录制文件的总大小上限，超过时删除最早的分段
+         */
+        private long retentionMaxBytes = 2L * 1024 * 1024 * 1024;
+        
+        /**
+         * 录制文件的保留时长（毫秒）
+         */
+        private long retentionMaxAge = 7L * 24 * 3600 * 1000;
+        
+        /**
+         * 等待写入磁盘的帧的总大小上限，磁盘跟不上时超出部分直接丢弃
+         */
+        private long queueMaxBytes = 64L * 1024 * 1024;
+    }
+    
+    @Data
+    public static class Replay {
+        /**
+         * 回放调度线程数
+         */
+        private int threads = 2;
+        
+        /**
+         * 最大回放倍速
+         */
+        private double maxSpeed = 32;
+        
+        /**
+         * 回放输出的最大帧率，快进时超出的帧被跳过
+         */
+        private int maxFps = 30;
+        
+        /**
+         * 同时保持映射的分段数，供多个回放会话共用
+         */
+        private int maxOpenSegments = 16;
+        
+        /**
+         * 每个客户端同时进行的最大回放数
+         */
+        private int maxSessionsPerClient = 4;
+    }
+    
+    @Data
+    public static class Liveness {
+        /**
+         * 时间轮刻度（毫秒），也是状态变化合并广播的周期
+         */
+        private long tickDuration = 100;
+        
+        /**
+         * 时间轮槽数（取2的幂）
+         */
+        private int wheelSize = 512;
+        
+        /**
+         * 未捕获设备的心跳探测间隔（毫秒）
+         */
+        private long heartbeatInterval = 5000;
+        
+        /**
+         * 无响应超过该时间标记为 stale（毫秒）
+         */
+        private long staleTimeout = 15000;
+        
+        /**
+         * 无响应超过该时间标记为 offline（毫秒）
+         */
+        private long offlineTimeout = 60000;
+        
+        /**
+         * 同时在途的心跳探测数上限
+         */
+        private int maxInFlightHeartbeats = 256;
+    }
+    
+    @Data
+    public static class Discovery {
+        /**
+         * 是否在后台持续探测配置网段内的地址，默认关闭，只在手动扫描时发现设备
+         */
+        private boolean enabled = false;
+        
+        /**
+         * 每秒最多探测的地址数
+         */
+        private int maxProbesPerSecond = 20;
+        
+        /**
+         * 热地址的探测间隔（毫秒）
+         */
+        private long hotInterval = 15000;
+        
+        /**
+         * 设备被判定为无响应或离线后仍视为热地址的时间（毫秒）
+         */
+        private long hotWindow = 300000;
+        
+        /**
+         * 统计设备反复掉线的窗口（毫秒），窗口内不稳定的设备持续按热地址探测
+         */
+        private long flapWindow = 3600000;
+        
+        /**
+         * 统计窗口内设备掉线达到该次数视为不稳定
+         */
+        private int flapThreshold = 2;
+        
+        /**
+         * 第一次探测无结果后的否定缓存有效期（毫秒），之后每次翻倍
+         */
+        private long negativeTtl = 60000;
+        
+        /**
+         * 否定缓存有效期上限（毫秒）
+         */
+        private long maxNegativeTtl = 1800000;
     }
 }
\ No newline at end of file
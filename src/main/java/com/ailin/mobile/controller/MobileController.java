@@ -1,13 +1,40 @@
 package com.ailin.mobile.controller;
 
+import com.ailin.mobile.discovery.ScanTask;
 import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.DeviceListDelta;
+import com.ailin.mobile.model.MosaicLayout;
+import com.ailin.mobile.model.RecordingSegment;
+import com.ailin.mobile.model.ScreenFrame;
+import com.ailin.mobile.service.CaptureScheduler;
+import com.ailin.mobile.service.ChangeDetector;
+import com.ailin.mobile.service.DeltaEncoder;
+import com.ailin.mobile.service.DiscoveryScheduler;
+import com.ailin.mobile.service.FrameDispatcher;
+import com.ailin.mobile.service.LastFrameCache;
+import com.ailin.mobile.service.LivenessMonitor;
+import com.ailin.mobile.service.MjpegStreamService;
+import com.ailin.mobile.service.MosaicService;
 import com.ailin.mobile.service.NetworkScanService;
+import com.ailin.mobile.service.RecordingService;
+import com.ailin.mobile.service.RenditionService;
+import com.ailin.mobile.service.ReplayService;
+import com.ailin.mobile.service.ScanStreamService;
 import com.ailin.mobile.service.ScreenCaptureService;
 import com.ailin.mobile.service.WebSocketService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 import java.util.HashMap;
 import java.util.List;
@@ -32,20 +59,63 @@ public class MobileController {
     @Autowired
     private WebSocketService webSocketService;
     
+    @Autowired
+    private FrameDispatcher frameDispatcher;
+    
+    @Autowired
+    private ScanStreamService scanStreamService;
+    
+    @Autowired
+    private CaptureScheduler captureScheduler;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private ChangeDetector changeDetector;
+    
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private MosaicService mosaicService;
+    
+    @Autowired
+    private DeltaEncoder deltaEncoder;
+    
+    @Autowired
+    private MjpegStreamService mjpegStreamService;
+    
+    @Autowired
+    private ReplayService replayService;
+    
+    @Autowired
+    private LivenessMonitor livenessMonitor;
+    
+    @Autowired
+    private DiscoveryScheduler discoveryScheduler;
+    
+    @Autowired
+    private RecordingService recordingService;
+    
     /**
      * 扫描局域网设备（全量扫描）
+     *
+     * <p>stream=true 时立即返回扫描ID，发现的设备通过WebSocket和 /scan/{scanId}/events 逐个推送。</p>
      */
     @PostMapping("/scan")
-    public ResponseEntity<?> scanNetwork() {
+    public ResponseEntity<?> scanNetwork(@RequestParam(defaultValue = "false") boolean stream) {
         try {
             log.info("收到全量扫描网络请求");
             
+            if (stream) {
+                return ResponseEntity.ok(createScanStartedResponse(networkScanService.startNetworkScan()));
+            }
+            
+            // 扫描结束时设备列表增量已通过WebSocket推送给前端
             CompletableFuture<List<DeviceInfo>> future = networkScanService.scanNetwork();
             List<DeviceInfo> devices = future.get();
             
-            // 通过WebSocket通知前端
-            webSocketService.sendDeviceList(devices);
-            
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "扫描完成");
@@ -69,7 +139,8 @@ public class MobileController {
      * 分批扫描局域网设备
      */
     @PostMapping("/scan/batch")
-    public ResponseEntity<?> scanNetworkBatch(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> scanNetworkBatch(@RequestBody Map<String, Object> request,
+                                              @RequestParam(defaultValue = "false") boolean stream) {
         try {
             String baseIp = (String) request.get("baseIp");
             Integer startRange = (Integer) request.get("startRange");
@@ -84,12 +155,15 @@ public class MobileController {
             
             log.info("收到分批扫描网络请求: {}.{}-{}", baseIp, startRange, endRange);
             
+            if (stream) {
+                return ResponseEntity.ok(createScanStartedResponse(
+                        networkScanService.startScan(baseIp, startRange, endRange)));
+            }
+            
+            // 扫描结束时设备列表增量已通过WebSocket推送给前端
             CompletableFuture<List<DeviceInfo>> future = networkScanService.scanBatch(baseIp, startRange, endRange);
             List<DeviceInfo> devices = future.get();
             
-            // 通过WebSocket通知前端
-            webSocketService.sendDeviceList(devices);
-            
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "分批扫描完成");
@@ -110,16 +184,87 @@ public class MobileController {
         }
     }
     
+    /**
+     * 获取扫描进度
+     */
+    @GetMapping("/scan/{scanId}")
+    public ResponseEntity<?> getScan(@PathVariable String scanId) {
+        ScanTask task = networkScanService.getScan(scanId);
+        if (task == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "扫描不存在");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("scanId", task.getScanId());
+        response.put("range", task.getRange());
+        response.put("probed", task.getProbed());
+        response.put("total", task.getTotal());
+        response.put("completed", task.isCompleted());
+        response.put("devices", task.getDevices());
+        response.put("count", task.getDevices().size());
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 订阅扫描事件（SSE）：device_found、scan_progress、scan_completed
+     */
+    @GetMapping(value = "/scan/{scanId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamScan(@PathVariable String scanId) {
+        ScanTask task = networkScanService.getScan(scanId);
+        if (task == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "扫描不存在");
+        }
+        return scanStreamService.subscribe(task);
+    }
+    
     /**
      * 获取设备列表
+     *
+     * <p>响应带有设备列表版本。指定 sinceVersion 时只返回该版本以来新增、变化（devices）和移除（removed）的设备，
+     * 没有变化时返回304；版本过旧时返回完整列表并标记 full。增量针对全部设备，不与状态、网段条件同时使用。</p>
      */
     @GetMapping("/devices")
-    public ResponseEntity<?> getDevices() {
+    public ResponseEntity<?> getDevices(@RequestParam(required = false) String status,
+                                        @RequestParam(required = false) String subnet,
+                                        @RequestParam(required = false) Long sinceVersion) {
         try {
-            List<DeviceInfo> devices = networkScanService.getAllDevices();
+            if (sinceVersion != null) {
+                if (status != null || subnet != null) {
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("success", false);
+                    response.put("message", "sinceVersion 不能与 status、subnet 同时使用");
+                    return ResponseEntity.badRequest().body(response);
+                }
+                
+                DeviceListDelta delta = networkScanService.getDeviceChanges(sinceVersion);
+                if (delta.isEmpty()) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+                }
+                
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("fromVersion", delta.getFromVersion());
+                response.put("version", delta.getVersion());
+                response.put("full", delta.isFull());
+                response.put("devices", delta.getDevices());
+                response.put("removed", delta.getRemoved());
+                response.put("count", delta.getDevices().size());
+                
+                return ResponseEntity.ok(response);
+            }
+            
+            // 先取版本再取列表，列表可能已包含更新的变化，之后按该版本取增量只会重复而不会遗漏
+            long version = networkScanService.getDeviceListVersion();
+            List<DeviceInfo> devices = networkScanService.findDevices(status, subnet);
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
+            response.put("version", version);
             response.put("devices", devices);
             response.put("count", devices.size());
             
@@ -166,6 +311,227 @@ public class MobileController {
         }
     }
     
+    /**
+     * 获取设备最新一帧画面（JPEG），画面未变化时按 If-None-Match 返回304
+     */
+    @GetMapping("/devices/{deviceId}/snapshot")
+    public ResponseEntity<?> getDeviceSnapshot(@PathVariable int deviceId, WebRequest webRequest) {
+        ScreenFrame frame = lastFrameCache.get(deviceId);
+        if (frame == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "设备暂无画面");
+            
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        
+        try {
+            // 帧序号在设备重新捕获时会重置，加上时间戳保证唯一
+            String etag = "\"" + deviceId + "-" + frame.getSequence() + "-" + frame.getTimestamp() + "\"";
+            if (webRequest.checkNotModified(etag)) {
+                return null;
+            }
+            
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(frame.toByteArray());
+            
+        } finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * 以MJPEG（multipart/x-mixed-replace）推送设备画面，可直接用于 &lt;img&gt; 或OpenCV
+     *
+     * @param fps 帧率，不超过配置的上限
+     */
+    @GetMapping("/devices/{deviceId}/stream.mjpeg")
+    public ResponseEntity<?> streamDevice(@PathVariable int deviceId, @RequestParam(required = false) Integer fps,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (networkScanService.getDevice(deviceId) == null) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", false);
+            body.put("message", "设备不存在");
+            
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+        }
+        if (!mjpegStreamService.streamDevice(deviceId, fps, request, response)) {
+            return mjpegUnavailable();
+        }
+        // 已转为异步推流，响应由推流服务写出
+        return null;
+    }
+    
+    /**
+     * 开始录制设备画面
+     */
+    @PostMapping("/devices/{deviceId}/recording")
+    public ResponseEntity<?> startRecording(@PathVariable int deviceId) {
+        Map<String, Object> response = new HashMap<>();
+        if (!recordingService.isEnabled()) {
+            response.put("success", false);
+            response.put("message", "录制功能未开启");
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (networkScanService.getDevice(deviceId) == null) {
+            response.put("success", false);
+            response.put("message", "设备不存在");
+            
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        
+        boolean started = recordingService.startRecording(deviceId);
+        response.put("success", true);
+        response.put("message", started ? "开始录制" : "设备已在录制");
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 停止录制设备画面
+     */
+    @DeleteMapping("/devices/{deviceId}/recording")
+    public ResponseEntity<?> stopRecording(@PathVariable int deviceId) {
+        boolean stopped = recordingService.stopRecording(deviceId);
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", stopped ? "停止录制" : "设备未在录制");
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 获取设备已完成的录制分段
+     */
+    @GetMapping("/devices/{deviceId}/recordings")
+    public ResponseEntity<?> getRecordings(@PathVariable int deviceId) {
+        List<RecordingSegment> segments = recordingService.getSegments(deviceId);
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("recording", recordingService.isRecording(deviceId));
+        response.put("segments", segments);
+        response.put("count", segments.size());
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 获取录制中不晚于给定时间的一帧画面（JPEG）
+     */
+    @GetMapping("/devices/{deviceId}/recordings/frame")
+    public ResponseEntity<?> getRecordedFrame(@PathVariable int deviceId, @RequestParam long timestamp) {
+        ScreenFrame frame = replayService.readFrame(deviceId, timestamp);
+        if (frame == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "该时间之前没有录制");
+            
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        
+        try {
+            return ResponseEntity.ok()
+                    .header("X-Timestamp", String.valueOf(frame.getTimestamp()))
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(frame.toByteArray());
+        } finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * 以MJPEG回放设备录制，响应头 X-Replay-Id 为回放ID，可通过 /replays/{replayId}/control 控制
+     *
+     * @param timestamp 起始时间，默认从最早的录制开始
+     * @param speed 回放倍速，0表示暂停（逐帧步进）
+     */
+    @GetMapping("/devices/{deviceId}/replay.mjpeg")
+    public ResponseEntity<?> streamReplay(@PathVariable int deviceId, @RequestParam(defaultValue = "0") long timestamp,
+                                          @RequestParam(defaultValue = "1") double speed,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!replayService.hasRecordings(deviceId)) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", false);
+            body.put("message", "设备没有录制");
+            
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+        }
+        try {
+            if (!mjpegStreamService.streamReplay(deviceId, timestamp, speed, request, response)) {
+                return mjpegUnavailable();
+            }
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", false);
+            body.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(body);
+        }
+        return null;
+    }
+    
+    /**
+     * 获取回放状态
+     */
+    @GetMapping("/replays/{replayId}")
+    public ResponseEntity<?> getReplay(@PathVariable int replayId) {
+        Map<String, Object> state = replayService.getState(replayId);
+        if (state == null) {
+            return replayNotFound();
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("replay", state);
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 控制回放：action为play、pause、seek（timestamp）、step（frames，负数后退）、speed（speed）
+     */
+    @PostMapping("/replays/{replayId}/control")
+    public ResponseEntity<?> controlReplay(@PathVariable int replayId, @RequestBody Map<String, Object> request) {
+        Object timestamp = request.get("timestamp");
+        Object frames = request.get("frames");
+        Object speed = request.get("speed");
+        try {
+            Map<String, Object> state = replayService.control(replayId, (String) request.get("action"),
+                    timestamp instanceof Number ? ((Number) timestamp).longValue() : null,
+                    frames instanceof Number ? ((Number) frames).intValue() : null,
+                    speed instanceof Number ? ((Number) speed).doubleValue() : null);
+            if (state == null) {
+                return replayNotFound();
+            }
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("replay", state);
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    private ResponseEntity<?> replayNotFound() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "回放不存在");
+        
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+    }
+    
     /**
      * 移除设备
      */
@@ -173,6 +539,7 @@ public class MobileController {
     public ResponseEntity<?> removeDevice(@PathVariable int deviceId) {
         try {
             networkScanService.removeDevice(deviceId);
+            webSocketService.sendDeviceListDelta();
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -233,14 +600,17 @@ public class MobileController {
     @GetMapping("/status")
     public ResponseEntity<?> getStatus() {
         try {
-            int deviceCount = networkScanService.getAllDevices().size();
+            int deviceCount = networkScanService.getDeviceCount();
             int activeConnections = screenCaptureService.getActiveConnectionCount();
             int activeSessions = webSocketService.getActiveSessionCount();
             
             Map<String, Object> status = new HashMap<>();
             status.put("deviceCount", deviceCount);
+            status.put("onlineDeviceCount", networkScanService.getOnlineDeviceCount());
             status.put("activeConnections", activeConnections);
             status.put("activeSessions", activeSessions);
+            status.put("droppedFrames", webSocketService.getDroppedFrameCount());
+            status.put("skippedFrames", frameDispatcher.getSkippedFrameCount());
             status.put("timestamp", System.currentTimeMillis());
             
             Map<String, Object> response = new HashMap<>();
@@ -259,4 +629,161 @@ public class MobileController {
             return ResponseEntity.internalServerError().body(response);
         }
     }
+    
+    /**
+     * 获取各设备的帧分发统计
+     */
+    @GetMapping("/capture/stats")
+    public ResponseEntity<?> getCaptureStats() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("dispatch", frameDispatcher.getStats());
+            response.put("bufferPool", screenCaptureService.getBufferPoolMetrics());
+            response.put("scheduler", captureScheduler.getStats());
+            response.put("supervisor", screenCaptureService.getSupervisorStats());
+            response.put("frameCache", lastFrameCache.getStats());
+            response.put("changeDetection", changeDetector.getStats());
+            response.put("rendition", renditionService.getStats());
+            response.put("mosaic", mosaicService.getStats());
+            response.put("delta", deltaEncoder.getStats());
+            response.put("mjpeg", mjpegStreamService.getStats());
+            response.put("recording", recordingService.getStats());
+            response.put("replay", replayService.getStats());
+            response.put("liveness", livenessMonitor.getStats());
+            response.put("discovery", discoveryScheduler.getStats());
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            log.error("获取捕获统计失败", e);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "获取捕获统计失败: " + e.getMessage());
+            
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+    
+    /**
+     * 获取所有马赛克布局
+     */
+    @GetMapping("/mosaics")
+    public ResponseEntity<?> getMosaics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("mosaics", mosaicService.getAll());
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 创建马赛克，通过WebSocket的 subscribe_mosaic 消息订阅合成画面
+     */
+    @PostMapping("/mosaics")
+    public ResponseEntity<?> createMosaic(@RequestBody MosaicLayout request) {
+        try {
+            MosaicLayout layout = mosaicService.create(request);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("mosaic", layout);
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 更新马赛克布局
+     */
+    @PutMapping("/mosaics/{mosaicId}")
+    public ResponseEntity<?> updateMosaic(@PathVariable int mosaicId, @RequestBody MosaicLayout request) {
+        try {
+            MosaicLayout layout = mosaicService.update(mosaicId, request);
+            if (layout == null) {
+                return mosaicNotFound();
+            }
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("mosaic", layout);
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 删除马赛克
+     */
+    @DeleteMapping("/mosaics/{mosaicId}")
+    public ResponseEntity<?> deleteMosaic(@PathVariable int mosaicId) {
+        if (!mosaicService.delete(mosaicId)) {
+            return mosaicNotFound();
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "马赛克已删除");
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 以MJPEG推送马赛克画面
+     */
+    @GetMapping("/mosaics/{mosaicId}/stream.mjpeg")
+    public ResponseEntity<?> streamMosaic(@PathVariable int mosaicId, @RequestParam(required = false) Integer fps,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (mosaicService.get(mosaicId) == null) {
+            return mosaicNotFound();
+        }
+        if (!mjpegStreamService.streamMosaic(mosaicId, fps, request, response)) {
+            return mjpegUnavailable();
+        }
+        return null;
+    }
+    
+    private ResponseEntity<?> mjpegUnavailable() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "MJPEG连接数已达上限");
+        
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+    
+    private ResponseEntity<?> mosaicNotFound() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "马赛克不存在");
+        
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+    }
+    
+    /**
+     * 流式扫描已开始的响应
+     */
+    private Map<String, Object> createScanStartedResponse(ScanTask task) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "扫描已开始");
+        response.put("scanId", task.getScanId());
+        response.put("range", task.getRange());
+        response.put("total", task.getTotal());
+        return response;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+package com.ailin.mobile.discovery;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 非阻塞TCP连接探测器
+ *
+ * <p>单个Selector线程同时发起大量非阻塞connect，在途探测数受上限约束：
+ * 一个网段内的无响应地址在同一个超时周期内一起超时，而不是逐个等待。</p>
+ */
+@Slf4j
+public class ConnectProber {
+    
+    /**
+     * 超时检查间隔（毫秒）
+     */
+    private static final long TIMEOUT_CHECK_INTERVAL = 100;
+    
+    private final int maxInFlight;
+    
+    private final int connectTimeout;
+    
+    private final Selector selector;
+    
+    private final Thread thread;
+    
+    /**
+     * 新提交的探测任务
+     */
+    private final ConcurrentLinkedQueue<Probe> submitted = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * 等待在途名额的探测，仅在Selector线程上访问
+     */
+    private final ArrayDeque<Probe> waiting = new ArrayDeque<>();
+    
+    /**
+     * 在途探测数，仅在Selector线程上修改，其他线程只读取
+     */
+    private volatile int inFlight;
+    
+    private volatile boolean running = true;
+    
+    public ConnectProber(int maxInFlight, int connectTimeout) throws IOException {
+        this(maxInFlight, connectTimeout, "discovery-probe");
+    }
+    
+    public ConnectProber(int maxInFlight, int connectTimeout, String threadName) throws IOException {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.connectTimeout = connectTimeout;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * 探测一组地址
+     *
+     * @param onOpen   端口可连接时回调（在Selector线程上执行，不应阻塞）
+     * @param onProbed 每个地址探测结束后回调（在Selector线程上执行，不应阻塞）
+     * @return 所有地址探测结束（连接成功、失败或超时）后完成
+     */
+    public CompletableFuture<Void> probe(List<InetSocketAddress> targets, Consumer<InetSocketAddress> onOpen,
+                                         Runnable onProbed) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (targets.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        
+        AtomicInteger remaining = new AtomicInteger(targets.size());
+        for (InetSocketAddress target : targets) {
+            submitted.add(new Probe(target, onOpen, onProbed, remaining, future));
+        }
+        selector.wakeup();
+        return future;
+    }
+    
+    /**
+     * 获取当前在途探测数
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+    
+    /**
+     * 关闭探测线程
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+    
+    private void run() {
+        while (running) {
+            try {
+                selector.select(TIMEOUT_CHECK_INTERVAL);
+                
+                Probe probe;
+                while ((probe = submitted.poll()) != null) {
+                    waiting.add(probe);
+                }
+                
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    ((Probe) key.attachment()).finishConnect();
+                }
+                
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    Probe inFlightProbe = (Probe) key.attachment();
+                    if (now - inFlightProbe.startTime > connectTimeout) {
+                        inFlightProbe.finish(false);
+                    }
+                }
+                
+                // 有空闲名额时发起等待中的探测
+                while (inFlight < maxInFlight && (probe = waiting.poll()) != null) {
+                    probe.connect();
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                log.error("网络探测线程异常", e);
+            }
+        }
+        
+        for (SelectionKey key : selector.keys()) {
+            ((Probe) key.attachment()).finish(false);
+        }
+        waiting.forEach(Probe::complete);
+        waiting.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error("关闭Selector失败", e);
+        }
+    }
+    
+    /**
+     * 单个地址的连接探测，仅在Selector线程上访问
+     */
+    private class Probe {
+        
+        private final InetSocketAddress target;
+        
+        private final Consumer<InetSocketAddress> onOpen;
+        
+        private final Runnable onProbed;
+        
+        private final AtomicInteger remaining;
+        
+        private final CompletableFuture<Void> future;
+        
+        private SocketChannel channel;
+        
+        private long startTime;
+        
+        private boolean done;
+        
+        Probe(InetSocketAddress target, Consumer<InetSocketAddress> onOpen, Runnable onProbed,
+              AtomicInteger remaining, CompletableFuture<Void> future) {
+            this.target = target;
+            this.onOpen = onOpen;
+            this.onProbed = onProbed;
+            this.remaining = remaining;
+            this.future = future;
+        }
+        
+        void connect() {
+            inFlight++;
+            startTime = System.currentTimeMillis();
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(target)) {
+                    finish(true);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException | RuntimeException e) {
+                finish(false);
+            }
+        }
+        
+        void finishConnect() {
+            try {
+                if (channel.finishConnect()) {
+                    finish(true);
+                }
+            } catch (IOException e) {
+                finish(false);
+            }
+        }
+        
+        void finish(boolean open) {
+            if (done) {
+                return;
+            }
+            done = true;
+            inFlight--;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("关闭探测连接失败: {}", target);
+                }
+            }
+            
+            try {
+                if (open) {
+                    onOpen.accept(target);
+                }
+                onProbed.run();
+            } catch (Exception e) {
+                log.error("处理探测结果失败: {}", target, e);
+            }
+            complete();
+        }
+        
+        void complete() {
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(null);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.ailin.mobile.discovery;
+
+import com.ailin.mobile.model.DeviceInfo;
+
+/**
+ * 扫描事件监听器（WebSocket、SSE推送等），在探测线程或HTTP检测线程上调用，不应阻塞
+ */
+public interface ScanListener {
+    
+    /**
+     * 发现在线设备
+     */
+    void onDeviceFound(ScanTask task, DeviceInfo device);
+    
+    /**
+     * 扫描进度（已节流）
+     */
+    void onScanProgress(ScanTask task);
+    
+    /**
+     * 扫描结束
+     */
+    void onScanCompleted(ScanTask task);
+}
\ No newline at end of file
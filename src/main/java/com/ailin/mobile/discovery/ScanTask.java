@@ -0,0 +1,140 @@
+package com.ailin.mobile.discovery;
+
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次网段扫描的进度与结果
+ */
+@Getter
+public class ScanTask {
+    
+    /**
+     * 进度事件最小间隔（毫秒）
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+    
+    private final String scanId;
+    
+    /**
+     * 扫描范围描述（如 192.168.31.0-255）
+     */
+    private final String range;
+    
+    /**
+     * 待探测地址总数
+     */
+    private final int total;
+    
+    private final long startTime = System.currentTimeMillis();
+    
+    /**
+     * 扫描结束时间，未结束时为0
+     */
+    private volatile long endTime;
+    
+    /**
+     * 已发现的设备，按发现顺序
+     */
+    private final List<DeviceInfo> devices = new CopyOnWriteArrayList<>();
+    
+    /**
+     * 扫描结果
+     */
+    private final CompletableFuture<List<DeviceInfo>> future = new CompletableFuture<>();
+    
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger probed = new AtomicInteger();
+    
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong lastProgressTime = new AtomicLong();
+    
+    public ScanTask(String scanId, String range, int total) {
+        this.scanId = scanId;
+        this.range = range;
+        this.total = total;
+    }
+    
+    public int getProbed() {
+        return probed.get();
+    }
+    
+    public boolean isCompleted() {
+        return endTime != 0;
+    }
+    
+    /**
+     * 记录一个地址探测结束
+     *
+     * @return 需要发送进度事件时返回true（最后一个地址或距上次进度事件超过间隔）
+     */
+    public boolean markProbed() {
+        int count = probed.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (count == total) {
+            lastProgressTime.set(now);
+            return true;
+        }
+        long last = lastProgressTime.get();
+        return now - last >= PROGRESS_INTERVAL && lastProgressTime.compareAndSet(last, now);
+    }
+    
+    public void addDevice(DeviceInfo device) {
+        devices.add(device);
+    }
+    
+    public void complete() {
+        endTime = System.currentTimeMillis();
+        future.complete(new ArrayList<>(devices));
+    }
+    
+    /**
+     * 设备发现事件
+     */
+    public Map<String, Object> createDeviceFoundMessage(DeviceInfo device) {
+        Map<String, Object> message = createMessage("device_found");
+        message.put("device", device);
+        return message;
+    }
+    
+    /**
+     * 进度事件
+     */
+    public Map<String, Object> createProgressMessage() {
+        Map<String, Object> message = createMessage("scan_progress");
+        message.put("probed", getProbed());
+        message.put("total", total);
+        message.put("found", devices.size());
+        return message;
+    }
+    
+    /**
+     * 扫描结束事件
+     */
+    public Map<String, Object> createCompletedMessage() {
+        Map<String, Object> message = createMessage("scan_completed");
+        message.put("devices", devices);
+        message.put("count", devices.size());
+        message.put("elapsed", endTime - startTime);
+        return message;
+    }
+    
+    private Map<String, Object> createMessage(String type) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", type);
+        message.put("scanId", scanId);
+        message.put("range", range);
+        message.put("timestamp", System.currentTimeMillis());
+        return message;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.ailin.mobile.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 设备状态变化事件
+ *
+ * <p>捕获状态切换（连接、推流、停滞、重连、离线）和心跳超时降级都先交给存活监测，
+ * 每个时间轮刻度把期间的变化按设备合并后发布一次，同一设备只保留最后的状态。</p>
+ */
+@Getter
+public class DeviceStatusEvent extends ApplicationEvent {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final List<Change> changes;
+    
+    public DeviceStatusEvent(Object source, List<Change> changes) {
+        super(source);
+        this.changes = changes;
+    }
+    
+    /**
+     * 单个设备的状态变化
+     */
+    @Getter
+    public static class Change {
+        
+        private final int deviceId;
+        
+        /**
+         * 设备状态：connecting、online、stalled、reconnecting、stale、offline
+         */
+        private final String status;
+        
+        private final boolean connected;
+        
+        public Change(int deviceId, String status, boolean connected) {
+            this.deviceId = deviceId;
+            this.status = status;
+            this.connected = connected;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.ailin.mobile.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 设备观看需求变化事件：设备从无人观看变为有人观看，或反之
+ *
+ * <p>事件只说明哪个设备的需求发生了变化，监听方应以 {@code ViewerRegistry} 的当前状态为准。</p>
+ */
+@Getter
+public class ViewerDemandEvent extends ApplicationEvent {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * 表示所有设备（接收全部设备画面的会话变化）
+     */
+    public static final int ALL_DEVICES = -1;
+    
+    private final int deviceId;
+    
+    public ViewerDemandEvent(Object source, int deviceId) {
+        super(source);
+        this.deviceId = deviceId;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,321 @@
+package com.ailin.mobile.liveness;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮
+ *
+ * <p>定时任务按到期时刻散列到固定数量的槽中，单个工作线程每个刻度只处理当前槽，
+ * 添加、取消、到期都是O(1)，适合为大量设备维护只有刻度精度要求的超时，而不必为每个设备创建调度任务。
+ * 超过一圈的延迟记录剩余圈数，轮到时减一。</p>
+ *
+ * <p>任务在工作线程上执行，必须很快返回；耗时操作应转交给其他线程。每个刻度处理完到期任务后调用刻度回调，
+ * 可用于合并同一刻度内产生的状态变化。</p>
+ */
+@Slf4j
+public class TimerWheel {
+    
+    private static final int ST_PENDING = 0;
+    
+    private static final int ST_CANCELLED = 1;
+    
+    private static final int ST_EXPIRED = 2;
+    
+    /**
+     * 刻度时长（纳秒）
+     */
+    private final long tickNanos;
+    
+    private final Bucket[] wheel;
+    
+    private final int mask;
+    
+    /**
+     * 每个刻度结束时的回调，可为null
+     */
+    private final Runnable tickListener;
+    
+    /**
+     * 新添加的任务，由工作线程在下一刻度放入槽中
+     */
+    private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * 已取消、等待从槽中移除的任务
+     */
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicLong pendingCount = new AtomicLong();
+    
+    private final AtomicLong expiredCount = new AtomicLong();
+    
+    private final Thread worker;
+    
+    private final long startTime = System.nanoTime();
+    
+    /**
+     * 当前刻度，仅在工作线程上访问
+     */
+    private long tick;
+    
+    private volatile boolean running = true;
+    
+    /**
+     * @param tickDuration 刻度时长（毫秒）
+     * @param wheelSize    槽数，向上取整为2的幂
+     * @param name         工作线程名
+     */
+    public TimerWheel(long tickDuration, int wheelSize, String name, Runnable tickListener) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickDuration));
+        int size = Integer.highestOneBit(Math.max(1, Math.min(wheelSize, 1 << 20)) * 2 - 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickListener = tickListener;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+    
+    /**
+     * 在给定延迟后执行任务（线程安全）
+     *
+     * @param delay 延迟（毫秒），实际执行时间按刻度向后取整
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+    
+    /**
+     * 等待执行的任务数
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+    
+    /**
+     * 累计到期执行的任务数
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+    
+    public long getTickDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+    
+    public int getWheelSize() {
+        return wheel.length;
+    }
+    
+    /**
+     * 停止工作线程，未到期的任务不再执行
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+    
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                break;
+            }
+            processCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+            if (tickListener != null) {
+                try {
+                    tickListener.run();
+                } catch (Throwable e) {
+                    log.error("时间轮刻度回调异常", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 睡眠到当前刻度结束
+     *
+     * @return 刻度结束时刻（相对启动时间的纳秒），已停止时返回-1
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - current + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return current;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+    
+    private void processCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+    
+    /**
+     * 把新任务放入到期刻度对应的槽，已经过期的放入当前槽立即执行
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.state.get() == ST_CANCELLED) {
+                continue;
+            }
+            long expireTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expireTick - tick) / wheel.length;
+            long ticks = Math.max(expireTick, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+    
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+        
+        private final TimerWheel timer;
+        
+        private final Runnable task;
+        
+        /**
+         * 到期时刻（相对启动时间的纳秒）
+         */
+        private final long deadline;
+        
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+        
+        /**
+         * 剩余圈数，以及所在槽的链表指针，仅在工作线程上访问
+         */
+        private long remainingRounds;
+        
+        private Bucket bucket;
+        
+        private Timeout prev;
+        
+        private Timeout next;
+        
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+        
+        /**
+         * 取消任务
+         *
+         * @return 任务尚未执行时返回true
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+        
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+        
+        private void expire() {
+            if (!state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                return;
+            }
+            timer.pendingCount.decrementAndGet();
+            timer.expiredCount.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("时间轮任务执行异常", e);
+            }
+        }
+    }
+    
+    /**
+     * 槽：双向链表，仅在工作线程上访问
+     */
+    private static final class Bucket {
+        
+        private Timeout head;
+        
+        private Timeout tail;
+        
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+        
+        /**
+         * 执行本圈到期的任务，其余任务圈数减一
+         */
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+        
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
\ No newline at end of file
@@ -28,7 +28,7 @@ public class DeviceInfo {
     private int port;
     
     /**
-     * 设备状态：online、offline、connecting
+     * 设备状态：online、offline、connecting、stalled（画面停滞）、reconnecting（等待重连）、stale（心跳无响应）
      */
     private String status;
     
@@ -0,0 +1,48 @@
+package com.ailin.mobile.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 设备列表增量：自某个版本以来新增、变化和移除的设备
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceListDelta {
+    
+    /**
+     * 起始版本（客户端持有的版本）
+     */
+    private long fromVersion;
+    
+    /**
+     * 应用增量后的版本
+     */
+    private long version;
+    
+    /**
+     * 是否为完整列表：起始版本过旧或未知时返回全部设备，客户端应替换而不是合并
+     */
+    private boolean full;
+    
+    /**
+     * 新增或变化的设备（完整列表时为全部设备），按ID排序
+     */
+    private List<DeviceInfo> devices;
+    
+    /**
+     * 已移除的设备ID
+     */
+    private List<Integer> removed;
+    
+    /**
+     * 自起始版本以来是否没有变化
+     */
+    public boolean isEmpty() {
+        return !full && devices.isEmpty() && removed.isEmpty();
+    }
+}
\ No newline at end of file
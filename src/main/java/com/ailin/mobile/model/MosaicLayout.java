@@ -0,0 +1,50 @@
+package com.ailin.mobile.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 马赛克画面布局：把多台设备的画面按网格合成为一路输出
+ */
+@Data
+@NoArgsConstructor
+public class MosaicLayout {
+    
+    /**
+     * 马赛克ID
+     */
+    private int id;
+    
+    /**
+     * 名称（可选）
+     */
+    private String name;
+    
+    /**
+     * 网格列数，行数按设备数计算
+     */
+    private Integer columns;
+    
+    /**
+     * 单个设备格子的宽度（像素）
+     */
+    private Integer tileWidth;
+    
+    /**
+     * 单个设备格子的高度（像素）
+     */
+    private Integer tileHeight;
+    
+    /**
+     * 输出帧率
+     */
+    private Integer fps;
+    
+    /**
+     * 按格子顺序排列的设备ID，为空时按ID顺序显示所有设备
+     */
+    private List<Integer> deviceIds = new ArrayList<>();
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.ailin.mobile.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 录制分段信息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecordingSegment {
+    
+    /**
+     * 设备ID
+     */
+    private int deviceId;
+    
+    /**
+     * 分段文件名（位于录制目录下的设备子目录）
+     */
+    private String fileName;
+    
+    /**
+     * 第一帧的捕获时间戳
+     */
+    private long startTimestamp;
+    
+    /**
+     * 最后一帧的捕获时间戳
+     */
+    private long endTimestamp;
+    
+    /**
+     * 帧数
+     */
+    private int frameCount;
+    
+    /**
+     * 文件大小（字节）
+     */
+    private long size;
+}
\ No newline at end of file
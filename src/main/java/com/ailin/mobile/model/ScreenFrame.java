@@ -0,0 +1,96 @@
+package com.ailin.mobile.model;
+
+import com.ailin.mobile.capture.FrameBuffer;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 屏幕帧
+ *
+ * <p>JPEG数据是 {@link FrameBuffer} 上的切片，帧本身持有一次引用：
+ * 需要跨线程保留帧的一方先 {@link #retain()}，用完后 {@link #release()}。</p>
+ */
+@Getter
+public class ScreenFrame {
+    
+    /**
+     * 设备ID
+     */
+    private final int deviceId;
+    
+    /**
+     * 设备内递增的帧序号
+     */
+    private final long sequence;
+    
+    /**
+     * 捕获时间戳（毫秒）
+     */
+    private final long timestamp;
+    
+    /**
+     * JPEG数据所在缓冲区
+     */
+    private final FrameBuffer buffer;
+    
+    /**
+     * JPEG数据在缓冲区中的偏移
+     */
+    private final int offset;
+    
+    /**
+     * JPEG数据长度
+     */
+    private final int length;
+    
+    /**
+     * 创建帧，接管调用方持有的一次缓冲区引用
+     */
+    public ScreenFrame(int deviceId, long sequence, long timestamp, FrameBuffer buffer, int offset, int length) {
+        this.deviceId = deviceId;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    /**
+     * 包装独立的JPEG数组（不入池）
+     */
+    public static ScreenFrame wrap(int deviceId, long sequence, long timestamp, byte[] data) {
+        return new ScreenFrame(deviceId, sequence, timestamp, FrameBuffer.wrap(data), 0, data.length);
+    }
+    
+    /**
+     * 获取JPEG数据的只读视图，每次调用返回独立的position/limit
+     */
+    public ByteBuffer getPayload() {
+        return buffer.slice(offset, length);
+    }
+    
+    /**
+     * 拷贝JPEG数据
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[length];
+        System.arraycopy(buffer.array(), offset, data, 0, length);
+        return data;
+    }
+    
+    /**
+     * 增加一次引用
+     */
+    public ScreenFrame retain() {
+        buffer.retain();
+        return this;
+    }
+    
+    /**
+     * 释放一次引用
+     */
+    public void release() {
+        buffer.release();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+package com.ailin.mobile.recording;
+
+import com.ailin.mobile.model.RecordingSegment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 录制分段文件格式
+ *
+ * <pre>
+ * 文件头（24字节）
+ *   0     4     魔数 "MREC"
+ *   4     2     版本
+ *   6     2     保留
+ *   8     4     设备ID
+ *   12    8     第一帧捕获时间戳（毫秒）
+ *   20    4     保留
+ * 帧记录（依次追加）
+ *   0     8     捕获时间戳（毫秒）
+ *   8     4     帧序号
+ *   12    4     JPEG长度
+ *   16    ...   JPEG数据
+ * 时间索引（分段结束时写入，每帧8字节）
+ *   0     4     时间戳相对第一帧的偏移（毫秒）
+ *   4     4     帧记录在文件中的偏移
+ * 文件尾（16字节）
+ *   0     8     时间索引的偏移
+ *   8     4     索引项数
+ *   12    4     魔数 "MIDX"
+ * </pre>
+ *
+ * <p>所有整数为大端。写入中途进程退出的分段没有索引和文件尾，启动时由 {@link #repair(Path)} 扫描帧记录补写。</p>
+ */
+public final class SegmentFormat {
+    
+    public static final int MAGIC = 0x4D524543;
+    
+    public static final int INDEX_MAGIC = 0x4D494458;
+    
+    public static final short VERSION = 1;
+    
+    public static final int HEADER_SIZE = 24;
+    
+    public static final int RECORD_HEADER_SIZE = 16;
+    
+    public static final int INDEX_ENTRY_SIZE = 8;
+    
+    public static final int FOOTER_SIZE = 16;
+    
+    /**
+     * 分段文件扩展名
+     */
+    public static final String EXTENSION = ".seg";
+    
+    private SegmentFormat() {
+    }
+    
+    /**
+     * 编码文件头
+     */
+    static ByteBuffer encodeHeader(int deviceId, long startTimestamp) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(deviceId).putLong(startTimestamp).putInt(0);
+        header.flip();
+        return header;
+    }
+    
+    /**
+     * 编码时间索引和文件尾
+     *
+     * @param index 每帧两个int：时间戳偏移、帧记录偏移
+     */
+    static ByteBuffer encodeIndex(int[] index, int count, long indexOffset) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE + FOOTER_SIZE);
+        buffer.asIntBuffer().put(index, 0, count * 2);
+        buffer.position(count * INDEX_ENTRY_SIZE);
+        buffer.putLong(indexOffset).putInt(count).putInt(INDEX_MAGIC);
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * 读取已完成分段的信息
+     *
+     * @return 文件不是有效分段或没有文件尾时返回null
+     */
+    public static RecordingSegment readInfo(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            ByteBuffer footer = readFully(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            if (header.getInt(0) != MAGIC || footer.getInt(12) != INDEX_MAGIC) {
+                return null;
+            }
+            
+            int deviceId = header.getInt(8);
+            long startTimestamp = header.getLong(12);
+            long indexOffset = footer.getLong(0);
+            int count = footer.getInt(8);
+            if (indexOffset + (long) count * INDEX_ENTRY_SIZE + FOOTER_SIZE != size) {
+                return null;
+            }
+            long endTimestamp = startTimestamp;
+            if (count > 0) {
+                endTimestamp += readFully(channel, indexOffset + (long) (count - 1) * INDEX_ENTRY_SIZE, 4).getInt(0);
+            }
+            return new RecordingSegment(deviceId, path.getFileName().toString(), startTimestamp, endTimestamp,
+                    count, size);
+        }
+    }
+    
+    /**
+     * 修复没有文件尾的分段：扫描完整的帧记录，截掉末尾不完整的记录后补写索引和文件尾
+     *
+     * @return 文件头无效无法修复时返回false
+     */
+    public static boolean repair(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                return false;
+            }
+            long startTimestamp = header.getLong(12);
+            
+            int[] index = new int[256];
+            int count = 0;
+            long offset = HEADER_SIZE;
+            while (offset + RECORD_HEADER_SIZE <= size) {
+                ByteBuffer record = readFully(channel, offset, RECORD_HEADER_SIZE);
+                int length = record.getInt(12);
+                if (length <= 0 || offset + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (count * 2 == index.length) {
+                    index = Arrays.copyOf(index, index.length * 2);
+                }
+                index[count * 2] = (int) (record.getLong(0) - startTimestamp);
+                index[count * 2 + 1] = (int) offset;
+                count++;
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            
+            channel.truncate(offset);
+            ByteBuffer trailer = encodeIndex(index, count, offset);
+            long position = offset;
+            while (trailer.hasRemaining()) {
+                position += channel.write(trailer, position);
+            }
+            channel.force(false);
+            return true;
+        }
+    }
+    
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("分段文件意外结束");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
\ No newline at end of file
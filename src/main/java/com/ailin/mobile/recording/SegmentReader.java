@@ -0,0 +1,126 @@
+package com.ailin.mobile.recording;
+
+import com.ailin.mobile.capture.FrameBuffer;
+import com.ailin.mobile.capture.FrameBufferPool;
+import com.ailin.mobile.model.ScreenFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 已完成分段的只读访问
+ *
+ * <p>整个分段以只读方式映射到内存，时间索引直接在映射区上二分查找，帧数据从页缓存拷贝一次到帧缓冲区，
+ * 不经过read系统调用。映射区只读且每次访问使用独立的视图，可以被多个回放会话同时使用。</p>
+ */
+public class SegmentReader {
+    
+    private final Path path;
+    
+    private final MappedByteBuffer mapped;
+    
+    /**
+     * 时间索引视图，每帧两个int：时间戳偏移、帧记录偏移
+     */
+    private final IntBuffer index;
+    
+    private final int deviceId;
+    
+    private final long startTimestamp;
+    
+    private final int frameCount;
+    
+    private SegmentReader(Path path, MappedByteBuffer mapped) throws IOException {
+        this.path = path;
+        this.mapped = mapped;
+        int size = mapped.capacity();
+        if (size < SegmentFormat.HEADER_SIZE + SegmentFormat.FOOTER_SIZE || mapped.getInt(0) != SegmentFormat.MAGIC
+                || mapped.getInt(size - 4) != SegmentFormat.INDEX_MAGIC) {
+            throw new IOException("不是完整的录制分段: " + path);
+        }
+        this.deviceId = mapped.getInt(8);
+        this.startTimestamp = mapped.getLong(12);
+        long indexOffset = mapped.getLong(size - SegmentFormat.FOOTER_SIZE);
+        this.frameCount = mapped.getInt(size - SegmentFormat.FOOTER_SIZE + 8);
+        if (indexOffset + (long) frameCount * SegmentFormat.INDEX_ENTRY_SIZE + SegmentFormat.FOOTER_SIZE != size) {
+            throw new IOException("录制分段索引损坏: " + path);
+        }
+        
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) indexOffset).limit((int) indexOffset + frameCount * SegmentFormat.INDEX_ENTRY_SIZE);
+        this.index = view.slice().asIntBuffer();
+    }
+    
+    /**
+     * 映射分段文件；映射在通道关闭后仍然有效
+     */
+    public static SegmentReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("录制分段过大: " + path);
+            }
+            return new SegmentReader(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    public int getFrameCount() {
+        return frameCount;
+    }
+    
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+    
+    /**
+     * 第i帧的捕获时间戳
+     */
+    public long getTimestamp(int i) {
+        return startTimestamp + index.get(i * 2);
+    }
+    
+    /**
+     * 二分查找不晚于给定时间的最后一帧
+     *
+     * @return 帧下标，所有帧都晚于给定时间时返回-1
+     */
+    public int floorIndex(long timestamp) {
+        int low = 0;
+        int high = frameCount - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) <= timestamp) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 读取第i帧到从池中取得的缓冲区，调用方负责释放
+     */
+    public ScreenFrame readFrame(int i, FrameBufferPool pool) {
+        int offset = index.get(i * 2 + 1);
+        long timestamp = mapped.getLong(offset);
+        int sequence = mapped.getInt(offset + 8);
+        int length = mapped.getInt(offset + 12);
+        
+        FrameBuffer buffer = pool.acquire(length);
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset + SegmentFormat.RECORD_HEADER_SIZE);
+        view.get(buffer.array(), 0, length);
+        return new ScreenFrame(deviceId, sequence & 0xffffffffL, timestamp, buffer, 0, length);
+    }
+}
\ No newline at end of file
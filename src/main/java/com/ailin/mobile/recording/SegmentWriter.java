@@ -0,0 +1,134 @@
+package com.ailin.mobile.recording;
+
+import com.ailin.mobile.model.RecordingSegment;
+import com.ailin.mobile.model.ScreenFrame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 录制分段写入器，顺序追加帧记录，关闭时写入时间索引和文件尾
+ *
+ * <p>非线程安全，由录制线程独占使用。</p>
+ */
+public class SegmentWriter implements Closeable {
+    
+    private final Path path;
+    
+    private final int deviceId;
+    
+    private final FileChannel channel;
+    
+    private final long startTimestamp;
+    
+    /**
+     * 创建时间，用于按时长切换分段
+     */
+    private final long createdAt = System.currentTimeMillis();
+    
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(SegmentFormat.RECORD_HEADER_SIZE);
+    
+    /**
+     * 时间索引，每帧两个int：时间戳偏移、帧记录偏移
+     */
+    private int[] index = new int[512];
+    
+    private int frameCount;
+    
+    private long lastTimestamp;
+    
+    private long position;
+    
+    private SegmentWriter(Path path, int deviceId, long startTimestamp) throws IOException {
+        this.path = path;
+        this.deviceId = deviceId;
+        this.startTimestamp = startTimestamp;
+        this.lastTimestamp = startTimestamp;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeFully(SegmentFormat.encodeHeader(deviceId, startTimestamp));
+    }
+    
+    /**
+     * 在设备目录下创建新分段，文件名为第一帧的时间戳
+     */
+    public static SegmentWriter create(Path deviceDirectory, int deviceId, long startTimestamp) throws IOException {
+        Files.createDirectories(deviceDirectory);
+        Path path = deviceDirectory.resolve(startTimestamp + SegmentFormat.EXTENSION);
+        // 同一毫秒内切换分段时在文件名后加序号避免重名，分段的起始时间不变，索引偏移不会为负
+        for (int suffix = 1; Files.exists(path); suffix++) {
+            path = deviceDirectory.resolve(startTimestamp + "_" + suffix + SegmentFormat.EXTENSION);
+        }
+        return new SegmentWriter(path, deviceId, startTimestamp);
+    }
+    
+    /**
+     * 追加一帧
+     */
+    public void append(ScreenFrame frame) throws IOException {
+        if (frameCount * 2 == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[frameCount * 2] = (int) (frame.getTimestamp() - startTimestamp);
+        index[frameCount * 2 + 1] = (int) position;
+        
+        recordHeader.clear();
+        recordHeader.putLong(frame.getTimestamp()).putInt((int) frame.getSequence()).putInt(frame.getLength());
+        recordHeader.flip();
+        writeFully(recordHeader);
+        writeFully(frame.getPayload());
+        
+        frameCount++;
+        lastTimestamp = frame.getTimestamp();
+    }
+    
+    /**
+     * 当前文件大小加上关闭时要写入的索引大小
+     */
+    public long getSize() {
+        return position + (long) frameCount * SegmentFormat.INDEX_ENTRY_SIZE + SegmentFormat.FOOTER_SIZE;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    /**
+     * 写入索引和文件尾并关闭
+     *
+     * @return 完成的分段信息
+     */
+    public RecordingSegment finish() throws IOException {
+        try {
+            writeFully(SegmentFormat.encodeIndex(index, frameCount, position));
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        return new RecordingSegment(deviceId, path.getFileName().toString(), startTimestamp, lastTimestamp,
+                frameCount, position);
+    }
+    
+    /**
+     * 不写索引直接关闭（写入失败时使用，下次启动时修复）
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+}
\ No newline at end of file
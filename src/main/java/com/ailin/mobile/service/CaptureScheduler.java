@@ -0,0 +1,148 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.CaptureTier;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 捕获调度器
+ *
+ * <p>全帧率推送的设备数不超过 maxWindows：聚焦的设备优先，剩余名额按设备ID分给可见设备，
+ * 其余设备降为缩略帧率。设备的优先级取所有观看者提示中最高的一档，提示变化时立即重新分配，
+ * 另有定时刷新覆盖接收所有设备的旧客户端和新发现的设备。</p>
+ */
+@Slf4j
+@Service
+public class CaptureScheduler {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    /**
+     * 设备ID -> 各优先级的观看者数量（按 {@link CaptureTier} 序号），隐藏不计
+     */
+    private final ConcurrentHashMap<Integer, int[]> votes = new ConcurrentHashMap<>();
+    
+    /**
+     * 当前降为缩略帧率的设备
+     */
+    private volatile Set<Integer> reducedDevices = Collections.emptySet();
+    
+    /**
+     * 当前全帧率的设备数
+     */
+    private volatile int fullRateCount;
+    
+    /**
+     * 更新某个观看者对设备的优先级提示，null表示不再观看
+     */
+    public void updateVote(int deviceId, CaptureTier previous, CaptureTier current) {
+        if (previous == current) {
+            return;
+        }
+        votes.compute(deviceId, (id, counts) -> {
+            int[] result = counts != null ? counts : new int[CaptureTier.values().length];
+            if (previous != null && previous != CaptureTier.HIDDEN) {
+                result[previous.ordinal()]--;
+            }
+            if (current != null && current != CaptureTier.HIDDEN) {
+                result[current.ordinal()]++;
+            }
+            for (int count : result) {
+                if (count > 0) {
+                    return result;
+                }
+            }
+            return null;
+        });
+        reschedule();
+    }
+    
+    /**
+     * 获取设备的最小帧间隔（毫秒），0表示全帧率
+     */
+    public long getFrameInterval(int deviceId) {
+        if (!reducedDevices.contains(deviceId)) {
+            return 0;
+        }
+        int reducedFps = mobileConfig.getCapture().getReducedFps();
+        return reducedFps > 0 ? 1000L / reducedFps : Long.MAX_VALUE;
+    }
+    
+    /**
+     * 定时刷新，覆盖接收所有设备的观看者和新发现的设备
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void refresh() {
+        reschedule();
+    }
+    
+    /**
+     * 重新分配全帧率名额
+     */
+    public synchronized void reschedule() {
+        Map<Integer, CaptureTier> tiers = new HashMap<>();
+        if (viewerRegistry.getAllDevicesViewerCount() > 0) {
+            // 接收所有设备的观看者视为对每个设备的可见提示
+            for (DeviceInfo device : deviceRegistry.getAll()) {
+                tiers.put(device.getId(), CaptureTier.VISIBLE);
+            }
+        }
+        votes.forEach((deviceId, counts) -> {
+            // 尚未发现的设备不占用名额
+            if (deviceRegistry.get(deviceId) != null) {
+                tiers.put(deviceId,
+                        counts[CaptureTier.FOCUSED.ordinal()] > 0 ? CaptureTier.FOCUSED : CaptureTier.VISIBLE);
+            }
+        });
+        
+        List<Map.Entry<Integer, CaptureTier>> ranked = new ArrayList<>(tiers.entrySet());
+        ranked.sort(Comparator.comparing((Map.Entry<Integer, CaptureTier> entry) -> entry.getValue())
+                .thenComparing(Map.Entry::getKey));
+        
+        int maxWindows = mobileConfig.getNetwork().getMaxWindows();
+        Set<Integer> reduced = new HashSet<>();
+        for (int i = maxWindows; i < ranked.size(); i++) {
+            reduced.add(ranked.get(i).getKey());
+        }
+        
+        if (!reduced.equals(reducedDevices)) {
+            log.debug("重新分配全帧率名额: 全帧率 {} 个，缩略帧率 {} 个", ranked.size() - reduced.size(),
+                    reduced.size());
+        }
+        reducedDevices = reduced;
+        fullRateCount = ranked.size() - reduced.size();
+    }
+    
+    /**
+     * 获取调度统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxWindows", mobileConfig.getNetwork().getMaxWindows());
+        stats.put("reducedFps", mobileConfig.getCapture().getReducedFps());
+        stats.put("fullRateDevices", fullRateCount);
+        stats.put("reducedRateDevices", reducedDevices.size());
+        return stats;
+    }
+}
\ No newline at end of file
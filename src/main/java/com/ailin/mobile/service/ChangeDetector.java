@@ -0,0 +1,201 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.FrameSignature;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画面变化检测
+ *
+ * <p>在独立线程池上为帧计算低分辨率签名，与上一次检测到变化时的签名比较；
+ * 变化单元比例低于阈值（如闪烁的时钟）视为静止。画面持续静止超过 idleDelay 后
+ * 分发降为 idleFps，检测到明显变化后立即恢复全帧率。</p>
+ *
+ * <p>每个设备同时最多一个检测任务，且两次检测至少间隔 changeAnalyzeInterval，单设备的CPU开销有上限；
+ * 检测线程繁忙时直接跳过本帧。</p>
+ */
+@Slf4j
+@Service
+public class ChangeDetector {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    /**
+     * 设备ID -> 画面活动状态
+     */
+    private final ConcurrentHashMap<Integer, Activity> activities = new ConcurrentHashMap<>();
+    
+    /**
+     * 检测线程池
+     */
+    private ThreadPoolExecutor detectExecutor;
+    
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, mobileConfig.getCapture().getChangeDetectThreads());
+        detectExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new CustomizableThreadFactory("change-detect-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        detectExecutor.shutdownNow();
+    }
+    
+    /**
+     * 提交帧做变化检测（捕获线程调用），不接管帧的引用
+     */
+    public void inspect(ScreenFrame frame) {
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        if (!capture.isChangeDetection()) {
+            return;
+        }
+        
+        Activity activity = activities.computeIfAbsent(frame.getDeviceId(), id -> new Activity(frame.getTimestamp()));
+        if (frame.getTimestamp() - activity.lastAnalyzed < capture.getChangeAnalyzeInterval()
+                || !activity.analyzing.compareAndSet(false, true)) {
+            return;
+        }
+        activity.lastAnalyzed = frame.getTimestamp();
+        
+        ScreenFrame retained = frame.retain();
+        try {
+            detectExecutor.execute(() -> analyze(activity, retained));
+        } catch (RejectedExecutionException e) {
+            activity.skipped.incrementAndGet();
+            activity.analyzing.set(false);
+            retained.release();
+        }
+    }
+    
+    private void analyze(Activity activity, ScreenFrame frame) {
+        long start = System.nanoTime();
+        try {
+            byte[] signature = FrameSignature.compute(frame);
+            byte[] reference = activity.reference;
+            if (reference == null || FrameSignature.changedRatio(reference, signature)
+                    > mobileConfig.getCapture().getChangeThreshold()) {
+                if (isIdle(activity, System.currentTimeMillis())) {
+                    log.debug("设备 {} 画面变化，恢复全帧率", frame.getDeviceId());
+                }
+                activity.reference = signature;
+                activity.lastChange = frame.getTimestamp();
+                activity.changes.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // 无法解码时按有变化处理，不降低帧率
+            activity.lastChange = frame.getTimestamp();
+            activity.failures.incrementAndGet();
+            log.debug("设备 {} 画面签名计算失败: {}", frame.getDeviceId(), e.getMessage());
+        } finally {
+            activity.analyzed.incrementAndGet();
+            activity.analyzeNanos.addAndGet(System.nanoTime() - start);
+            activity.analyzing.set(false);
+            frame.release();
+        }
+    }
+    
+    /**
+     * 获取设备的最小分发间隔（毫秒），画面未静止时为0
+     */
+    public long getFrameInterval(int deviceId) {
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        if (!capture.isChangeDetection()) {
+            return 0;
+        }
+        Activity activity = activities.get(deviceId);
+        if (activity == null || !isIdle(activity, System.currentTimeMillis())) {
+            return 0;
+        }
+        return 1000L / Math.max(1, capture.getIdleFps());
+    }
+    
+    private boolean isIdle(Activity activity, long now) {
+        return now - activity.lastChange >= mobileConfig.getCapture().getIdleDelay();
+    }
+    
+    /**
+     * 移除设备的检测状态（停止捕获时调用）
+     */
+    public void removeDevice(int deviceId) {
+        activities.remove(deviceId);
+    }
+    
+    /**
+     * 获取各设备的检测统计
+     */
+    public Map<Integer, Map<String, Object>> getStats() {
+        long now = System.currentTimeMillis();
+        Map<Integer, Map<String, Object>> stats = new HashMap<>();
+        activities.forEach((deviceId, activity) -> {
+            long analyzed = activity.analyzed.get();
+            Map<String, Object> deviceStats = new HashMap<>();
+            deviceStats.put("idle", isIdle(activity, now));
+            deviceStats.put("analyzed", analyzed);
+            deviceStats.put("changes", activity.changes.get());
+            deviceStats.put("failures", activity.failures.get());
+            deviceStats.put("skipped", activity.skipped.get());
+            deviceStats.put("avgAnalyzeMicros", analyzed > 0 ? activity.analyzeNanos.get() / analyzed / 1000 : 0);
+            stats.put(deviceId, deviceStats);
+        });
+        return stats;
+    }
+    
+    /**
+     * 单个设备的画面活动状态
+     */
+    private static class Activity {
+        
+        private final AtomicBoolean analyzing = new AtomicBoolean();
+        
+        private final AtomicLong analyzed = new AtomicLong();
+        
+        private final AtomicLong changes = new AtomicLong();
+        
+        private final AtomicLong failures = new AtomicLong();
+        
+        /**
+         * 检测线程繁忙而跳过的次数
+         */
+        private final AtomicLong skipped = new AtomicLong();
+        
+        private final AtomicLong analyzeNanos = new AtomicLong();
+        
+        /**
+         * 上一次检测到变化时的签名
+         */
+        private volatile byte[] reference;
+        
+        /**
+         * 上一次检测到变化的帧时间戳
+         */
+        private volatile long lastChange;
+        
+        /**
+         * 上一次提交检测的帧时间戳，只由该设备的捕获线程写入
+         */
+        private volatile long lastAnalyzed;
+        
+        Activity(long now) {
+            this.lastChange = now;
+        }
+    }
+}
\ No newline at end of file
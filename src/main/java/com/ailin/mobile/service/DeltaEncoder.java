@@ -0,0 +1,368 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.JpegCodec;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import com.ailin.mobile.websocket.FrameCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * 增量画面编码
+ *
+ * <p>手机画面经常只有一小块在变化（进度条、新的一行消息），每帧仍要发送完整的JPEG。
+ * 按固定大小的图块比较新帧与参考画面，只把变化的图块重新编码发送；参考画面与客户端拼接出的画面保持一致，
+ * 只有发送过的图块才更新。变化过多、参考画面不存在或关键帧间隔到期时改发完整帧。</p>
+ *
+ * <p>每个设备同时最多一个编码任务，编码期间到达的新帧只保留最新一帧。</p>
+ */
+@Slf4j
+@Service
+public class DeltaEncoder {
+    
+    /**
+     * 像素分量差超过该值才算变化，过滤JPEG解码在图块边缘的细微差异
+     */
+    private static final int PIXEL_THRESHOLD = 8;
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    /**
+     * 设备ID -> 编码槽位
+     */
+    private final ConcurrentHashMap<Integer, DeltaSlot> slots = new ConcurrentHashMap<>();
+    
+    private final AtomicLong deltas = new AtomicLong();
+    
+    private final AtomicLong keyframes = new AtomicLong();
+    
+    /**
+     * 与参考画面相比没有图块变化的帧数（发送空的增量帧）
+     */
+    private final AtomicLong unchanged = new AtomicLong();
+    
+    private final AtomicLong tilesSent = new AtomicLong();
+    
+    private final AtomicLong bytesSaved = new AtomicLong();
+    
+    private final AtomicLong encodeNanos = new AtomicLong();
+    
+    private final AtomicLong coalesced = new AtomicLong();
+    
+    private final AtomicLong failures = new AtomicLong();
+    
+    /**
+     * 编码线程池
+     */
+    private ExecutorService encodeExecutor;
+    
+    @PostConstruct
+    public void init() {
+        encodeExecutor = Executors.newFixedThreadPool(Math.max(1, mobileConfig.getCapture().getDeltaThreads()),
+                new CustomizableThreadFactory("delta-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        encodeExecutor.shutdownNow();
+    }
+    
+    /**
+     * 是否允许增量画面
+     */
+    public boolean isEnabled() {
+        return mobileConfig.getCapture().isDelta();
+    }
+    
+    /**
+     * 提交帧编码，完成后在编码线程上回调（不接管帧的引用）
+     *
+     * <p>回调参数为原始帧和增量图块帧；增量图块帧为null时表示本帧是关键帧，应发送完整的原始帧。
+     * 两个帧都只在回调期间有效。</p>
+     */
+    public void encode(ScreenFrame frame, BiConsumer<ScreenFrame, ScreenFrame> callback) {
+        DeltaSlot slot = slots.computeIfAbsent(frame.getDeviceId(), key -> new DeltaSlot());
+        Pending previous = slot.pending.getAndSet(new Pending(frame.retain(), callback));
+        if (previous != null) {
+            coalesced.incrementAndGet();
+            previous.frame.release();
+        }
+        if (slot.scheduled.compareAndSet(false, true)) {
+            encodeExecutor.execute(() -> drain(slot));
+        }
+    }
+    
+    /**
+     * 取走槽位中的最新帧并编码，直到槽位为空
+     */
+    private void drain(DeltaSlot slot) {
+        while (true) {
+            Pending pending = slot.pending.getAndSet(null);
+            if (pending == null) {
+                slot.scheduled.set(false);
+                // 释放调度标记后再次检查，避免与提交线程竞争时漏掉新帧
+                if (slot.pending.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                process(slot, pending);
+            } catch (Exception e) {
+                log.error("增量编码回调失败: deviceId={}", pending.frame.getDeviceId(), e);
+            } finally {
+                pending.frame.release();
+            }
+        }
+    }
+    
+    private void process(DeltaSlot slot, Pending pending) {
+        ScreenFrame frame = pending.frame;
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        long start = System.nanoTime();
+        
+        BufferedImage image;
+        try {
+            image = toBgr(JpegCodec.decode(frame));
+        } catch (IOException e) {
+            // 无法解码时发送完整帧，下一帧重新建立参考画面
+            failures.incrementAndGet();
+            log.debug("设备 {} 增量编码失败: {}", frame.getDeviceId(), e.getMessage());
+            slot.reference = null;
+            pending.callback.accept(frame, null);
+            return;
+        }
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        
+        long now = System.currentTimeMillis();
+        boolean keyframe = slot.reference == null || slot.width != width || slot.height != height
+                || now - slot.keyframeTime >= capture.getDeltaKeyframeInterval();
+        
+        ScreenFrame delta = null;
+        if (!keyframe) {
+            int tileSize = Math.max(16, capture.getDeltaTileSize());
+            List<int[]> tiles = findChangedTiles(slot.reference, pixels, width, height, tileSize);
+            if (tiles.isEmpty()) {
+                // 没有变化也发送空的增量帧推进基准帧序号，需要关键帧的会话借此收到完整帧
+                unchanged.incrementAndGet();
+            }
+            int totalTiles = ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+            if (tiles.size() > totalTiles * capture.getDeltaMaxChangedRatio()) {
+                keyframe = true;
+            } else {
+                delta = encodeTiles(slot, frame, image, pixels, tiles, tileSize, capture.getDeltaQuality());
+                if (delta == null || delta.getLength() >= frame.getLength()) {
+                    // 图块编码后不比完整帧小，不如直接发送完整帧
+                    if (delta != null) {
+                        delta.release();
+                        delta = null;
+                    }
+                    keyframe = true;
+                } else {
+                    tilesSent.addAndGet(tiles.size());
+                }
+            }
+        }
+        
+        if (keyframe) {
+            slot.reference = pixels;
+            slot.width = width;
+            slot.height = height;
+            slot.baseSequence = frame.getSequence();
+            slot.keyframeTime = now;
+            keyframes.incrementAndGet();
+        } else {
+            deltas.incrementAndGet();
+            bytesSaved.addAndGet(frame.getLength() - delta.getLength());
+        }
+        encodeNanos.addAndGet(System.nanoTime() - start);
+        
+        try {
+            pending.callback.accept(frame, delta);
+        } finally {
+            if (delta != null) {
+                delta.release();
+            }
+        }
+    }
+    
+    /**
+     * 比较参考画面与新画面，返回变化图块的左上角坐标
+     */
+    private List<int[]> findChangedTiles(byte[] reference, byte[] pixels, int width, int height, int tileSize) {
+        List<int[]> tiles = new ArrayList<>();
+        int stride = width * 3;
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            int rows = Math.min(tileSize, height - tileY);
+            for (int tileX = 0; tileX < width; tileX += tileSize) {
+                int rowBytes = Math.min(tileSize, width - tileX) * 3;
+                if (tileChanged(reference, pixels, tileY * stride + tileX * 3, stride, rows, rowBytes)) {
+                    tiles.add(new int[]{tileX, tileY});
+                }
+            }
+        }
+        return tiles;
+    }
+    
+    private boolean tileChanged(byte[] reference, byte[] pixels, int offset, int stride, int rows, int rowBytes) {
+        for (int row = 0; row < rows; row++) {
+            int start = offset + row * stride;
+            for (int i = start; i < start + rowBytes; i++) {
+                if (Math.abs((reference[i] & 0xff) - (pixels[i] & 0xff)) > PIXEL_THRESHOLD) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 编码变化的图块并更新参考画面
+     *
+     * @return 增量图块帧，编码失败时返回null
+     */
+    private ScreenFrame encodeTiles(DeltaSlot slot, ScreenFrame frame, BufferedImage image, byte[] pixels,
+                                    List<int[]> tiles, int tileSize, float quality) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        List<byte[]> jpegs = new ArrayList<>(tiles.size());
+        try {
+            for (int[] tile : tiles) {
+                jpegs.add(JpegCodec.encode(image.getSubimage(tile[0], tile[1],
+                        Math.min(tileSize, width - tile[0]), Math.min(tileSize, height - tile[1])), quality));
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.debug("设备 {} 图块编码失败: {}", frame.getDeviceId(), e.getMessage());
+            return null;
+        }
+        
+        // 客户端只拼接发送的图块，参考画面也只更新这些图块
+        int stride = width * 3;
+        for (int[] tile : tiles) {
+            int rowBytes = Math.min(tileSize, width - tile[0]) * 3;
+            int rows = Math.min(tileSize, height - tile[1]);
+            for (int row = 0; row < rows; row++) {
+                int offset = (tile[1] + row) * stride + tile[0] * 3;
+                System.arraycopy(pixels, offset, slot.reference, offset, rowBytes);
+            }
+        }
+        
+        byte[] payload = FrameCodec.encodeTiles(slot.baseSequence, tiles, jpegs);
+        slot.baseSequence = frame.getSequence();
+        return ScreenFrame.wrap(frame.getDeviceId(), frame.getSequence(), frame.getTimestamp(), payload);
+    }
+    
+    /**
+     * 转换为每像素3字节的BGR图像，便于直接比较像素数组
+     */
+    private static BufferedImage toBgr(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = converted.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return converted;
+    }
+    
+    /**
+     * 移除设备的编码槽位（停止捕获时调用）
+     */
+    public void removeDevice(int deviceId) {
+        DeltaSlot slot = slots.remove(deviceId);
+        if (slot != null) {
+            Pending pending = slot.pending.getAndSet(null);
+            if (pending != null) {
+                pending.frame.release();
+            }
+        }
+    }
+    
+    /**
+     * 获取增量编码统计
+     */
+    public Map<String, Object> getStats() {
+        long encoded = deltas.get() + keyframes.get();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", isEnabled());
+        result.put("activeDevices", slots.size());
+        result.put("deltas", deltas.get());
+        result.put("keyframes", keyframes.get());
+        result.put("unchanged", unchanged.get());
+        result.put("tilesSent", tilesSent.get());
+        result.put("bytesSaved", bytesSaved.get());
+        result.put("avgEncodeMicros", encoded > 0 ? encodeNanos.get() / encoded / 1000 : 0);
+        result.put("coalesced", coalesced.get());
+        result.put("failures", failures.get());
+        return result;
+    }
+    
+    /**
+     * 等待编码的帧及其回调
+     */
+    private static class Pending {
+        
+        private final ScreenFrame frame;
+        
+        private final BiConsumer<ScreenFrame, ScreenFrame> callback;
+        
+        Pending(ScreenFrame frame, BiConsumer<ScreenFrame, ScreenFrame> callback) {
+            this.frame = frame;
+            this.callback = callback;
+        }
+    }
+    
+    /**
+     * 单个设备的编码槽位；参考画面只在编码线程上访问，调度标记保证同一时刻只有一个编码任务
+     */
+    private static class DeltaSlot {
+        
+        private final AtomicReference<Pending> pending = new AtomicReference<>();
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        /**
+         * 参考画面（BGR像素），与客户端拼接出的画面一致
+         */
+        private volatile byte[] reference;
+        
+        private volatile int width;
+        
+        private volatile int height;
+        
+        /**
+         * 参考画面对应的帧序号，即下一个增量图块帧的基准
+         */
+        private volatile long baseSequence;
+        
+        private volatile long keyframeTime;
+    }
+}
\ No newline at end of file
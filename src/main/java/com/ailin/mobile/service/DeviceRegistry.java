@@ -0,0 +1,334 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.DeviceListDelta;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 设备注册表
+ *
+ * <p>设备按ID有序保存，并维护 ip:port -> ID 索引和状态、网段二级索引，查询与分配都不需要全局锁。
+ * 设备ID即窗口排序号：优先复用已释放的最小ID，没有空闲ID时递增分配。</p>
+ *
+ * <p>状态索引只跟踪通过 {@link #updateStatus} 修改的状态。</p>
+ *
+ * <p>注册表维护单调递增的版本号：新增、移除设备以及设备信息或状态实际变化时版本加一，
+ * 变更日志中每个设备只保留最近一次变化，客户端凭版本号只取回之后的增量。重新扫描到信息不变的设备不产生变化。</p>
+ */
+@Service
+public class DeviceRegistry {
+    
+    /**
+     * 变更日志最多保留的已移除设备数，更早的变化被丢弃，持有更旧版本的客户端改为取完整列表
+     */
+    private static final int MAX_TOMBSTONES = 1024;
+    
+    /**
+     * 设备：ID -> 设备，按ID排序
+     */
+    private final ConcurrentSkipListMap<Integer, DeviceInfo> devices = new ConcurrentSkipListMap<>();
+    
+    /**
+     * 地址索引：ip:port -> 设备ID（包含已分配ID但尚未注册的设备）
+     */
+    private final ConcurrentHashMap<String, Integer> addressIndex = new ConcurrentHashMap<>();
+    
+    /**
+     * 状态索引：状态 -> 设备ID
+     */
+    private final ConcurrentHashMap<String, Set<Integer>> statusIndex = new ConcurrentHashMap<>();
+    
+    /**
+     * 已索引的设备状态，用于状态变化时从旧索引中移除
+     */
+    private final ConcurrentHashMap<Integer, String> indexedStatus = new ConcurrentHashMap<>();
+    
+    /**
+     * 网段索引：网段（如 192.168.31）-> 设备ID
+     */
+    private final ConcurrentHashMap<String, Set<Integer>> subnetIndex = new ConcurrentHashMap<>();
+    
+    /**
+     * 已释放、可复用的设备ID
+     */
+    private final ConcurrentSkipListSet<Integer> freeIds = new ConcurrentSkipListSet<>();
+    
+    /**
+     * 从未分配过的最小ID
+     */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    
+    /**
+     * 版本号相关状态的锁，变更记录和增量查询都很短
+     */
+    private final Object versionLock = new Object();
+    
+    /**
+     * 当前版本；初始值取启动时间，服务重启后客户端持有的旧版本不会与新版本混淆
+     */
+    private long version = System.currentTimeMillis();
+    
+    /**
+     * 能提供增量的最早版本，更早的版本只能取完整列表
+     */
+    private long compactedVersion = version;
+    
+    /**
+     * 变更日志：版本 -> 设备ID，每个设备只保留最近一次变化
+     */
+    private final TreeMap<Long, Integer> changeLog = new TreeMap<>();
+    
+    /**
+     * 设备ID -> 最近一次变化的版本
+     */
+    private final Map<Integer, Long> lastChange = new HashMap<>();
+    
+    /**
+     * 获取或分配设备ID，同一地址总是得到同一ID
+     */
+    public int getOrCreateId(String ip, int port) {
+        return addressIndex.computeIfAbsent(addressKey(ip, port), key -> allocateId());
+    }
+    
+    private int allocateId() {
+        Integer id = freeIds.pollFirst();
+        return id != null ? id : nextId.getAndIncrement();
+    }
+    
+    /**
+     * 注册设备，替换同ID的旧设备
+     */
+    public void register(DeviceInfo device) {
+        int id = device.getId();
+        addressIndex.putIfAbsent(addressKey(device.getIp(), device.getPort()), id);
+        
+        DeviceInfo previous = devices.put(id, device);
+        if (previous != null && !previous.getIp().equals(device.getIp())) {
+            removeFromIndex(subnetIndex, subnetOf(previous.getIp()), id);
+        }
+        addToIndex(subnetIndex, subnetOf(device.getIp()), id);
+        indexStatus(id, device.getStatus());
+        if (previous == null || !sameListing(previous, device)) {
+            recordChange(id);
+        }
+    }
+    
+    /**
+     * 更新设备状态并维护状态索引
+     */
+    public void updateStatus(DeviceInfo device, String status, boolean connected) {
+        boolean changed = !Objects.equals(device.getStatus(), status) || device.isConnected() != connected;
+        device.setStatus(status);
+        device.setConnected(connected);
+        device.setLastUpdate(System.currentTimeMillis());
+        
+        // 已被移除或替换的设备对象不再影响索引
+        if (devices.get(device.getId()) == device) {
+            indexStatus(device.getId(), status);
+            if (changed) {
+                recordChange(device.getId());
+            }
+        }
+    }
+    
+    /**
+     * 移除设备并释放其ID
+     *
+     * @return 被移除的设备，不存在时返回null
+     */
+    public DeviceInfo remove(int deviceId) {
+        DeviceInfo device = devices.remove(deviceId);
+        if (device == null) {
+            return null;
+        }
+        
+        addressIndex.remove(addressKey(device.getIp(), device.getPort()), deviceId);
+        removeFromIndex(subnetIndex, subnetOf(device.getIp()), deviceId);
+        String status = indexedStatus.remove(deviceId);
+        if (status != null) {
+            removeFromIndex(statusIndex, status, deviceId);
+        }
+        freeIds.add(deviceId);
+        recordChange(deviceId);
+        return device;
+    }
+    
+    /**
+     * 获取指定设备
+     */
+    public DeviceInfo get(int deviceId) {
+        return devices.get(deviceId);
+    }
+    
+    /**
+     * 按地址查找设备
+     */
+    public DeviceInfo findByAddress(String ip, int port) {
+        Integer id = addressIndex.get(addressKey(ip, port));
+        return id != null ? devices.get(id) : null;
+    }
+    
+    /**
+     * 获取所有设备（按ID排序）
+     */
+    public List<DeviceInfo> getAll() {
+        return new ArrayList<>(devices.values());
+    }
+    
+    /**
+     * 获取指定状态的设备（按ID排序）
+     */
+    public List<DeviceInfo> getByStatus(String status) {
+        return lookup(statusIndex.get(status));
+    }
+    
+    /**
+     * 获取指定网段的设备（按ID排序）
+     */
+    public List<DeviceInfo> getBySubnet(String subnet) {
+        return lookup(subnetIndex.get(subnet));
+    }
+    
+    /**
+     * 获取指定状态的设备数
+     */
+    public int countByStatus(String status) {
+        Set<Integer> ids = statusIndex.get(status);
+        return ids != null ? ids.size() : 0;
+    }
+    
+    public int size() {
+        return devices.size();
+    }
+    
+    /**
+     * 获取当前版本
+     */
+    public long getVersion() {
+        synchronized (versionLock) {
+            return version;
+        }
+    }
+    
+    /**
+     * 获取自给定版本以来的增量
+     *
+     * <p>版本早于变更日志保留的范围或不是本次启动产生的版本时，返回完整列表。</p>
+     */
+    public DeviceListDelta getChangesSince(long sinceVersion) {
+        synchronized (versionLock) {
+            if (sinceVersion < compactedVersion || sinceVersion > version) {
+                return new DeviceListDelta(sinceVersion, version, true, getAll(), Collections.emptyList());
+            }
+            
+            List<DeviceInfo> changed = new ArrayList<>();
+            List<Integer> removed = new ArrayList<>();
+            for (Integer id : changeLog.tailMap(sinceVersion, false).values()) {
+                DeviceInfo device = devices.get(id);
+                if (device != null) {
+                    changed.add(device);
+                } else {
+                    removed.add(id);
+                }
+            }
+            changed.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+            return new DeviceListDelta(sinceVersion, version, false, changed, removed);
+        }
+    }
+    
+    /**
+     * 记录设备变化：版本加一，设备在日志中的旧记录被新记录替换；已移除设备过多时丢弃最早的记录
+     */
+    private void recordChange(int deviceId) {
+        synchronized (versionLock) {
+            long current = ++version;
+            Long previous = lastChange.put(deviceId, current);
+            if (previous != null) {
+                changeLog.remove(previous);
+            }
+            changeLog.put(current, deviceId);
+            
+            while (changeLog.size() > devices.size() + MAX_TOMBSTONES) {
+                Map.Entry<Long, Integer> oldest = changeLog.pollFirstEntry();
+                lastChange.remove(oldest.getValue(), oldest.getKey());
+                compactedVersion = oldest.getKey();
+            }
+        }
+    }
+    
+    /**
+     * 两个设备对象对客户端展示的信息是否相同（不比较最后更新时间）
+     */
+    private static boolean sameListing(DeviceInfo a, DeviceInfo b) {
+        return a.getIp().equals(b.getIp()) && a.getPort() == b.getPort()
+                && Objects.equals(a.getStatus(), b.getStatus()) && a.isConnected() == b.isConnected()
+                && Objects.equals(a.getDeviceName(), b.getDeviceName())
+                && Objects.equals(a.getScreenWidth(), b.getScreenWidth())
+                && Objects.equals(a.getScreenHeight(), b.getScreenHeight());
+    }
+    
+    private List<DeviceInfo> lookup(Set<Integer> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DeviceInfo> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            DeviceInfo device = devices.get(id);
+            if (device != null) {
+                result.add(device);
+            }
+        }
+        return result;
+    }
+    
+    private void indexStatus(int deviceId, String status) {
+        if (status == null) {
+            return;
+        }
+        String previous = indexedStatus.put(deviceId, status);
+        if (previous != null && !previous.equals(status)) {
+            removeFromIndex(statusIndex, previous, deviceId);
+        }
+        addToIndex(statusIndex, status, deviceId);
+    }
+    
+    private static void addToIndex(ConcurrentHashMap<String, Set<Integer>> index, String key, int deviceId) {
+        index.compute(key, (k, ids) -> {
+            Set<Integer> result = ids != null ? ids : new ConcurrentSkipListSet<>();
+            result.add(deviceId);
+            return result;
+        });
+    }
+    
+    private static void removeFromIndex(ConcurrentHashMap<String, Set<Integer>> index, String key, int deviceId) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(deviceId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+    
+    private static String addressKey(String ip, int port) {
+        return ip + ":" + port;
+    }
+    
+    /**
+     * 取IP的网段部分（最后一个点之前）
+     */
+    private static String subnetOf(String ip) {
+        int index = ip.lastIndexOf('.');
+        return index > 0 ? ip.substring(0, index) : ip;
+    }
+}
\ No newline at end of file
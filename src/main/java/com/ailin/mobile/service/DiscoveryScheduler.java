@@ -0,0 +1,307 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台持续发现
+ *
+ * <p>代替周期性的整段扫描：配置网段内没有已注册设备的地址按冷热程度以不同间隔重新探测，
+ * 每秒的探测数受上限约束，设备列表以平稳的小流量保持更新。</p>
+ *
+ * <ul>
+ *     <li>热地址：设备被存活监测判定为无响应（stale）或离线不久，或在统计窗口内反复掉线，按较短间隔探测，
+ *     设备恢复时重新注册并开始捕获</li>
+ *     <li>冷地址：探测无结果时缓存否定结果，有效期从初始值起每次翻倍直到上限，长期没有设备的地址很少探测</li>
+ * </ul>
+ *
+ * <p>已注册且在线的设备由存活监测的心跳负责，这里只跟踪其状态变化用于冷热判断，不重复探测。
+ * 用户移除的设备地址在下一次手动扫描覆盖它之前不再探测。</p>
+ */
+@Slf4j
+@Service
+public class DiscoveryScheduler {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private NetworkScanService networkScanService;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private WebSocketService webSocketService;
+    
+    /**
+     * 调度间隔（毫秒）
+     */
+    private static final long TICK_INTERVAL = 1000;
+    
+    private static final String STATUS_STALE = "stale";
+    
+    private static final String STATUS_OFFLINE = "offline";
+    
+    /**
+     * 地址 -> 探测状态（包括曾经出现过设备、已不在配置网段内的地址）
+     */
+    private final ConcurrentHashMap<String, AddressState> addresses = new ConcurrentHashMap<>();
+    
+    private final AtomicLong probes = new AtomicLong();
+    
+    private final AtomicLong hotProbes = new AtomicLong();
+    
+    private final AtomicLong discovered = new AtomicLong();
+    
+    /**
+     * 按冷热程度探测到期的地址
+     */
+    @Scheduled(fixedDelay = TICK_INTERVAL)
+    public void tick() {
+        MobileConfig.Discovery config = mobileConfig.getDiscovery();
+        if (!config.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        syncAddresses(now);
+        
+        List<AddressState> due = new ArrayList<>();
+        for (AddressState state : addresses.values()) {
+            if (!state.present && !state.probing && state.nextProbe <= now
+                    && !networkScanService.isRemovedAddress(state.ip)) {
+                due.add(state);
+            }
+        }
+        int limit = (int) (config.getMaxProbesPerSecond() * TICK_INTERVAL / 1000);
+        if (due.isEmpty() || limit <= 0) {
+            return;
+        }
+        
+        // 热地址优先，其次是等待最久的地址
+        due.sort(Comparator.comparing((AddressState state) -> !isHot(state, now))
+                .thenComparingLong(state -> state.nextProbe));
+        int count = Math.min(due.size(), limit);
+        
+        List<AddressState> batch = due.subList(0, count);
+        List<String> ips = new ArrayList<>(count);
+        for (AddressState state : batch) {
+            state.probing = true;
+            ips.add(state.ip);
+            if (isHot(state, now)) {
+                hotProbes.incrementAndGet();
+            }
+        }
+        probes.addAndGet(count);
+        networkScanService.probeAddresses(ips).whenComplete((found, error) -> {
+            if (error != null) {
+                log.error("后台发现探测异常", error);
+            }
+            onProbed(batch, found);
+        });
+    }
+    
+    /**
+     * 获取发现统计
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        int hot = 0;
+        int cold = 0;
+        int present = 0;
+        int removed = 0;
+        for (AddressState state : addresses.values()) {
+            if (state.present) {
+                present++;
+            } else if (networkScanService.isRemovedAddress(state.ip)) {
+                removed++;
+            } else if (isHot(state, now)) {
+                hot++;
+            } else {
+                cold++;
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", mobileConfig.getDiscovery().isEnabled());
+        stats.put("addresses", addresses.size());
+        stats.put("present", present);
+        stats.put("hot", hot);
+        stats.put("cold", cold);
+        stats.put("removed", removed);
+        stats.put("probes", probes.get());
+        stats.put("hotProbes", hotProbes.get());
+        stats.put("discovered", discovered.get());
+        return stats;
+    }
+    
+    /**
+     * 同步配置网段和已注册设备：新地址立即到期；设备被存活监测降级为 stale 或 offline 时记为一次掉线，
+     * 地址转为热地址。设备被用户移除不算掉线，该地址由移除记录排除在探测之外
+     */
+    private void syncAddresses(long now) {
+        MobileConfig.Network network = mobileConfig.getNetwork();
+        for (int i = network.getStartRange(); i <= network.getEndRange(); i++) {
+            addresses.computeIfAbsent(network.getBaseIp() + "." + i, AddressState::new);
+        }
+        
+        Map<String, DeviceInfo> registered = new HashMap<>();
+        for (DeviceInfo device : deviceRegistry.getAll()) {
+            registered.put(device.getIp(), device);
+            addresses.computeIfAbsent(device.getIp(), AddressState::new);
+        }
+        
+        MobileConfig.Discovery config = mobileConfig.getDiscovery();
+        for (AddressState state : addresses.values()) {
+            DeviceInfo device = registered.get(state.ip);
+            boolean down = device != null && isDown(device.getStatus());
+            boolean present = device != null && !down;
+            if (present) {
+                state.lastSeen = now;
+                state.misses = 0;
+            }
+            if (present != state.present) {
+                state.present = present;
+                if (down) {
+                    // 设备刚掉线，按热地址探测，恢复时重新注册并开始捕获
+                    recordFlap(state, now);
+                    state.nextProbe = now + config.getHotInterval();
+                }
+            }
+        }
+        
+        // 既不在配置网段内、也早已没有设备的地址不再跟踪
+        String prefix = network.getBaseIp() + ".";
+        addresses.values().removeIf(state -> !state.present && !state.probing && !isHot(state, now)
+                && !inRange(state.ip, prefix, network));
+    }
+    
+    /**
+     * 一批探测结束：发现设备的地址等待同步为已注册，其余地址按冷热程度安排下一次探测
+     */
+    private void onProbed(List<AddressState> batch, Set<String> found) {
+        long now = System.currentTimeMillis();
+        MobileConfig.Discovery config = mobileConfig.getDiscovery();
+        boolean changed = false;
+        for (AddressState state : batch) {
+            state.probing = false;
+            if (found != null && found.contains(state.ip)) {
+                discovered.incrementAndGet();
+                state.lastSeen = now;
+                state.misses = 0;
+                changed = true;
+                log.info("后台发现新设备: {}", state.ip);
+                continue;
+            }
+            state.misses++;
+            state.nextProbe = now + (isHot(state, now) ? config.getHotInterval() : getNegativeTtl(state.misses));
+        }
+        if (changed) {
+            webSocketService.sendDeviceListDelta();
+        }
+    }
+    
+    /**
+     * 设备掉线不久，或在统计窗口内多次掉线（不稳定的设备在更长时间内保持为热地址）
+     */
+    private boolean isHot(AddressState state, long now) {
+        MobileConfig.Discovery config = mobileConfig.getDiscovery();
+        if (state.lastSeen > 0 && now - state.lastSeen < config.getHotWindow()) {
+            return true;
+        }
+        return state.flaps >= config.getFlapThreshold() && now - state.lastFlap < config.getFlapWindow();
+    }
+    
+    /**
+     * 存活监测判定为无响应或离线
+     */
+    private static boolean isDown(String status) {
+        return STATUS_STALE.equals(status) || STATUS_OFFLINE.equals(status);
+    }
+    
+    private void recordFlap(AddressState state, long now) {
+        if (now - state.lastFlap >= mobileConfig.getDiscovery().getFlapWindow()) {
+            state.flaps = 0;
+        }
+        state.flaps++;
+        state.lastFlap = now;
+    }
+    
+    /**
+     * 第n次连续无结果后的否定缓存有效期：初始值按次数翻倍，不超过上限，减去最多四分之一的随机量，
+     * 避免整个网段在同一时刻一起到期
+     */
+    private long getNegativeTtl(int misses) {
+        MobileConfig.Discovery config = mobileConfig.getDiscovery();
+        long base = Math.max(1, config.getNegativeTtl());
+        long max = Math.max(base, config.getMaxNegativeTtl());
+        long ttl = misses >= 31 ? max : Math.min(max, base << Math.min(misses - 1, 30));
+        return ttl - ThreadLocalRandom.current().nextLong(ttl / 4 + 1);
+    }
+    
+    private static boolean inRange(String ip, String prefix, MobileConfig.Network network) {
+        if (!ip.startsWith(prefix)) {
+            return false;
+        }
+        try {
+            int host = Integer.parseInt(ip.substring(prefix.length()));
+            return host >= network.getStartRange() && host <= network.getEndRange();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 单个地址的探测状态，由调度线程和探测完成回调访问；探测在途时调度线程不修改探测时间
+     */
+    private static final class AddressState {
+        
+        private final String ip;
+        
+        /**
+         * 下一次探测时间，新地址立即到期
+         */
+        private volatile long nextProbe;
+        
+        /**
+         * 最近一次有在线设备的时间，0表示从未有过
+         */
+        private volatile long lastSeen;
+        
+        /**
+         * 是否有已注册且未被判定为无响应或离线的设备
+         */
+        private volatile boolean present;
+        
+        private volatile boolean probing;
+        
+        /**
+         * 连续无结果的探测次数
+         */
+        private volatile int misses;
+        
+        /**
+         * 统计窗口内设备掉线的次数
+         */
+        private volatile int flaps;
+        
+        private volatile long lastFlap;
+        
+        AddressState(String ip) {
+            this.ip = ip;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,263 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.FrameConsumer;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * 帧分发服务
+ *
+ * <p>捕获线程与推送之间为每个设备保留一个"最新帧"槽位：解析出的新帧直接覆盖槽位，
+ * 分发线程总是取走最新的一帧交给消费者，未来得及分发的旧帧被跳过并计数。
+ * 下游变慢时延迟不会随积压增长。</p>
+ *
+ * <p>槽位持有帧的一次引用：被覆盖的旧帧立即释放，分发完成后释放取走的帧。</p>
+ *
+ * <p>开启去重时按CRC32和长度识别与上一次分发完全相同的帧并在分发前丢弃，
+ * 静止画面只按保活间隔重发，新观看者的首屏由最新帧缓存提供。</p>
+ *
+ * <p>限流、去重和合并只针对实时观看：录制在这些步骤之前取帧，录制的设备不会因此丢帧。</p>
+ */
+@Slf4j
+@Service
+public class FrameDispatcher {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private List<FrameConsumer> frameConsumers;
+    
+    @Autowired
+    private CaptureScheduler captureScheduler;
+    
+    @Autowired
+    private ChangeDetector changeDetector;
+    
+    @Autowired
+    private RecordingService recordingService;
+    
+    /**
+     * 设备最新帧槽位
+     */
+    private final ConcurrentHashMap<Integer, FrameSlot> slots = new ConcurrentHashMap<>();
+    
+    /**
+     * 分发线程池
+     */
+    private ExecutorService dispatchExecutor;
+    
+    @PostConstruct
+    public void init() {
+        dispatchExecutor = Executors.newFixedThreadPool(Math.max(1, mobileConfig.getCapture().getDispatchThreads()),
+                new CustomizableThreadFactory("frame-dispatch-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        dispatchExecutor.shutdownNow();
+    }
+    
+    /**
+     * 发布新解析出的帧（捕获线程调用），接管帧的一次引用
+     */
+    public void publish(ScreenFrame frame) {
+        recordingService.record(frame);
+        
+        FrameSlot slot = slots.computeIfAbsent(frame.getDeviceId(), id -> new FrameSlot());
+        // 被限流的帧也要检测，否则静止设备无法发现画面恢复变化
+        changeDetector.inspect(frame);
+        
+        // 降为缩略帧率或画面静止的设备按最小帧间隔丢帧
+        long interval = Math.max(captureScheduler.getFrameInterval(frame.getDeviceId()),
+                changeDetector.getFrameInterval(frame.getDeviceId()));
+        if (interval > 0 && frame.getTimestamp() - slot.lastAccepted < interval) {
+            slot.throttled.incrementAndGet();
+            frame.release();
+            return;
+        }
+        
+        if (isDuplicate(slot, frame)) {
+            slot.suppressed.incrementAndGet();
+            slot.bytesSaved.addAndGet(frame.getLength());
+            frame.release();
+            return;
+        }
+        slot.lastAccepted = frame.getTimestamp();
+        
+        if (!mobileConfig.getCapture().isCoalesce()) {
+            // 不合并时直接在捕获线程分发
+            slot.delivered.incrementAndGet();
+            deliver(frame);
+            return;
+        }
+        
+        ScreenFrame previous = slot.latest.getAndSet(frame);
+        if (previous != null) {
+            slot.skipped.incrementAndGet();
+            previous.release();
+        }
+        if (slot.scheduled.compareAndSet(false, true)) {
+            dispatchExecutor.execute(() -> drain(slot));
+        }
+    }
+    
+    /**
+     * 判断帧是否与上一次分发的帧内容相同且未到保活时间（捕获线程调用）
+     */
+    private boolean isDuplicate(FrameSlot slot, ScreenFrame frame) {
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        if (!capture.isDedup()) {
+            return false;
+        }
+        
+        CRC32 crc = new CRC32();
+        crc.update(frame.getBuffer().array(), frame.getOffset(), frame.getLength());
+        long fingerprint = crc.getValue() << 32 | frame.getLength();
+        
+        boolean duplicate = fingerprint == slot.fingerprint
+                && frame.getTimestamp() - slot.lastForwarded < capture.getDedupKeepAliveInterval();
+        slot.fingerprint = fingerprint;
+        if (!duplicate) {
+            slot.lastForwarded = frame.getTimestamp();
+        }
+        return duplicate;
+    }
+    
+    /**
+     * 取走槽位中的最新帧并分发，直到槽位为空
+     */
+    private void drain(FrameSlot slot) {
+        while (true) {
+            ScreenFrame frame = slot.latest.getAndSet(null);
+            if (frame == null) {
+                slot.scheduled.set(false);
+                // 释放调度标记后再次检查，避免与发布线程竞争时漏掉新帧
+                if (slot.latest.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            slot.delivered.incrementAndGet();
+            deliver(frame);
+        }
+    }
+    
+    /**
+     * 交给所有消费者，完成后释放本次分发持有的引用
+     */
+    private void deliver(ScreenFrame frame) {
+        try {
+            for (FrameConsumer consumer : frameConsumers) {
+                try {
+                    consumer.onFrame(frame);
+                } catch (Exception e) {
+                    log.error("分发屏幕帧失败: deviceId={}, consumer={}", frame.getDeviceId(),
+                            consumer.getClass().getSimpleName(), e);
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * 移除设备槽位
+     */
+    public void removeDevice(int deviceId) {
+        changeDetector.removeDevice(deviceId);
+        FrameSlot slot = slots.remove(deviceId);
+        if (slot != null) {
+            ScreenFrame frame = slot.latest.getAndSet(null);
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+    
+    /**
+     * 获取因合并而跳过的总帧数
+     */
+    public long getSkippedFrameCount() {
+        long skipped = 0;
+        for (FrameSlot slot : slots.values()) {
+            skipped += slot.skipped.get();
+        }
+        return skipped;
+    }
+    
+    /**
+     * 获取各设备的分发统计
+     */
+    public Map<Integer, Map<String, Long>> getStats() {
+        Map<Integer, Map<String, Long>> stats = new HashMap<>();
+        slots.forEach((deviceId, slot) -> {
+            Map<String, Long> deviceStats = new HashMap<>();
+            deviceStats.put("delivered", slot.delivered.get());
+            deviceStats.put("skipped", slot.skipped.get());
+            deviceStats.put("throttled", slot.throttled.get());
+            deviceStats.put("suppressed", slot.suppressed.get());
+            deviceStats.put("bytesSaved", slot.bytesSaved.get());
+            stats.put(deviceId, deviceStats);
+        });
+        return stats;
+    }
+    
+    /**
+     * 单个设备的最新帧槽位
+     */
+    private static class FrameSlot {
+        
+        private final AtomicReference<ScreenFrame> latest = new AtomicReference<>();
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        private final AtomicLong delivered = new AtomicLong();
+        
+        private final AtomicLong skipped = new AtomicLong();
+        
+        private final AtomicLong throttled = new AtomicLong();
+        
+        /**
+         * 因与上一帧相同而丢弃的帧数
+         */
+        private final AtomicLong suppressed = new AtomicLong();
+        
+        /**
+         * 丢弃重复帧节省的字节数
+         */
+        private final AtomicLong bytesSaved = new AtomicLong();
+        
+        /**
+         * 最近一次接受的帧时间戳，只由该设备的捕获线程写入
+         */
+        private volatile long lastAccepted;
+        
+        /**
+         * 最近一帧的指纹（CRC32与长度），只由该设备的捕获线程写入
+         */
+        private volatile long fingerprint;
+        
+        /**
+         * 最近一次分发非重复帧或保活帧的时间戳
+         */
+        private volatile long lastForwarded;
+    }
+}
\ No newline at end of file
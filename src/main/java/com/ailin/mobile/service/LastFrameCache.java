@@ -0,0 +1,157 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.FrameConsumer;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最新帧缓存
+ *
+ * <p>每个设备保留最近一帧完整JPEG，新观看者订阅后立即收到画面，不必等设备产生下一帧。</p>
+ *
+ * <p>新帧只增加一次引用而不拷贝；持续更新的设备很快会被下一帧替换，
+ * 超过一个整理周期没有更新的帧才拷贝为独立数组并释放池化缓冲区，避免长期占用解析缓冲区。
+ * 缓存总字节数超过上限时淘汰最久未更新的设备。</p>
+ */
+@Slf4j
+@Service
+public class LastFrameCache implements FrameConsumer {
+    
+    /**
+     * 整理间隔（毫秒）
+     */
+    private static final long COMPACT_INTERVAL = 1000;
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    /**
+     * 设备ID -> 最新帧（缓存持有一次引用）
+     */
+    private final ConcurrentHashMap<Integer, ScreenFrame> frames = new ConcurrentHashMap<>();
+    
+    /**
+     * 缓存的JPEG总字节数
+     */
+    private final AtomicLong cachedBytes = new AtomicLong();
+    
+    private final AtomicLong evictions = new AtomicLong();
+    
+    @Override
+    public void onFrame(ScreenFrame frame) {
+        ScreenFrame previous = frames.put(frame.getDeviceId(), frame.retain());
+        cachedBytes.addAndGet(frame.getLength());
+        if (previous != null) {
+            cachedBytes.addAndGet(-previous.getLength());
+            previous.release();
+        }
+    }
+    
+    /**
+     * 获取设备的最新帧，调用方负责 {@link ScreenFrame#release()}
+     *
+     * @return 没有缓存时返回null
+     */
+    public ScreenFrame get(int deviceId) {
+        ScreenFrame[] result = new ScreenFrame[1];
+        // 在映射锁内增加引用，避免与替换后的释放竞争
+        frames.computeIfPresent(deviceId, (id, frame) -> {
+            result[0] = frame.retain();
+            return frame;
+        });
+        return result[0];
+    }
+    
+    /**
+     * 获取所有设备的最新帧，调用方负责逐个 {@link ScreenFrame#release()}
+     */
+    public List<ScreenFrame> getAll() {
+        List<ScreenFrame> result = new ArrayList<>();
+        for (Integer deviceId : frames.keySet()) {
+            ScreenFrame frame = get(deviceId);
+            if (frame != null) {
+                result.add(frame);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 移除设备的缓存帧（设备被移除或离线）
+     */
+    public void evict(int deviceId) {
+        ScreenFrame frame = frames.remove(deviceId);
+        if (frame != null) {
+            cachedBytes.addAndGet(-frame.getLength());
+            frame.release();
+            log.debug("移除设备 {} 的缓存帧", deviceId);
+        }
+    }
+    
+    /**
+     * 拷贝长时间未更新的帧以释放池化缓冲区，并按上限淘汰
+     */
+    @Scheduled(fixedDelay = COMPACT_INTERVAL)
+    public void compact() {
+        long expireBefore = System.currentTimeMillis() - COMPACT_INTERVAL;
+        frames.forEach((deviceId, frame) -> {
+            // 只引用了大缓冲区一部分的帧才需要拷贝
+            if (frame.getBuffer().capacity() != frame.getLength() && frame.getTimestamp() < expireBefore) {
+                ScreenFrame copy = ScreenFrame.wrap(deviceId, frame.getSequence(), frame.getTimestamp(),
+                        frame.toByteArray());
+                if (frames.replace(deviceId, frame, copy)) {
+                    frame.release();
+                } else {
+                    copy.release();
+                }
+            }
+        });
+        
+        long maxBytes = mobileConfig.getCapture().getFrameCacheMaxBytes();
+        if (cachedBytes.get() <= maxBytes) {
+            return;
+        }
+        List<ScreenFrame> oldest = new ArrayList<>(frames.values());
+        oldest.sort(Comparator.comparingLong(ScreenFrame::getTimestamp));
+        for (ScreenFrame frame : oldest) {
+            if (cachedBytes.get() <= maxBytes) {
+                break;
+            }
+            if (frames.remove(frame.getDeviceId(), frame)) {
+                cachedBytes.addAndGet(-frame.getLength());
+                frame.release();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        frames.keySet().forEach(this::evict);
+    }
+    
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("devices", frames.size());
+        stats.put("cachedBytes", cachedBytes.get());
+        stats.put("maxBytes", mobileConfig.getCapture().getFrameCacheMaxBytes());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,368 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.discovery.ConnectProber;
+import com.ailin.mobile.event.DeviceStatusEvent;
+import com.ailin.mobile.liveness.TimerWheel;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * 设备存活监测
+ *
+ * <p>每个已发现的设备在哈希时间轮上只有一个到期检查：画面帧和心跳应答只更新最近活动时间，
+ * 到期时再按最近活动时间决定顺延还是降级，数千台设备也不需要逐个调度任务或逐秒扫描。</p>
+ *
+ * <p>正在捕获的设备由捕获监督维护状态，画面帧即心跳；未捕获的设备（按需捕获模式下无人观看，或已放弃重连）
+ * 按心跳间隔做TCP连接探测，无响应超过一定时间降级为 stale，再超过离线时间降级为 offline，应答后重新上线。</p>
+ *
+ * <p>状态变化不逐条广播：同一刻度内的变化按设备合并，刻度结束时以一个 {@link DeviceStatusEvent} 发布。</p>
+ */
+@Slf4j
+@Service
+public class LivenessMonitor {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    private static final String STATUS_ONLINE = "online";
+    
+    private static final String STATUS_STALE = "stale";
+    
+    private static final String STATUS_OFFLINE = "offline";
+    
+    private TimerWheel timerWheel;
+    
+    /**
+     * 心跳探测器
+     */
+    private ConnectProber prober;
+    
+    /**
+     * 设备ID -> 监测项
+     */
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    
+    /**
+     * 本刻度内待发布的状态变化：设备ID -> 最后的状态
+     */
+    private final ConcurrentHashMap<Integer, DeviceStatusEvent.Change> pendingChanges = new ConcurrentHashMap<>();
+    
+    /**
+     * 本刻度内到期、需要心跳探测的设备（仅在时间轮线程上访问）
+     */
+    private final List<Entry> probeBatch = new ArrayList<>();
+    
+    /**
+     * 判断设备是否由捕获监督维护状态
+     */
+    private volatile IntPredicate supervised = deviceId -> false;
+    
+    private final AtomicLong heartbeats = new AtomicLong();
+    
+    private final AtomicLong heartbeatReplies = new AtomicLong();
+    
+    private final AtomicLong demotions = new AtomicLong();
+    
+    private final AtomicLong batches = new AtomicLong();
+    
+    private final AtomicLong statusChanges = new AtomicLong();
+    
+    @PostConstruct
+    public void init() throws IOException {
+        MobileConfig.Liveness liveness = mobileConfig.getLiveness();
+        prober = new ConnectProber(liveness.getMaxInFlightHeartbeats(), mobileConfig.getNetwork().getConnectTimeout(),
+                "liveness-heartbeat");
+        timerWheel = new TimerWheel(liveness.getTickDuration(), liveness.getWheelSize(), "liveness-wheel",
+                this::onTick);
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        timerWheel.stop();
+        prober.shutdown();
+    }
+    
+    /**
+     * 共用的时间轮，供捕获监督安排停滞检查
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+    
+    /**
+     * 设置判断设备是否在捕获监督中的回调，监督中的设备不做心跳降级
+     */
+    public void setSupervision(IntPredicate supervised) {
+        this.supervised = supervised;
+    }
+    
+    /**
+     * 开始监测设备，重新发现的设备从当前时间开始计算
+     */
+    public void watch(DeviceInfo device) {
+        Entry entry = new Entry(device.getId(), System.currentTimeMillis());
+        Entry previous = entries.put(device.getId(), entry);
+        if (previous != null) {
+            previous.cancel();
+        }
+        arm(entry, mobileConfig.getLiveness().getHeartbeatInterval());
+    }
+    
+    /**
+     * 停止监测设备
+     */
+    public void unwatch(int deviceId) {
+        Entry entry = entries.remove(deviceId);
+        if (entry != null) {
+            entry.cancel();
+        }
+        pendingChanges.remove(deviceId);
+    }
+    
+    /**
+     * 收到画面（捕获线程调用，只更新时间，不操作时间轮）
+     */
+    public void touch(int deviceId, long now) {
+        Entry entry = entries.get(deviceId);
+        if (entry != null) {
+            entry.lastSeen = now;
+        }
+    }
+    
+    /**
+     * 报告设备状态变化，在当前刻度结束时与其他变化合并发布
+     */
+    public void reportStatus(int deviceId, String status, boolean connected) {
+        pendingChanges.put(deviceId, new DeviceStatusEvent.Change(deviceId, status, connected));
+    }
+    
+    /**
+     * 获取监测统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("watched", entries.size());
+        stats.put("stale", deviceRegistry.countByStatus(STATUS_STALE));
+        stats.put("offline", deviceRegistry.countByStatus(STATUS_OFFLINE));
+        stats.put("heartbeats", heartbeats.get());
+        stats.put("heartbeatReplies", heartbeatReplies.get());
+        stats.put("demotions", demotions.get());
+        stats.put("batches", batches.get());
+        stats.put("statusChanges", statusChanges.get());
+        stats.put("timers", timerWheel.getPendingCount());
+        stats.put("expiredTimers", timerWheel.getExpiredCount());
+        stats.put("tickDuration", timerWheel.getTickDuration());
+        stats.put("wheelSize", timerWheel.getWheelSize());
+        return stats;
+    }
+    
+    /**
+     * 安排下一次检查，旧的检查作废
+     */
+    private void arm(Entry entry, long delay) {
+        synchronized (entry) {
+            if (entry.cancelled) {
+                return;
+            }
+            if (entry.timeout != null) {
+                entry.timeout.cancel();
+            }
+            int generation = ++entry.generation;
+            entry.timeout = timerWheel.schedule(() -> check(entry, generation), delay);
+        }
+    }
+    
+    /**
+     * 到期检查（时间轮线程）：未在捕获的设备按最近活动时间发起心跳并更新状态，然后顺延
+     */
+    private void check(Entry entry, int generation) {
+        MobileConfig.Liveness liveness = mobileConfig.getLiveness();
+        long interval = Math.max(1, liveness.getHeartbeatInterval());
+        long idle;
+        synchronized (entry) {
+            if (entry.cancelled || entry.generation != generation) {
+                return;
+            }
+            idle = System.currentTimeMillis() - entry.lastSeen;
+            entry.timeout = null;
+        }
+        
+        if (!supervised.test(entry.deviceId)) {
+            DeviceInfo device = deviceRegistry.get(entry.deviceId);
+            if (device == null) {
+                entries.remove(entry.deviceId, entry);
+                entry.cancel();
+                return;
+            }
+            if (idle >= interval && !entry.probing) {
+                entry.probing = true;
+                probeBatch.add(entry);
+            }
+            updateStatus(entry, device, idle);
+        }
+        
+        // 最近有活动时在距上次活动满一个间隔时再检查
+        arm(entry, idle < interval ? interval - idle : interval);
+    }
+    
+    /**
+     * 按无响应时间更新未捕获设备的状态；捕获结束时遗留的连接中、重连中等状态同样按心跳结果纠正
+     */
+    private void updateStatus(Entry entry, DeviceInfo device, long idle) {
+        MobileConfig.Liveness liveness = mobileConfig.getLiveness();
+        String status;
+        if (idle >= liveness.getOfflineTimeout()) {
+            status = STATUS_OFFLINE;
+        } else if (idle >= liveness.getStaleTimeout()) {
+            status = STATUS_STALE;
+        } else {
+            status = STATUS_ONLINE;
+        }
+        if (status.equals(device.getStatus())) {
+            return;
+        }
+        
+        boolean connected = STATUS_ONLINE.equals(status);
+        if (connected) {
+            log.info("设备 {} 心跳恢复，标记为在线", entry.deviceId);
+        } else {
+            demotions.incrementAndGet();
+            log.info("设备 {} 已 {}ms 无响应，标记为 {}", entry.deviceId, idle, status);
+        }
+        deviceRegistry.updateStatus(device, status, connected);
+        reportStatus(entry.deviceId, status, connected);
+    }
+    
+    /**
+     * 刻度结束（时间轮线程）：批量发起心跳探测，合并发布本刻度的状态变化
+     */
+    private void onTick() {
+        if (!probeBatch.isEmpty()) {
+            sendHeartbeats();
+        }
+        if (!pendingChanges.isEmpty()) {
+            publishChanges();
+        }
+    }
+    
+    /**
+     * 心跳连接设备的检测端口（与发现探测相同），不占用屏幕流端口
+     */
+    private void sendHeartbeats() {
+        int detectPort = mobileConfig.getNetwork().getDetectPort();
+        Map<InetSocketAddress, Entry> targets = new HashMap<>();
+        for (Entry entry : probeBatch) {
+            DeviceInfo device = deviceRegistry.get(entry.deviceId);
+            if (device != null) {
+                targets.put(new InetSocketAddress(device.getIp(), detectPort), entry);
+            } else {
+                entry.probing = false;
+            }
+        }
+        probeBatch.clear();
+        if (targets.isEmpty()) {
+            return;
+        }
+        
+        heartbeats.addAndGet(targets.size());
+        prober.probe(new ArrayList<>(targets.keySet()), address -> onHeartbeat(targets.get(address)), () -> {
+        }).whenComplete((result, error) -> targets.values().forEach(entry -> entry.probing = false));
+    }
+    
+    /**
+     * 心跳应答（探测线程）：已降级的设备立即重新检查，不必等到下一个间隔
+     */
+    private void onHeartbeat(Entry entry) {
+        heartbeatReplies.incrementAndGet();
+        long now = System.currentTimeMillis();
+        entry.lastSeen = now;
+        DeviceInfo device = deviceRegistry.get(entry.deviceId);
+        if (device == null) {
+            return;
+        }
+        device.setLastUpdate(now);
+        if (!STATUS_ONLINE.equals(device.getStatus()) && !supervised.test(entry.deviceId)) {
+            arm(entry, 0);
+        }
+    }
+    
+    private void publishChanges() {
+        List<DeviceStatusEvent.Change> changes = new ArrayList<>(pendingChanges.size());
+        for (Integer deviceId : pendingChanges.keySet()) {
+            DeviceStatusEvent.Change change = pendingChanges.remove(deviceId);
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        changes.sort(Comparator.comparingInt(DeviceStatusEvent.Change::getDeviceId));
+        batches.incrementAndGet();
+        statusChanges.addAndGet(changes.size());
+        eventPublisher.publishEvent(new DeviceStatusEvent(this, changes));
+    }
+    
+    /**
+     * 单个设备的监测项
+     */
+    private static final class Entry {
+        
+        private final int deviceId;
+        
+        /**
+         * 最近一次收到画面或心跳应答的时间
+         */
+        private volatile long lastSeen;
+        
+        /**
+         * 是否有心跳探测在途
+         */
+        private volatile boolean probing;
+        
+        /**
+         * 以下字段由对象锁保护：当前检查、检查代数（作废旧检查）、是否已停止监测
+         */
+        private TimerWheel.Timeout timeout;
+        
+        private int generation;
+        
+        private boolean cancelled;
+        
+        Entry(int deviceId, long lastSeen) {
+            this.deviceId = deviceId;
+            this.lastSeen = lastSeen;
+        }
+        
+        synchronized void cancel() {
+            cancelled = true;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,484 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.FrameConsumer;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * HTTP MJPEG推流（multipart/x-mixed-replace）
+ *
+ * <p>供不支持WebSocket协议的工具使用（录像盒、OpenCV脚本、&lt;img&gt;看板）。帧来自现有的捕获管线，
+ * 不另外连接设备。响应使用Servlet异步非阻塞输出，只在连接可写时写出，空闲或慢速的客户端不占用Tomcat线程；
+ * 每个客户端按帧率上限取帧，等待写出期间到达的新帧只保留最新一帧。</p>
+ */
+@Slf4j
+@Service
+public class MjpegStreamService implements FrameConsumer {
+    
+    /**
+     * multipart分隔符
+     */
+    private static final String BOUNDARY = "mjpegframe";
+    
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    @Autowired
+    private MosaicService mosaicService;
+    
+    @Autowired
+    private ReplayService replayService;
+    
+    /**
+     * 设备ID -> 观看该设备的MJPEG客户端
+     */
+    private final ConcurrentHashMap<Integer, Set<MjpegClient>> deviceClients = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger clientCount = new AtomicInteger();
+    
+    private final AtomicLong framesSent = new AtomicLong();
+    
+    /**
+     * 超过客户端帧率上限而跳过的帧数
+     */
+    private final AtomicLong framesSkipped = new AtomicLong();
+    
+    /**
+     * 等待连接可写期间被更新帧替换的帧数
+     */
+    private final AtomicLong framesCoalesced = new AtomicLong();
+    
+    private final AtomicLong bytesSent = new AtomicLong();
+    
+    /**
+     * 开始向客户端推送设备画面，先发送缓存的最新帧
+     *
+     * @param fps 客户端要求的帧率，为null时使用默认帧率
+     * @return 客户端数已达上限时返回false（未开始异步处理）
+     */
+    public boolean streamDevice(int deviceId, Integer fps, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        if (!reserveClient()) {
+            return false;
+        }
+        
+        MjpegClient client = new MjpegClient(deviceId, Source.DEVICE, fps);
+        deviceClients.compute(deviceId, (id, clients) -> {
+            Set<MjpegClient> result = clients != null ? clients : ConcurrentHashMap.newKeySet();
+            result.add(client);
+            return result;
+        });
+        viewerRegistry.addViewer(deviceId);
+        client.start(request, response);
+        log.info("MJPEG客户端开始观看设备 {}: {}, {}fps", deviceId, request.getRemoteAddr(), client.getFps());
+        
+        ScreenFrame cached = lastFrameCache.get(deviceId);
+        if (cached != null) {
+            try {
+                client.offer(cached);
+            } finally {
+                cached.release();
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 开始向客户端推送马赛克画面
+     *
+     * @return 客户端数已达上限或马赛克不存在时返回false（未开始异步处理）
+     */
+    public boolean streamMosaic(int mosaicId, Integer fps, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        if (mosaicService.get(mosaicId) == null || !reserveClient()) {
+            return false;
+        }
+        
+        MjpegClient client = new MjpegClient(mosaicId, Source.MOSAIC, fps);
+        client.start(request, response);
+        if (!mosaicService.subscribe(mosaicId, client.listener)) {
+            // 马赛克在此期间被删除
+            client.close();
+            return true;
+        }
+        log.info("MJPEG客户端开始观看马赛克 {}: {}, {}fps", mosaicId, request.getRemoteAddr(), client.getFps());
+        
+        ScreenFrame latest = mosaicService.getLatestFrame(mosaicId);
+        if (latest != null) {
+            try {
+                client.offer(latest);
+            } finally {
+                latest.release();
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 开始向客户端推送设备录制的回放，推流期间可通过回放ID控制（暂停、定位、逐帧、倍速）
+     *
+     * <p>回放按自身倍速和帧率上限推送，不再按客户端帧率取帧。</p>
+     *
+     * @return 客户端数已达上限时返回false（未开始异步处理）
+     * @throws IllegalArgumentException 倍速无效或设备没有录制
+     */
+    public boolean streamReplay(int deviceId, long timestamp, double speed, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        if (!replayService.hasRecordings(deviceId)) {
+            throw new IllegalArgumentException("设备没有录制: " + deviceId);
+        }
+        if (!reserveClient()) {
+            return false;
+        }
+        
+        MjpegClient client = new MjpegClient(deviceId, Source.REPLAY, null);
+        int replayId;
+        try {
+            // 回放ID需要在异步开始前写入响应头，首帧在接收方就绪后才写出
+            replayId = replayService.start(deviceId, timestamp, speed, client.listener);
+        } catch (IllegalArgumentException e) {
+            clientCount.decrementAndGet();
+            throw e;
+        }
+        client.replayId = replayId;
+        response.setHeader("X-Replay-Id", String.valueOf(replayId));
+        try {
+            client.start(request, response);
+        } catch (IOException | RuntimeException e) {
+            replayService.stop(replayId);
+            clientCount.decrementAndGet();
+            throw e;
+        }
+        log.info("MJPEG客户端开始回放设备 {}: {}, 回放 {}", deviceId, request.getRemoteAddr(), replayId);
+        return true;
+    }
+    
+    @Override
+    public void onFrame(ScreenFrame frame) {
+        Set<MjpegClient> clients = deviceClients.get(frame.getDeviceId());
+        if (clients == null || frame.getLength() == 0) {
+            return;
+        }
+        for (MjpegClient client : clients) {
+            client.offer(frame);
+        }
+    }
+    
+    /**
+     * 获取推流统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("clients", clientCount.get());
+        Map<Integer, Integer> devices = new HashMap<>();
+        deviceClients.forEach((deviceId, clients) -> devices.put(deviceId, clients.size()));
+        result.put("devices", devices);
+        result.put("framesSent", framesSent.get());
+        result.put("framesSkipped", framesSkipped.get());
+        result.put("framesCoalesced", framesCoalesced.get());
+        result.put("bytesSent", bytesSent.get());
+        return result;
+    }
+    
+    private boolean reserveClient() {
+        int maxClients = mobileConfig.getMjpeg().getMaxClients();
+        while (true) {
+            int count = clientCount.get();
+            if (count >= maxClients) {
+                return false;
+            }
+            if (clientCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * 客户端断开后注销
+     */
+    private void unregister(MjpegClient client) {
+        clientCount.decrementAndGet();
+        if (client.source == Source.MOSAIC) {
+            mosaicService.unsubscribe(client.sourceId, client.listener);
+            log.info("MJPEG客户端停止观看马赛克 {}", client.sourceId);
+            return;
+        }
+        if (client.source == Source.REPLAY) {
+            replayService.stop(client.replayId);
+            log.info("MJPEG客户端停止回放设备 {}", client.sourceId);
+            return;
+        }
+        
+        boolean[] removed = new boolean[1];
+        deviceClients.computeIfPresent(client.sourceId, (id, clients) -> {
+            removed[0] = clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+        if (removed[0]) {
+            viewerRegistry.removeViewer(client.sourceId);
+        }
+        log.info("MJPEG客户端停止观看设备 {}", client.sourceId);
+    }
+    
+    /**
+     * MJPEG连接的画面来源
+     */
+    private enum Source {
+        DEVICE, MOSAIC, REPLAY
+    }
+    
+    /**
+     * 单个MJPEG连接
+     *
+     * <p>每帧依次写出分段头、JPEG数据和结尾换行后刷新；连接不可写时停下，由容器在可写时回调
+     * {@link #onWritePossible()} 继续。写出状态由对象锁保护，捕获线程与容器线程不会同时写。</p>
+     */
+    private class MjpegClient implements WriteListener, AsyncListener {
+        
+        private final int sourceId;
+        
+        private final Source source;
+        
+        private final int fps;
+        
+        /**
+         * 两帧之间的最小间隔（纳秒）
+         */
+        private final long minInterval;
+        
+        /**
+         * 马赛克订阅和回放使用的监听器，注销时按同一实例移除
+         */
+        private final Consumer<ScreenFrame> listener = this::offer;
+        
+        /**
+         * 等待写出的最新帧
+         */
+        private final AtomicReference<ScreenFrame> pending = new AtomicReference<>();
+        
+        private volatile long lastAccepted;
+        
+        private volatile boolean closed;
+        
+        /**
+         * 回放ID，仅回放连接使用
+         */
+        private volatile int replayId;
+        
+        private AsyncContext asyncContext;
+        
+        private ServletOutputStream output;
+        
+        /**
+         * 正在写出的帧及写出进度
+         */
+        private ScreenFrame current;
+        
+        private int stage;
+        
+        MjpegClient(int sourceId, Source source, Integer fps) {
+            MobileConfig.Mjpeg config = mobileConfig.getMjpeg();
+            this.sourceId = sourceId;
+            this.source = source;
+            // 回放的帧率由回放服务控制
+            this.fps = source == Source.REPLAY ? Math.max(1, mobileConfig.getReplay().getMaxFps())
+                    : Math.max(1, Math.min(config.getMaxFps(), fps != null ? fps : config.getDefaultFps()));
+            this.minInterval = TimeUnit.SECONDS.toNanos(1) / this.fps;
+            this.lastAccepted = System.nanoTime() - minInterval;
+        }
+        
+        int getFps() {
+            return fps;
+        }
+        
+        /**
+         * 写出响应头并切换为异步非阻塞输出
+         */
+        void start(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setContentType("multipart/x-mixed-replace; boundary=" + BOUNDARY);
+            response.setHeader("Cache-Control", "no-cache, no-store, private");
+            response.setHeader("Pragma", "no-cache");
+            
+            asyncContext = request.startAsync();
+            // 推流没有结束时间，连接断开时由写出失败或容器回调结束
+            asyncContext.setTimeout(0);
+            asyncContext.addListener(this);
+            synchronized (this) {
+                output = response.getOutputStream();
+                output.setWriteListener(this);
+            }
+        }
+        
+        /**
+         * 提交一帧（不接管帧的引用）
+         */
+        void offer(ScreenFrame frame) {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastAccepted < minInterval) {
+                framesSkipped.incrementAndGet();
+                return;
+            }
+            lastAccepted = now;
+            
+            ScreenFrame previous = pending.getAndSet(frame.retain());
+            if (previous != null) {
+                framesCoalesced.incrementAndGet();
+                previous.release();
+            }
+            if (closed) {
+                // 与关闭竞争时由提交线程释放刚放入的帧
+                ScreenFrame orphan = pending.getAndSet(null);
+                if (orphan != null) {
+                    orphan.release();
+                }
+                return;
+            }
+            writeFrames();
+        }
+        
+        @Override
+        public void onWritePossible() {
+            writeFrames();
+        }
+        
+        /**
+         * 在连接可写期间写出等待的帧
+         *
+         * <p>写出失败时在释放对象锁之后再关闭：关闭会向马赛克注销监听器，
+         * 持有对象锁时注销与合成线程推送画面的加锁顺序相反。</p>
+         */
+        private void writeFrames() {
+            boolean failed = false;
+            synchronized (this) {
+                if (closed || output == null) {
+                    return;
+                }
+                try {
+                    while (output.isReady()) {
+                        if (current == null) {
+                            current = pending.getAndSet(null);
+                            if (current == null) {
+                                return;
+                            }
+                            stage = 0;
+                        }
+                        switch (stage++) {
+                            case 0:
+                                output.write(createPartHeader(current));
+                                break;
+                            case 1:
+                                output.write(current.getBuffer().array(), current.getOffset(), current.getLength());
+                                break;
+                            case 2:
+                                output.write(CRLF);
+                                break;
+                            default:
+                                output.flush();
+                                framesSent.incrementAndGet();
+                                bytesSent.addAndGet(current.getLength());
+                                current.release();
+                                current = null;
+                        }
+                    }
+                } catch (IOException e) {
+                    log.debug("MJPEG客户端写出失败: {}", e.getMessage());
+                    failed = true;
+                }
+            }
+            if (failed) {
+                close();
+            }
+        }
+        
+        private byte[] createPartHeader(ScreenFrame frame) {
+            return ("--" + BOUNDARY + "\r\n"
+                    + "Content-Type: image/jpeg\r\n"
+                    + "Content-Length: " + frame.getLength() + "\r\n"
+                    + "X-Timestamp: " + frame.getTimestamp() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        
+        /**
+         * 结束连接并释放帧引用，只执行一次；不能在持有对象锁时调用
+         */
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (current != null) {
+                    current.release();
+                    current = null;
+                }
+            }
+            ScreenFrame frame = pending.getAndSet(null);
+            if (frame != null) {
+                frame.release();
+            }
+            unregister(this);
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // 容器已结束异步处理
+            }
+        }
+        
+        @Override
+        public void onError(Throwable t) {
+            log.debug("MJPEG连接异常: {}", t.getMessage());
+            close();
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+        
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
\ No newline at end of file
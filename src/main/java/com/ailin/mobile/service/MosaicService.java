@@ -0,0 +1,517 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.JpegCodec;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.MosaicLayout;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 马赛克合成服务
+ *
+ * <p>按布局把多台设备的最新帧缩放进网格，以固定帧率输出为一路JPEG，
+ * 大屏只需解码一路画面。每个格子记录已绘制帧的序号和时间戳，只重绘有新帧的格子，
+ * 没有格子变化时不输出新帧。</p>
+ *
+ * <p>马赛克只在有订阅者时合成，并把布局中的设备登记为观看者，按需捕获模式下这些设备才会连接。</p>
+ */
+@Slf4j
+@Service
+public class MosaicService {
+    
+    /**
+     * 无画面格子的背景色
+     */
+    private static final Color EMPTY_TILE = new Color(32, 32, 32);
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    /**
+     * 马赛克ID -> 马赛克
+     */
+    private final ConcurrentHashMap<Integer, Mosaic> mosaics = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    
+    /**
+     * 合成线程池
+     */
+    private ScheduledExecutorService composeExecutor;
+    
+    @PostConstruct
+    public void init() {
+        composeExecutor = Executors.newScheduledThreadPool(Math.max(1, mobileConfig.getMosaic().getThreads()),
+                new CustomizableThreadFactory("mosaic-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        composeExecutor.shutdownNow();
+        mosaics.values().forEach(Mosaic::stop);
+    }
+    
+    /**
+     * 创建马赛克，未指定的布局参数取配置默认值
+     *
+     * @throws IllegalArgumentException 布局参数无效
+     */
+    public MosaicLayout create(MosaicLayout request) {
+        MosaicLayout layout = normalize(request);
+        layout.setId(nextId.getAndIncrement());
+        mosaics.put(layout.getId(), new Mosaic(layout));
+        log.info("创建马赛克 {}: {}列, 格子 {}x{}, {}fps", layout.getId(), layout.getColumns(), layout.getTileWidth(),
+                layout.getTileHeight(), layout.getFps());
+        return layout;
+    }
+    
+    /**
+     * 更新马赛克布局，正在输出的马赛克按新布局重新合成
+     *
+     * @return 马赛克不存在时返回null
+     * @throws IllegalArgumentException 布局参数无效
+     */
+    public MosaicLayout update(int mosaicId, MosaicLayout request) {
+        Mosaic mosaic = mosaics.get(mosaicId);
+        if (mosaic == null) {
+            return null;
+        }
+        MosaicLayout layout = normalize(request);
+        layout.setId(mosaicId);
+        mosaic.changeLayout(layout);
+        return layout;
+    }
+    
+    /**
+     * 删除马赛克
+     */
+    public boolean delete(int mosaicId) {
+        Mosaic mosaic = mosaics.remove(mosaicId);
+        if (mosaic == null) {
+            return false;
+        }
+        mosaic.stop();
+        log.info("删除马赛克 {}", mosaicId);
+        return true;
+    }
+    
+    public MosaicLayout get(int mosaicId) {
+        Mosaic mosaic = mosaics.get(mosaicId);
+        return mosaic != null ? mosaic.layout : null;
+    }
+    
+    public List<MosaicLayout> getAll() {
+        List<MosaicLayout> layouts = new ArrayList<>();
+        for (Mosaic mosaic : mosaics.values()) {
+            layouts.add(mosaic.layout);
+        }
+        layouts.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return layouts;
+    }
+    
+    /**
+     * 订阅马赛克输出，第一个订阅者到达时开始合成
+     *
+     * <p>监听器在合成线程上调用，收到的帧只在回调期间有效，需要继续使用时调用 {@link ScreenFrame#retain()}。</p>
+     *
+     * @return 马赛克不存在时返回false
+     */
+    public boolean subscribe(int mosaicId, Consumer<ScreenFrame> listener) {
+        Mosaic mosaic = mosaics.get(mosaicId);
+        if (mosaic == null) {
+            return false;
+        }
+        mosaic.addListener(listener);
+        return true;
+    }
+    
+    /**
+     * 取消订阅，最后一个订阅者离开时停止合成
+     */
+    public void unsubscribe(int mosaicId, Consumer<ScreenFrame> listener) {
+        Mosaic mosaic = mosaics.get(mosaicId);
+        if (mosaic != null) {
+            mosaic.removeListener(listener);
+        }
+    }
+    
+    /**
+     * 获取马赛克最近输出的一帧，供新订阅者首屏显示；调用方负责 {@link ScreenFrame#release()}
+     *
+     * @return 尚未输出时返回null
+     */
+    public ScreenFrame getLatestFrame(int mosaicId) {
+        Mosaic mosaic = mosaics.get(mosaicId);
+        return mosaic != null ? mosaic.getLatestFrame() : null;
+    }
+    
+    /**
+     * 获取各马赛克的合成统计
+     */
+    public Map<Integer, Map<String, Object>> getStats() {
+        Map<Integer, Map<String, Object>> stats = new HashMap<>();
+        mosaics.forEach((mosaicId, mosaic) -> stats.put(mosaicId, mosaic.getStats()));
+        return stats;
+    }
+    
+    /**
+     * 补全默认值并校验布局
+     */
+    private MosaicLayout normalize(MosaicLayout request) {
+        MobileConfig.Mosaic defaults = mobileConfig.getMosaic();
+        MosaicLayout layout = new MosaicLayout();
+        layout.setName(request.getName());
+        layout.setColumns(request.getColumns() != null ? request.getColumns() : defaults.getColumns());
+        layout.setTileWidth(request.getTileWidth() != null ? request.getTileWidth() : defaults.getTileWidth());
+        layout.setTileHeight(request.getTileHeight() != null ? request.getTileHeight() : defaults.getTileHeight());
+        layout.setFps(request.getFps() != null ? request.getFps() : defaults.getFps());
+        if (request.getDeviceIds() != null) {
+            layout.setDeviceIds(new ArrayList<>(request.getDeviceIds()));
+        }
+        
+        if (layout.getColumns() < 1) {
+            throw new IllegalArgumentException("列数必须大于0");
+        }
+        if (layout.getTileWidth() < 16 || layout.getTileHeight() < 16
+                || layout.getTileWidth() > 1920 || layout.getTileHeight() > 1920) {
+            throw new IllegalArgumentException("格子尺寸必须在16到1920像素之间");
+        }
+        if (layout.getFps() < 1 || layout.getFps() > 30) {
+            throw new IllegalArgumentException("帧率必须在1到30之间");
+        }
+        if (layout.getDeviceIds().size() > defaults.getMaxTiles()) {
+            throw new IllegalArgumentException("设备数不能超过 " + defaults.getMaxTiles());
+        }
+        return layout;
+    }
+    
+    /**
+     * 单个马赛克的合成状态
+     */
+    private class Mosaic {
+        
+        private volatile MosaicLayout layout;
+        
+        /**
+         * 订阅者，推送时不持有对象锁遍历
+         */
+        private final Set<Consumer<ScreenFrame>> listeners = new CopyOnWriteArraySet<>();
+        
+        /**
+         * 合成任务，没有订阅者时为null
+         */
+        private ScheduledFuture<?> task;
+        
+        /**
+         * 已登记为观看者的设备
+         */
+        private Set<Integer> watchedDevices = new HashSet<>();
+        
+        private BufferedImage canvas;
+        
+        /**
+         * 每个格子当前的设备ID，0表示空格子
+         */
+        private int[] tileDevices;
+        
+        /**
+         * 每个格子已绘制帧的序号与时间戳，时间戳0表示已绘制为无画面，-1表示尚未绘制
+         */
+        private long[] tileSequences;
+        
+        private long[] tileTimestamps;
+        
+        /**
+         * 最近输出的帧（持有一次引用）
+         */
+        private ScreenFrame latestFrame;
+        
+        private long sequence;
+        
+        private long ticks;
+        
+        private long outputs;
+        
+        private long tilesRedrawn;
+        
+        private long composeNanos;
+        
+        Mosaic(MosaicLayout layout) {
+            this.layout = layout;
+        }
+        
+        synchronized void addListener(Consumer<ScreenFrame> listener) {
+            if (listeners.add(listener) && task == null) {
+                long period = 1000L / layout.getFps();
+                task = composeExecutor.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        synchronized void removeListener(Consumer<ScreenFrame> listener) {
+            if (listeners.remove(listener) && listeners.isEmpty()) {
+                stop();
+            }
+        }
+        
+        synchronized void changeLayout(MosaicLayout newLayout) {
+            boolean fpsChanged = !newLayout.getFps().equals(layout.getFps());
+            layout = newLayout;
+            // 尺寸变化时下一次合成重建画布
+            canvas = null;
+            if (task != null && fpsChanged) {
+                task.cancel(false);
+                long period = 1000L / newLayout.getFps();
+                task = composeExecutor.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        /**
+         * 停止合成，释放观看者登记和画布
+         */
+        synchronized void stop() {
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
+            updateViewers(new HashSet<>());
+            canvas = null;
+            if (latestFrame != null) {
+                latestFrame.release();
+                latestFrame = null;
+            }
+        }
+        
+        synchronized ScreenFrame getLatestFrame() {
+            return latestFrame != null ? latestFrame.retain() : null;
+        }
+        
+        /**
+         * 合成在对象锁内进行，推送在释放锁之后：订阅者可能在自己的锁内取消订阅，
+         * 持有对象锁回调订阅者会与取消订阅的加锁顺序相反
+         */
+        private void tick() {
+            ScreenFrame frame;
+            int mosaicId;
+            synchronized (this) {
+                if (task == null) {
+                    return;
+                }
+                mosaicId = layout.getId();
+                try {
+                    frame = compose();
+                } catch (Exception e) {
+                    log.error("马赛克 {} 合成失败", mosaicId, e);
+                    return;
+                }
+            }
+            if (frame == null) {
+                return;
+            }
+            try {
+                for (Consumer<ScreenFrame> listener : listeners) {
+                    try {
+                        listener.accept(frame);
+                    } catch (Exception e) {
+                        log.error("推送马赛克 {} 画面失败", mosaicId, e);
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+        
+        /**
+         * 合成一帧
+         *
+         * @return 画面有变化时返回新帧（持有一次引用，调用方负责释放），否则返回null
+         */
+        private ScreenFrame compose() throws IOException {
+            long start = System.nanoTime();
+            ticks++;
+            MosaicLayout current = layout;
+            List<Integer> devices = resolveDevices(current);
+            updateViewers(new HashSet<>(devices));
+            
+            int columns = current.getColumns();
+            int rows = Math.max(1, (devices.size() + columns - 1) / columns);
+            int tileWidth = current.getTileWidth();
+            int tileHeight = current.getTileHeight();
+            boolean changed = false;
+            if (canvas == null || canvas.getWidth() != columns * tileWidth
+                    || canvas.getHeight() != rows * tileHeight) {
+                canvas = new BufferedImage(columns * tileWidth, rows * tileHeight, BufferedImage.TYPE_INT_RGB);
+                tileDevices = new int[columns * rows];
+                tileSequences = new long[columns * rows];
+                tileTimestamps = new long[columns * rows];
+                Arrays.fill(tileTimestamps, -1);
+                changed = true;
+            }
+            
+            Graphics2D graphics = canvas.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                for (int i = 0; i < tileDevices.length; i++) {
+                    int deviceId = i < devices.size() ? devices.get(i) : 0;
+                    if (deviceId != tileDevices[i]) {
+                        tileDevices[i] = deviceId;
+                        tileTimestamps[i] = -1;
+                    }
+                    int x = i % columns * tileWidth;
+                    int y = i / columns * tileHeight;
+                    changed |= drawTile(graphics, i, deviceId, x, y, tileWidth, tileHeight);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            
+            if (changed) {
+                byte[] jpeg = JpegCodec.encode(canvas, mobileConfig.getMosaic().getQuality());
+                ScreenFrame frame = ScreenFrame.wrap(current.getId(), ++sequence, System.currentTimeMillis(), jpeg);
+                if (latestFrame != null) {
+                    latestFrame.release();
+                }
+                latestFrame = frame;
+                outputs++;
+                composeNanos += System.nanoTime() - start;
+                return frame.retain();
+            }
+            composeNanos += System.nanoTime() - start;
+            return null;
+        }
+        
+        /**
+         * 格子的设备有新帧时重绘
+         *
+         * @return 是否重绘
+         */
+        private boolean drawTile(Graphics2D graphics, int index, int deviceId, int x, int y, int width, int height) {
+            ScreenFrame frame = deviceId > 0 ? lastFrameCache.get(deviceId) : null;
+            try {
+                if (frame == null) {
+                    if (tileTimestamps[index] == 0) {
+                        return false;
+                    }
+                    fillTile(graphics, index, x, y, width, height);
+                    return true;
+                }
+                if (frame.getSequence() == tileSequences[index] && frame.getTimestamp() == tileTimestamps[index]) {
+                    return false;
+                }
+                
+                tileSequences[index] = frame.getSequence();
+                tileTimestamps[index] = frame.getTimestamp();
+                try {
+                    BufferedImage image = JpegCodec.decode(frame, Math.max(width, height));
+                    // 保持宽高比居中缩放，空白处填黑
+                    double scale = Math.min((double) width / image.getWidth(), (double) height / image.getHeight());
+                    int drawWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                    int drawHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+                    graphics.setColor(Color.BLACK);
+                    graphics.fillRect(x, y, width, height);
+                    graphics.drawImage(image, x + (width - drawWidth) / 2, y + (height - drawHeight) / 2,
+                            drawWidth, drawHeight, null);
+                } catch (IOException e) {
+                    log.debug("马赛克绘制设备 {} 画面失败: {}", deviceId, e.getMessage());
+                    graphics.setColor(EMPTY_TILE);
+                    graphics.fillRect(x, y, width, height);
+                }
+                tilesRedrawn++;
+                return true;
+            } finally {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+        
+        private void fillTile(Graphics2D graphics, int index, int x, int y, int width, int height) {
+            graphics.setColor(EMPTY_TILE);
+            graphics.fillRect(x, y, width, height);
+            tileSequences[index] = 0;
+            tileTimestamps[index] = 0;
+        }
+        
+        /**
+         * 布局中的设备，未指定时为所有设备
+         */
+        private List<Integer> resolveDevices(MosaicLayout current) {
+            if (!current.getDeviceIds().isEmpty()) {
+                return current.getDeviceIds();
+            }
+            List<Integer> devices = new ArrayList<>();
+            int maxTiles = mobileConfig.getMosaic().getMaxTiles();
+            for (DeviceInfo device : deviceRegistry.getAll()) {
+                if (devices.size() >= maxTiles) {
+                    break;
+                }
+                devices.add(device.getId());
+            }
+            return devices;
+        }
+        
+        /**
+         * 同步观看者登记，使布局中的设备保持捕获
+         */
+        private void updateViewers(Set<Integer> devices) {
+            for (Integer deviceId : watchedDevices) {
+                if (!devices.contains(deviceId)) {
+                    viewerRegistry.removeViewer(deviceId);
+                }
+            }
+            for (Integer deviceId : devices) {
+                if (!watchedDevices.contains(deviceId)) {
+                    viewerRegistry.addViewer(deviceId);
+                }
+            }
+            watchedDevices = devices;
+        }
+        
+        synchronized Map<String, Object> getStats() {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("listeners", listeners.size());
+            stats.put("running", task != null);
+            stats.put("ticks", ticks);
+            stats.put("outputs", outputs);
+            stats.put("tilesRedrawn", tilesRedrawn);
+            stats.put("avgComposeMicros", ticks > 0 ? composeNanos / ticks / 1000 : 0);
+            return stats;
+        }
+    }
+}
\ No newline at end of file
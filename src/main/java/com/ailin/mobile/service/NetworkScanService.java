@@ -1,7 +1,11 @@
 package com.ailin.mobile.service;
 
 import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.discovery.ConnectProber;
+import com.ailin.mobile.discovery.ScanListener;
+import com.ailin.mobile.discovery.ScanTask;
 import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.DeviceListDelta;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
@@ -12,14 +16,25 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * 网络扫描服务
@@ -34,20 +49,52 @@ public class NetworkScanService {
     @Autowired
     private ScreenCaptureService screenCaptureService;
     
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private RecordingService recordingService;
+    
+    @Autowired
+    private LivenessMonitor livenessMonitor;
+    
+    @Autowired
+    private List<ScanListener> scanListeners;
+    
+    /**
+     * 已结束扫描的保留时间，供迟到的订阅方获取结果
+     */
+    private static final long SCAN_RETENTION = TimeUnit.MINUTES.toMillis(10);
+    
     /**
      * HTTP客户端
      */
     private final RestTemplate restTemplate;
     
     /**
-     * 设备列表（按ID排序）
+     * TCP连接探测器
+     */
+    private ConnectProber connectProber;
+    
+    /**
+     * HTTP检测线程池，只处理端口可连接的地址
      */
-    private final ConcurrentHashMap<Integer, DeviceInfo> deviceMap = new ConcurrentHashMap<>();
+    private ExecutorService verifyExecutor;
     
     /**
-     * 下一个可用的设备ID
+     * 扫描任务：扫描ID -> 任务
      */
-    private final AtomicInteger nextDeviceId = new AtomicInteger(1);
+    private final ConcurrentHashMap<String, ScanTask> scans = new ConcurrentHashMap<>();
+    
+    private final AtomicLong scanSequence = new AtomicLong();
+    
+    /**
+     * 用户移除的设备地址，后台发现不再探测，直到手动扫描覆盖该地址
+     */
+    private final Set<String> removedAddresses = ConcurrentHashMap.newKeySet();
     
     /**
      * 构造函数
@@ -61,83 +108,191 @@ public class NetworkScanService {
         this.restTemplate.setRequestFactory(factory);
     }
     
+    /**
+     * 创建探测器与HTTP检测线程池
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        MobileConfig.Network network = mobileConfig.getNetwork();
+        connectProber = new ConnectProber(network.getMaxInFlightProbes(), network.getConnectTimeout());
+        
+        AtomicInteger threadIndex = new AtomicInteger();
+        verifyExecutor = Executors.newFixedThreadPool(Math.max(1, network.getVerifyThreads()), r -> {
+            Thread thread = new Thread(r, "discovery-verify-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        connectProber.shutdown();
+        verifyExecutor.shutdownNow();
+    }
+    
     /**
      * 扫描局域网设备（全量扫描）
      */
-    @Async
     public CompletableFuture<List<DeviceInfo>> scanNetwork() {
+        return startNetworkScan().getFuture();
+    }
+    
+    /**
+     * 按配置的网段开始全量扫描，立即返回扫描任务
+     */
+    public ScanTask startNetworkScan() {
         log.info("开始全量扫描局域网设备...");
         
         String baseIp = mobileConfig.getNetwork().getBaseIp();
         int startRange = mobileConfig.getNetwork().getStartRange();
         int endRange = mobileConfig.getNetwork().getEndRange();
-        int batchSize = mobileConfig.getNetwork().getBatchSize();
-        
-        List<DeviceInfo> allDevices = new ArrayList<>();
-        
-        // 分批扫描
-        for (int start = startRange; start <= endRange; start += batchSize) {
-            int end = Math.min(start + batchSize - 1, endRange);
-            
-            log.debug("扫描批次: {}.{} ~ {}.{}", baseIp, start, baseIp, end);
-            
-            List<DeviceInfo> batchDevices = scanBatch(baseIp, start, end).join();
-            allDevices.addAll(batchDevices);
-            
-            // 批次间稍作延时，避免网络压力过大
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
         
-        log.info("全量扫描完成，发现 {} 个在线设备", allDevices.size());
-        return CompletableFuture.completedFuture(allDevices);
+        return startScan(baseIp, startRange, endRange);
     }
     
     /**
-     * 分批扫描指定IP范围
+     * 扫描指定IP范围
      */
-    @Async
     public CompletableFuture<List<DeviceInfo>> scanBatch(String baseIp, int startRange, int endRange) {
-        log.debug("开始分批扫描: {}.{} ~ {}.{}", baseIp, startRange, baseIp, endRange);
-        
-        List<CompletableFuture<DeviceInfo>> futures = new ArrayList<>();
-        
-        // 扫描IP范围，使用HTTP检测
+        return startScan(baseIp, startRange, endRange).getFuture();
+    }
+    
+    /**
+     * 开始扫描指定IP范围，立即返回扫描任务
+     *
+     * <p>整个范围同时发起TCP连接探测（受在途上限约束），端口可连接的地址再交给HTTP检测线程池确认，
+     * 无响应的地址在一个连接超时周期内一起结束。每发现一个设备立即通知 {@link ScanListener}。</p>
+     */
+    public ScanTask startScan(String baseIp, int startRange, int endRange) {
+        int detectPort = mobileConfig.getNetwork().getDetectPort();
+        List<InetSocketAddress> targets = new ArrayList<>();
         for (int i = startRange; i <= endRange; i++) {
             String ip = baseIp + "." + i;
-            futures.add(checkDeviceByHttp(ip));
+            // 手动扫描重新允许发现之前移除的设备
+            removedAddresses.remove(ip);
+            targets.add(new InetSocketAddress(ip, detectPort));
         }
         
-        // 等待所有扫描完成
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .join();
+        pruneScans();
+        ScanTask task = new ScanTask(String.valueOf(scanSequence.incrementAndGet()),
+                baseIp + "." + startRange + "-" + endRange, targets.size());
+        scans.put(task.getScanId(), task);
+        log.debug("开始扫描 {}: {}", task.getScanId(), task.getRange());
         
-        // 收集结果
-        List<DeviceInfo> activeDevices = new ArrayList<>();
-        for (CompletableFuture<DeviceInfo> future : futures) {
+        // 探测回调在探测线程上执行，HTTP检测提交到独立线程池
+        List<CompletableFuture<Void>> checks = Collections.synchronizedList(new ArrayList<>());
+        connectProber.probe(targets,
+                        target -> checks.add(CompletableFuture.runAsync(
+                                () -> verifyDevice(task, target.getHostString()), verifyExecutor)),
+                        () -> {
+                            if (task.markProbed()) {
+                                notifyScanListeners(listener -> listener.onScanProgress(task));
+                            }
+                        })
+                .thenCompose(done -> allOf(checks))
+                .whenComplete((done, error) -> {
+                    if (error != null) {
+                        log.error("扫描 {} 异常", task.getScanId(), error);
+                    }
+                    task.complete();
+                    log.info("扫描 {} 完成: {}，发现 {} 个在线设备，耗时 {}ms", task.getScanId(), task.getRange(),
+                            task.getDevices().size(), task.getEndTime() - task.getStartTime());
+                    notifyScanListeners(listener -> listener.onScanCompleted(task));
+                });
+        
+        return task;
+    }
+    
+    /**
+     * 探测一组地址并HTTP确认，发现的设备同样注册并开始捕获，但不创建扫描任务、不通知扫描监听器（后台发现使用）
+     *
+     * <p>用户移除过设备的地址不探测，见 {@link #isRemovedAddress(String)}。</p>
+     *
+     * @return 所有地址探测和确认结束后完成，结果为确认是投屏设备的地址
+     */
+    public CompletableFuture<Set<String>> probeAddresses(List<String> ips) {
+        int detectPort = mobileConfig.getNetwork().getDetectPort();
+        List<InetSocketAddress> targets = new ArrayList<>(ips.size());
+        for (String ip : ips) {
+            if (!removedAddresses.contains(ip)) {
+                targets.add(new InetSocketAddress(ip, detectPort));
+            }
+        }
+        
+        Set<String> found = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Void>> checks = Collections.synchronizedList(new ArrayList<>());
+        return connectProber.probe(targets,
+                        target -> checks.add(CompletableFuture.runAsync(() -> {
+                            // 探测期间被移除的设备不再注册
+                            if (!removedAddresses.contains(target.getHostString())
+                                    && checkDeviceByHttp(target.getHostString()) != null) {
+                                found.add(target.getHostString());
+                            }
+                        }, verifyExecutor)),
+                        () -> {
+                        })
+                .thenCompose(done -> allOf(checks))
+                .thenApply(done -> found);
+    }
+    
+    /**
+     * 地址上的设备是否被用户移除且之后没有手动扫描过，这样的地址不做后台发现
+     */
+    public boolean isRemovedAddress(String ip) {
+        return removedAddresses.contains(ip);
+    }
+    
+    /**
+     * 获取扫描任务
+     */
+    public ScanTask getScan(String scanId) {
+        return scans.get(scanId);
+    }
+    
+    /**
+     * 探测结束后等待已提交的HTTP检测全部完成，检测列表由探测回调并发追加
+     */
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> checks) {
+        synchronized (checks) {
+            return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0]));
+        }
+    }
+    
+    /**
+     * 清理过期的已结束扫描
+     */
+    private void pruneScans() {
+        long expireBefore = System.currentTimeMillis() - SCAN_RETENTION;
+        scans.values().removeIf(task -> task.isCompleted() && task.getEndTime() < expireBefore);
+    }
+    
+    /**
+     * HTTP确认设备并通知监听器
+     */
+    private void verifyDevice(ScanTask task, String ip) {
+        DeviceInfo device = checkDeviceByHttp(ip);
+        if (device != null) {
+            task.addDevice(device);
+            notifyScanListeners(listener -> listener.onDeviceFound(task, device));
+        }
+    }
+    
+    private void notifyScanListeners(Consumer<ScanListener> action) {
+        for (ScanListener listener : scanListeners) {
             try {
-                DeviceInfo device = future.get();
-                if (device != null && device.isConnected()) {
-                    activeDevices.add(device);
-                }
+                action.accept(listener);
             } catch (Exception e) {
-                log.debug("获取扫描结果失败: {}", e.getMessage());
+                log.error("通知扫描事件失败: listener={}", listener.getClass().getSimpleName(), e);
             }
         }
-        
-        log.debug("分批扫描完成，发现 {} 个在线设备", activeDevices.size());
-        return CompletableFuture.completedFuture(activeDevices);
     }
     
     /**
-     * 通过HTTP检查设备（快速检测）
+     * 通过HTTP检查设备（快速检测），在HTTP检测线程池上执行
+     *
+     * @return 不是投屏设备时返回null
      */
-    @Async
-    public CompletableFuture<DeviceInfo> checkDeviceByHttp(String ip) {
+    private DeviceInfo checkDeviceByHttp(String ip) {
         int detectPort = mobileConfig.getNetwork().getDetectPort();
         int streamPort = mobileConfig.getNetwork().getStreamPort();
         
@@ -155,7 +310,7 @@ public class NetworkScanService {
                 log.info("设备 {} 在线，屏幕尺寸: {}", ip, screenSize);
                 
                 // 设备响应正常，分配设备ID
-                int deviceId = getOrCreateDeviceId(ip, streamPort);
+                int deviceId = deviceRegistry.getOrCreateId(ip, streamPort);
                 DeviceInfo device = new DeviceInfo(deviceId, ip, streamPort);
                 device.setConnected(true);
                 device.setStatus("online");
@@ -174,14 +329,15 @@ public class NetworkScanService {
                 } catch (Exception ignore) {}
                 
                 // 更新设备映射
-                deviceMap.put(deviceId, device);
+                deviceRegistry.register(device);
+                livenessMonitor.watch(device);
                 
                 log.info("添加在线设备: {} (ID: {}, 屏幕: {})", ip, deviceId, screenSize);
                 
                 // 启动屏幕捕获
                 screenCaptureService.startCapture(device);
                 
-                return CompletableFuture.completedFuture(device);
+                return device;
             }
             
         } catch (ResourceAccessException e) {
@@ -190,7 +346,7 @@ public class NetworkScanService {
             log.debug("设备 {} HTTP检测失败: {}", ip, e.getMessage());
         }
         
-        return CompletableFuture.completedFuture(null);
+        return null;
     }
     
     /**
@@ -203,14 +359,15 @@ public class NetworkScanService {
                           mobileConfig.getNetwork().getConnectTimeout());
             
             // 设备可连接，分配设备ID
-            int deviceId = getOrCreateDeviceId(ip, port);
+            int deviceId = deviceRegistry.getOrCreateId(ip, port);
             DeviceInfo device = new DeviceInfo(deviceId, ip, port);
             device.setConnected(true);
             device.setStatus("online");
             device.setLastUpdate(System.currentTimeMillis());
             
             // 更新设备映射
-            deviceMap.put(deviceId, device);
+            deviceRegistry.register(device);
+            livenessMonitor.watch(device);
             
             log.debug("发现在线设备: {}:{} (ID: {})", ip, port, deviceId);
             
@@ -229,51 +386,81 @@ public class NetworkScanService {
     }
     
     /**
-     * 获取或创建设备ID
+     * 获取所有设备列表（按ID排序）
      */
-    private synchronized int getOrCreateDeviceId(String ip, int port) {
-        // 检查是否已存在相同IP的设备
-        for (DeviceInfo device : deviceMap.values()) {
-            if (device.getIp().equals(ip) && device.getPort() == port) {
-                return device.getId();
-            }
+    public List<DeviceInfo> getAllDevices() {
+        return deviceRegistry.getAll();
+    }
+    
+    /**
+     * 获取设备总数
+     */
+    public int getDeviceCount() {
+        return deviceRegistry.size();
+    }
+    
+    /**
+     * 获取在线设备数
+     */
+    public int getOnlineDeviceCount() {
+        return deviceRegistry.countByStatus("online");
+    }
+    
+    /**
+     * 按状态和网段查询设备（按ID排序），参数为空时不作为条件
+     */
+    public List<DeviceInfo> findDevices(String status, String subnet) {
+        if (status == null && subnet == null) {
+            return deviceRegistry.getAll();
         }
-        
-        // 创建新的设备ID
-        // 分配最小可用的正整数ID，在合理范围内查找
-        for (int i = 1; i <= 10000; i++) {  // 限制在10000以内查找
-            if (!deviceMap.containsKey(i)) {
-                return i;
-            }
+        if (subnet == null) {
+            return deviceRegistry.getByStatus(status);
         }
-        
-        // 如果在合理范围内没有可用ID，返回下一个ID
-        return nextDeviceId.getAndIncrement();
+        List<DeviceInfo> devices = deviceRegistry.getBySubnet(subnet);
+        if (status == null) {
+            return devices;
+        }
+        return devices.stream()
+                .filter(device -> status.equals(device.getStatus()))
+                .collect(Collectors.toList());
     }
     
     /**
-     * 获取所有设备列表
+     * 获取设备列表版本
      */
-    public List<DeviceInfo> getAllDevices() {
-        return new ArrayList<>(deviceMap.values());
+    public long getDeviceListVersion() {
+        return deviceRegistry.getVersion();
+    }
+    
+    /**
+     * 获取自给定版本以来的设备列表增量
+     */
+    public DeviceListDelta getDeviceChanges(long sinceVersion) {
+        return deviceRegistry.getChangesSince(sinceVersion);
     }
     
     /**
      * 获取指定设备
      */
     public DeviceInfo getDevice(int deviceId) {
-        return deviceMap.get(deviceId);
+        return deviceRegistry.get(deviceId);
     }
     
     /**
      * 移除设备
      */
     public void removeDevice(int deviceId) {
-        DeviceInfo device = deviceMap.remove(deviceId);
+        DeviceInfo device = deviceRegistry.remove(deviceId);
         if (device != null) {
             log.info("移除设备: {}:{} (ID: {})", device.getIp(), device.getPort(), deviceId);
-            // 停止屏幕捕获
+            // 后台发现不能把刚移除的设备重新加回来
+            removedAddresses.add(device.getIp());
+            // 停止录制、存活监测和屏幕捕获
+            livenessMonitor.unwatch(deviceId);
+            recordingService.stopRecording(deviceId);
             screenCaptureService.stopCapture(deviceId);
+            // 设备ID会被复用，不能留下旧设备的画面
+            lastFrameCache.evict(deviceId);
         }
     }
     
@@ -0,0 +1,427 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.RecordingSegment;
+import com.ailin.mobile.model.ScreenFrame;
+import com.ailin.mobile.recording.SegmentFormat;
+import com.ailin.mobile.recording.SegmentWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画面录制
+ *
+ * <p>把选中设备的帧按设备追加写入滚动的分段文件（格式见 {@link SegmentFormat}），分段按大小或时长切换，
+ * 按总大小和保留时长删除最早的分段。</p>
+ *
+ * <p>帧由 {@link FrameDispatcher} 在限流、去重和合并之前交给录制，录制的设备按捕获到的帧率完整写入，
+ * 不受观看者窗口的帧率控制影响。</p>
+ *
+ * <p>捕获线程只把帧放入内存队列，由单个录制线程顺序写盘；队列按字节数限制，磁盘跟不上时丢弃新帧，
+ * 不会阻塞或拖慢实时捕获。分段的打开、切换、删除都只在录制线程上进行。</p>
+ */
+@Slf4j
+@Service
+public class RecordingService {
+    
+    /**
+     * 录制线程的维护间隔（毫秒）：关闭停止录制的分段、按时长切换分段
+     */
+    private static final long MAINTAIN_INTERVAL = 1000;
+    
+    /**
+     * 保留策略的检查间隔（毫秒）
+     */
+    private static final long RETENTION_INTERVAL = 30000;
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    /**
+     * 正在录制的设备ID
+     */
+    private final Set<Integer> recordingDevices = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 等待写盘的帧（已持有引用）
+     */
+    private final LinkedBlockingQueue<ScreenFrame> queue = new LinkedBlockingQueue<>();
+    
+    private final AtomicLong queuedBytes = new AtomicLong();
+    
+    /**
+     * 设备ID -> 已完成的分段，按时间顺序
+     */
+    private final ConcurrentHashMap<Integer, List<RecordingSegment>> segments = new ConcurrentHashMap<>();
+    
+    /**
+     * 设备ID -> 正在写入的分段（仅录制线程访问）
+     */
+    private final Map<Integer, SegmentWriter> writers = new HashMap<>();
+    
+    private final AtomicLong framesWritten = new AtomicLong();
+    
+    private final AtomicLong bytesWritten = new AtomicLong();
+    
+    /**
+     * 队列已满而丢弃的帧数
+     */
+    private final AtomicLong framesDropped = new AtomicLong();
+    
+    private final AtomicLong segmentsDeleted = new AtomicLong();
+    
+    private final AtomicLong writeErrors = new AtomicLong();
+    
+    private Path directory;
+    
+    private ExecutorService recorderExecutor;
+    
+    private volatile boolean running;
+    
+    /**
+     * 有分段完成，需要尽快检查保留策略（仅录制线程访问）
+     */
+    private boolean retentionDue;
+    
+    @PostConstruct
+    public void init() {
+        MobileConfig.Recording config = mobileConfig.getRecording();
+        if (!config.isEnabled()) {
+            return;
+        }
+        directory = Paths.get(config.getDirectory()).toAbsolutePath();
+        loadSegments();
+        
+        running = true;
+        recorderExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("recorder-"));
+        recorderExecutor.execute(this::runRecorder);
+        log.info("录制目录: {}, 已有分段 {} 个", directory, segments.values().stream().mapToInt(List::size).sum());
+    }
+    
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (recorderExecutor == null) {
+            return;
+        }
+        running = false;
+        recorderExecutor.shutdown();
+        if (!recorderExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+            recorderExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * 录制功能是否开启
+     */
+    public boolean isEnabled() {
+        return recorderExecutor != null;
+    }
+    
+    /**
+     * 开始录制设备，录制期间设备按有人观看保持捕获
+     *
+     * @return 已在录制时返回false
+     */
+    public boolean startRecording(int deviceId) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("录制功能未开启");
+        }
+        if (!recordingDevices.add(deviceId)) {
+            return false;
+        }
+        viewerRegistry.addViewer(deviceId);
+        log.info("开始录制设备 {}", deviceId);
+        return true;
+    }
+    
+    /**
+     * 停止录制设备，正在写入的分段由录制线程在下次维护时完成
+     *
+     * @return 未在录制时返回false
+     */
+    public boolean stopRecording(int deviceId) {
+        if (!recordingDevices.remove(deviceId)) {
+            return false;
+        }
+        viewerRegistry.removeViewer(deviceId);
+        log.info("停止录制设备 {}", deviceId);
+        return true;
+    }
+    
+    public boolean isRecording(int deviceId) {
+        return recordingDevices.contains(deviceId);
+    }
+    
+    /**
+     * 录制新解析出的帧（捕获线程调用，不接管帧的引用）
+     */
+    public void record(ScreenFrame frame) {
+        if (frame.getLength() == 0 || !recordingDevices.contains(frame.getDeviceId())) {
+            return;
+        }
+        // 捕获线程上只做入队，磁盘慢时丢弃而不是等待
+        if (queuedBytes.addAndGet(frame.getLength()) > mobileConfig.getRecording().getQueueMaxBytes()) {
+            queuedBytes.addAndGet(-frame.getLength());
+            framesDropped.incrementAndGet();
+            return;
+        }
+        queue.add(frame.retain());
+    }
+    
+    /**
+     * 获取设备已完成的分段
+     */
+    public List<RecordingSegment> getSegments(int deviceId) {
+        List<RecordingSegment> deviceSegments = segments.get(deviceId);
+        return deviceSegments != null ? new ArrayList<>(deviceSegments) : new ArrayList<>();
+    }
+    
+    /**
+     * 获取分段文件路径
+     */
+    public Path getSegmentPath(RecordingSegment segment) {
+        return directory.resolve(String.valueOf(segment.getDeviceId())).resolve(segment.getFileName());
+    }
+    
+    /**
+     * 获取录制统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", isEnabled());
+        result.put("recordingDevices", new ArrayList<>(recordingDevices));
+        result.put("queuedBytes", queuedBytes.get());
+        result.put("framesWritten", framesWritten.get());
+        result.put("bytesWritten", bytesWritten.get());
+        result.put("framesDropped", framesDropped.get());
+        result.put("segmentsDeleted", segmentsDeleted.get());
+        result.put("writeErrors", writeErrors.get());
+        long diskBytes = 0;
+        int segmentCount = 0;
+        for (List<RecordingSegment> deviceSegments : segments.values()) {
+            for (RecordingSegment segment : deviceSegments) {
+                diskBytes += segment.getSize();
+                segmentCount++;
+            }
+        }
+        result.put("segments", segmentCount);
+        result.put("diskBytes", diskBytes);
+        return result;
+    }
+    
+    /**
+     * 录制线程：写盘、切换分段、执行保留策略
+     */
+    private void runRecorder() {
+        long lastMaintain = System.currentTimeMillis();
+        long lastRetention = 0;
+        try {
+            while (running || !queue.isEmpty()) {
+                ScreenFrame frame = queue.poll(MAINTAIN_INTERVAL, TimeUnit.MILLISECONDS);
+                if (frame != null) {
+                    queuedBytes.addAndGet(-frame.getLength());
+                    try {
+                        write(frame);
+                    } finally {
+                        frame.release();
+                    }
+                }
+                
+                long now = System.currentTimeMillis();
+                if (now - lastMaintain >= MAINTAIN_INTERVAL) {
+                    lastMaintain = now;
+                    maintain(now);
+                }
+                if (retentionDue || now - lastRetention >= RETENTION_INTERVAL) {
+                    retentionDue = false;
+                    lastRetention = now;
+                    enforceRetention(now);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Integer deviceId : new ArrayList<>(writers.keySet())) {
+                finishSegment(deviceId);
+            }
+            ScreenFrame frame;
+            while ((frame = queue.poll()) != null) {
+                frame.release();
+            }
+        }
+    }
+    
+    private void write(ScreenFrame frame) {
+        int deviceId = frame.getDeviceId();
+        MobileConfig.Recording config = mobileConfig.getRecording();
+        SegmentWriter writer = writers.get(deviceId);
+        long recordSize = frame.getLength() + SegmentFormat.RECORD_HEADER_SIZE + SegmentFormat.INDEX_ENTRY_SIZE;
+        // 分段偏移用int记录，单个分段不超过2GB
+        long maxBytes = Math.min(config.getSegmentMaxBytes(), Integer.MAX_VALUE);
+        if (writer != null && writer.getSize() + recordSize > maxBytes) {
+            finishSegment(deviceId);
+            writer = null;
+        }
+        
+        try {
+            if (writer == null) {
+                writer = SegmentWriter.create(directory.resolve(String.valueOf(deviceId)), deviceId,
+                        frame.getTimestamp());
+                writers.put(deviceId, writer);
+            }
+            writer.append(frame);
+            framesWritten.incrementAndGet();
+            bytesWritten.addAndGet(frame.getLength());
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            log.error("写入录制分段失败: deviceId={}", deviceId, e);
+            if (writer != null) {
+                writers.remove(deviceId);
+                try {
+                    writer.close();
+                } catch (IOException closeError) {
+                    log.debug("关闭录制分段失败: {}", closeError.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 完成停止录制设备的分段，按时长切换分段
+     */
+    private void maintain(long now) {
+        long maxDuration = mobileConfig.getRecording().getSegmentMaxDuration();
+        for (Integer deviceId : new ArrayList<>(writers.keySet())) {
+            if (!recordingDevices.contains(deviceId) || now - writers.get(deviceId).getCreatedAt() >= maxDuration) {
+                finishSegment(deviceId);
+            }
+        }
+    }
+    
+    private void finishSegment(int deviceId) {
+        SegmentWriter writer = writers.remove(deviceId);
+        if (writer == null) {
+            return;
+        }
+        try {
+            RecordingSegment segment = writer.finish();
+            segments.computeIfAbsent(deviceId, id -> new CopyOnWriteArrayList<>()).add(segment);
+            retentionDue = true;
+            log.debug("录制分段完成: {}, {}帧, {}字节", writer.getPath(), segment.getFrameCount(), segment.getSize());
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            log.error("完成录制分段失败: {}", writer.getPath(), e);
+        }
+    }
+    
+    /**
+     * 删除超过保留时长的分段，总大小超限时从最早的分段开始删除
+     */
+    private void enforceRetention(long now) {
+        MobileConfig.Recording config = mobileConfig.getRecording();
+        List<RecordingSegment> all = new ArrayList<>();
+        segments.values().forEach(all::addAll);
+        all.sort(Comparator.comparingLong(RecordingSegment::getEndTimestamp));
+        
+        long totalBytes = all.stream().mapToLong(RecordingSegment::getSize).sum();
+        for (SegmentWriter writer : writers.values()) {
+            totalBytes += writer.getSize();
+        }
+        
+        Iterator<RecordingSegment> iterator = all.iterator();
+        while (iterator.hasNext()) {
+            RecordingSegment segment = iterator.next();
+            boolean expired = now - segment.getEndTimestamp() > config.getRetentionMaxAge();
+            if (!expired && totalBytes <= config.getRetentionMaxBytes()) {
+                break;
+            }
+            if (deleteSegment(segment)) {
+                totalBytes -= segment.getSize();
+            }
+        }
+    }
+    
+    private boolean deleteSegment(RecordingSegment segment) {
+        try {
+            Files.deleteIfExists(getSegmentPath(segment));
+            segments.computeIfPresent(segment.getDeviceId(), (id, list) -> {
+                list.remove(segment);
+                return list.isEmpty() ? null : list;
+            });
+            segmentsDeleted.incrementAndGet();
+            log.debug("删除录制分段: 设备 {}, {}", segment.getDeviceId(), segment.getFileName());
+            return true;
+        } catch (IOException e) {
+            log.warn("删除录制分段失败: {}", getSegmentPath(segment), e);
+            return false;
+        }
+    }
+    
+    /**
+     * 启动时加载已有分段，修复上次未正常完成的分段
+     */
+    private void loadSegments() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> deviceDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path deviceDirectory : deviceDirectories) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(deviceDirectory,
+                        "*" + SegmentFormat.EXTENSION)) {
+                    for (Path file : files) {
+                        loadSegment(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("加载录制分段失败: {}", directory, e);
+        }
+        // 同一毫秒开始的分段按结束时间排列
+        segments.values().forEach(list -> list.sort(Comparator.comparingLong(RecordingSegment::getStartTimestamp)
+                .thenComparingLong(RecordingSegment::getEndTimestamp)));
+    }
+    
+    private void loadSegment(Path file) {
+        try {
+            RecordingSegment segment = SegmentFormat.readInfo(file);
+            if (segment == null && SegmentFormat.repair(file)) {
+                log.info("修复未完成的录制分段: {}", file);
+                segment = SegmentFormat.readInfo(file);
+            }
+            if (segment == null) {
+                log.warn("忽略无效的录制分段: {}", file);
+                return;
+            }
+            segments.computeIfAbsent(segment.getDeviceId(), id -> new CopyOnWriteArrayList<>()).add(segment);
+        } catch (IOException e) {
+            log.warn("读取录制分段失败: {}", file, e);
+        }
+    }
+}
\ No newline at end of file
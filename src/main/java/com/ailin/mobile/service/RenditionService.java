@@ -0,0 +1,298 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.JpegCodec;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 多分辨率转码
+ *
+ * <p>网格中的小窗口不需要手机原始分辨率的画面：按配置的长边尺寸档位把帧缩小重新编码。
+ * 只有会话实际选择了某档尺寸才会为该设备转码，每个设备的每档尺寸同时最多一个转码任务，
+ * 转码期间到达的新帧只保留最新一帧，转码线程数固定。</p>
+ */
+@Slf4j
+@Service
+public class RenditionService {
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    /**
+     * 转码槽位：设备ID与尺寸组合 -> 槽位
+     */
+    private final ConcurrentHashMap<Long, RenditionSlot> slots = new ConcurrentHashMap<>();
+    
+    /**
+     * 尺寸 -> 转码统计
+     */
+    private final ConcurrentHashMap<Integer, RenditionStats> stats = new ConcurrentHashMap<>();
+    
+    /**
+     * 从小到大排列的尺寸档位
+     */
+    private TreeSet<Integer> ladder;
+    
+    /**
+     * 转码线程池
+     */
+    private ExecutorService transcodeExecutor;
+    
+    @PostConstruct
+    public void init() {
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        ladder = new TreeSet<>();
+        for (Integer size : capture.getRenditions()) {
+            if (size != null && size > 0) {
+                ladder.add(size);
+            }
+        }
+        transcodeExecutor = Executors.newFixedThreadPool(Math.max(1, capture.getTranscodeThreads()),
+                new CustomizableThreadFactory("rendition-"));
+        if (!ladder.isEmpty()) {
+            log.info("画面尺寸档位: {}", ladder);
+        }
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        transcodeExecutor.shutdownNow();
+    }
+    
+    /**
+     * 是否配置了尺寸档位
+     */
+    public boolean isEnabled() {
+        return !ladder.isEmpty();
+    }
+    
+    /**
+     * 为显示尺寸选择档位：不小于显示尺寸的最小档位，没有时返回0（原始分辨率）
+     *
+     * @param displaySize 窗口长边的像素数
+     */
+    public int select(int displaySize) {
+        Integer size = ladder.ceiling(displaySize);
+        return size != null ? size : 0;
+    }
+    
+    /**
+     * 提交帧转码，完成后在转码线程上回调（不接管帧的引用）
+     *
+     * <p>回调收到的帧只在回调期间有效，需要继续使用时调用 {@link ScreenFrame#retain()}。
+     * 原图不大于目标尺寸或无法解码时回调原始帧。</p>
+     *
+     * @param size 目标长边像素数
+     */
+    public void transcode(ScreenFrame frame, int size, Consumer<ScreenFrame> callback) {
+        RenditionSlot slot = slots.computeIfAbsent(slotKey(frame.getDeviceId(), size), key -> new RenditionSlot());
+        if (slot.sourceSize > 0 && slot.sourceSize <= size) {
+            statsOf(size).passthrough.incrementAndGet();
+            callback.accept(frame);
+            return;
+        }
+        
+        Pending previous = slot.pending.getAndSet(new Pending(frame.retain(), callback));
+        if (previous != null) {
+            statsOf(size).coalesced.incrementAndGet();
+            previous.frame.release();
+        }
+        if (slot.scheduled.compareAndSet(false, true)) {
+            transcodeExecutor.execute(() -> drain(slot, size));
+        }
+    }
+    
+    /**
+     * 取走槽位中的最新帧并转码，直到槽位为空
+     */
+    private void drain(RenditionSlot slot, int size) {
+        while (true) {
+            Pending pending = slot.pending.getAndSet(null);
+            if (pending == null) {
+                slot.scheduled.set(false);
+                // 释放调度标记后再次检查，避免与提交线程竞争时漏掉新帧
+                if (slot.pending.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                process(slot, size, pending);
+            } catch (Exception e) {
+                log.error("转码回调失败: deviceId={}, size={}", pending.frame.getDeviceId(), size, e);
+            } finally {
+                pending.frame.release();
+            }
+        }
+    }
+    
+    private void process(RenditionSlot slot, int size, Pending pending) {
+        ScreenFrame frame = pending.frame;
+        RenditionStats sizeStats = statsOf(size);
+        long start = System.nanoTime();
+        
+        ScreenFrame rendition;
+        try {
+            if (slot.sourceSize == 0) {
+                // 设备分辨率基本不变，每个槽位只读取一次原图尺寸
+                slot.sourceSize = JpegCodec.readLongEdge(frame);
+            }
+            if (slot.sourceSize <= size) {
+                // 原图不比目标大，直接发送原始帧
+                sizeStats.passthrough.incrementAndGet();
+                pending.callback.accept(frame);
+                return;
+            }
+            
+            BufferedImage image = JpegCodec.decode(frame, size);
+            double ratio = (double) size / Math.max(image.getWidth(), image.getHeight());
+            BufferedImage scaled = JpegCodec.scale(image, Math.max(1, (int) Math.round(image.getWidth() * ratio)),
+                    Math.max(1, (int) Math.round(image.getHeight() * ratio)));
+            byte[] jpeg = JpegCodec.encode(scaled, mobileConfig.getCapture().getRenditionQuality());
+            rendition = ScreenFrame.wrap(frame.getDeviceId(), frame.getSequence(), frame.getTimestamp(), jpeg);
+        } catch (IOException e) {
+            // 无法转码时发送原始帧，保证画面不中断
+            sizeStats.failures.incrementAndGet();
+            log.debug("设备 {} 转码失败: {}", frame.getDeviceId(), e.getMessage());
+            pending.callback.accept(frame);
+            return;
+        }
+        
+        sizeStats.record(System.nanoTime() - start, frame.getLength() - rendition.getLength());
+        try {
+            pending.callback.accept(rendition);
+        } finally {
+            rendition.release();
+        }
+    }
+    
+    /**
+     * 移除设备的转码槽位（停止捕获时调用）
+     */
+    public void removeDevice(int deviceId) {
+        slots.entrySet().removeIf(entry -> {
+            if ((int) (entry.getKey() >> 32) != deviceId) {
+                return false;
+            }
+            Pending pending = entry.getValue().pending.getAndSet(null);
+            if (pending != null) {
+                pending.frame.release();
+            }
+            return true;
+        });
+    }
+    
+    /**
+     * 获取各档位的转码统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("sizes", ladder);
+        result.put("activeSlots", slots.size());
+        Map<Integer, Map<String, Long>> sizes = new HashMap<>();
+        stats.forEach((size, sizeStats) -> {
+            long encoded = sizeStats.encoded.get();
+            Map<String, Long> sizeResult = new HashMap<>();
+            sizeResult.put("encoded", encoded);
+            sizeResult.put("avgEncodeMicros", encoded > 0 ? sizeStats.encodeNanos.get() / encoded / 1000 : 0);
+            sizeResult.put("maxEncodeMicros", sizeStats.maxEncodeNanos.get() / 1000);
+            sizeResult.put("bytesSaved", sizeStats.bytesSaved.get());
+            sizeResult.put("coalesced", sizeStats.coalesced.get());
+            sizeResult.put("passthrough", sizeStats.passthrough.get());
+            sizeResult.put("failures", sizeStats.failures.get());
+            sizes.put(size, sizeResult);
+        });
+        result.put("renditions", sizes);
+        return result;
+    }
+    
+    private RenditionStats statsOf(int size) {
+        return stats.computeIfAbsent(size, key -> new RenditionStats());
+    }
+    
+    private static long slotKey(int deviceId, int size) {
+        return (long) deviceId << 32 | size;
+    }
+    
+    /**
+     * 等待转码的帧及其回调
+     */
+    private static class Pending {
+        
+        private final ScreenFrame frame;
+        
+        private final Consumer<ScreenFrame> callback;
+        
+        Pending(ScreenFrame frame, Consumer<ScreenFrame> callback) {
+            this.frame = frame;
+            this.callback = callback;
+        }
+    }
+    
+    /**
+     * 单个设备单档尺寸的转码槽位
+     */
+    private static class RenditionSlot {
+        
+        private final AtomicReference<Pending> pending = new AtomicReference<>();
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        /**
+         * 原图长边像素数，0表示未知
+         */
+        private volatile int sourceSize;
+    }
+    
+    /**
+     * 单档尺寸的转码统计
+     */
+    private static class RenditionStats {
+        
+        private final AtomicLong encoded = new AtomicLong();
+        
+        private final AtomicLong encodeNanos = new AtomicLong();
+        
+        private final AtomicLong maxEncodeNanos = new AtomicLong();
+        
+        private final AtomicLong bytesSaved = new AtomicLong();
+        
+        /**
+         * 转码期间被更新帧替换的帧数
+         */
+        private final AtomicLong coalesced = new AtomicLong();
+        
+        /**
+         * 原图不大于目标尺寸而直接发送的帧数
+         */
+        private final AtomicLong passthrough = new AtomicLong();
+        
+        private final AtomicLong failures = new AtomicLong();
+        
+        void record(long nanos, long saved) {
+            encoded.incrementAndGet();
+            encodeNanos.addAndGet(nanos);
+            maxEncodeNanos.accumulateAndGet(nanos, Math::max);
+            bytesSaved.addAndGet(saved);
+        }
+    }
+}
\ No newline at end of file
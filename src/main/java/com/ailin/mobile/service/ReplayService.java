@@ -0,0 +1,589 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.capture.FrameBufferPool;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.model.RecordingSegment;
+import com.ailin.mobile.model.ScreenFrame;
+import com.ailin.mobile.recording.SegmentReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 录制回放
+ *
+ * <p>按时间戳在已完成的分段中定位（分段按起始时间选择，分段内在时间索引上二分查找），按原速、倍速或逐帧
+ * 把存档的帧交给回放的接收方（WebSocket会话或MJPEG连接）。分段通过 {@link SegmentReader} 只读映射，
+ * 多个回放会话共用同一映射；帧从页缓存拷贝到回放自己的缓冲池，不占用实时捕获的缓冲池和线程。</p>
+ *
+ * <p>正在写入的分段没有时间索引，分段完成后才能回放。</p>
+ */
+@Slf4j
+@Service
+public class ReplayService {
+    
+    /**
+     * 相邻两帧之间的最长等待（毫秒），跨越录制中断的时间段时不按原时长等待
+     */
+    private static final long MAX_FRAME_GAP = 1000;
+    
+    /**
+     * 暂停或播放结束后重发当前帧的间隔（毫秒），让接收方保持画面，也让MJPEG连接在客户端断开后能被发现
+     */
+    private static final long IDLE_REFRESH_INTERVAL = 5000;
+    
+    /**
+     * 回放缓冲池保留的最大字节数
+     */
+    private static final long BUFFER_POOL_MAX_BYTES = 16L * 1024 * 1024;
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private RecordingService recordingService;
+    
+    /**
+     * 回放ID -> 回放会话
+     */
+    private final ConcurrentHashMap<Integer, Replay> replays = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    
+    /**
+     * 回放帧使用的缓冲池，与实时捕获分开
+     */
+    private final FrameBufferPool bufferPool = new FrameBufferPool(BUFFER_POOL_MAX_BYTES);
+    
+    /**
+     * 分段路径 -> 已映射的分段，按访问顺序淘汰
+     */
+    private final LinkedHashMap<Path, SegmentReader> readers = new LinkedHashMap<Path, SegmentReader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, SegmentReader> eldest) {
+            return size() > Math.max(1, mobileConfig.getReplay().getMaxOpenSegments());
+        }
+    };
+    
+    private final AtomicLong framesServed = new AtomicLong();
+    
+    private final AtomicLong bytesServed = new AtomicLong();
+    
+    /**
+     * 快进时超过输出帧率上限而跳过的帧数
+     */
+    private final AtomicLong framesSkipped = new AtomicLong();
+    
+    private final AtomicLong segmentsMapped = new AtomicLong();
+    
+    private ScheduledExecutorService replayExecutor;
+    
+    @PostConstruct
+    public void init() {
+        replayExecutor = Executors.newScheduledThreadPool(Math.max(1, mobileConfig.getReplay().getThreads()),
+                new CustomizableThreadFactory("replay-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        replayExecutor.shutdownNow();
+        replays.clear();
+    }
+    
+    /**
+     * 设备是否有可回放的分段
+     */
+    public boolean hasRecordings(int deviceId) {
+        return !recordingService.getSegments(deviceId).isEmpty();
+    }
+    
+    /**
+     * 开始回放：定位到不晚于给定时间的帧并立即交给接收方，倍速大于0时继续播放
+     *
+     * <p>接收方在回放线程上调用，帧只在调用期间有效，需要保留时自行 {@link ScreenFrame#retain()}；
+     * 接收方不能阻塞。</p>
+     *
+     * @param timestamp 起始时间，早于最早的录制时从第一帧开始
+     * @param speed 回放倍速，0表示暂停（逐帧步进）
+     * @return 回放ID
+     * @throws IllegalArgumentException 倍速无效或设备没有录制
+     */
+    public int start(int deviceId, long timestamp, double speed, Consumer<ScreenFrame> sink) {
+        validateSpeed(speed);
+        Position position = locate(deviceId, timestamp);
+        if (position == null) {
+            position = first(deviceId);
+        }
+        if (position == null) {
+            throw new IllegalArgumentException("设备没有录制: " + deviceId);
+        }
+        
+        Replay replay = new Replay(nextId.getAndIncrement(), deviceId, sink);
+        replays.put(replay.id, replay);
+        synchronized (replay) {
+            replay.speed = speed;
+            replay.position = position;
+            deliver(replay);
+            if (speed > 0) {
+                replay.playing = true;
+                scheduleNext(replay);
+            } else {
+                scheduleIdle(replay);
+            }
+        }
+        log.info("开始回放 {}: 设备 {}, 从 {} 开始, {}倍速", replay.id, deviceId, position.getTimestamp(), speed);
+        return replay.id;
+    }
+    
+    /**
+     * 控制回放
+     *
+     * @param action play、pause、seek（需要timestamp）、step（frames，默认1，负数后退）、speed（需要speed）
+     * @return 回放状态，回放不存在时返回null
+     * @throws IllegalArgumentException 操作或参数无效
+     */
+    public Map<String, Object> control(int replayId, String action, Long timestamp, Integer frames, Double speed) {
+        Replay replay = replays.get(replayId);
+        if (replay == null) {
+            return null;
+        }
+        synchronized (replay) {
+            if (replay.stopped) {
+                return null;
+            }
+            switch (action != null ? action : "") {
+                case "play":
+                    if (replay.speed <= 0) {
+                        replay.speed = 1;
+                    }
+                    play(replay);
+                    break;
+                case "pause":
+                    pause(replay);
+                    break;
+                case "seek":
+                    if (timestamp == null) {
+                        throw new IllegalArgumentException("缺少timestamp参数");
+                    }
+                    Position position = locate(replay.deviceId, timestamp);
+                    if (position == null) {
+                        position = first(replay.deviceId);
+                    }
+                    if (position != null) {
+                        cancelNext(replay);
+                        replay.position = position;
+                        replay.ended = false;
+                        deliver(replay);
+                        if (replay.playing) {
+                            scheduleNext(replay);
+                        } else {
+                            scheduleIdle(replay);
+                        }
+                    }
+                    break;
+                case "step":
+                    pause(replay);
+                    step(replay, frames != null ? frames : 1);
+                    break;
+                case "speed":
+                    if (speed == null) {
+                        throw new IllegalArgumentException("缺少speed参数");
+                    }
+                    validateSpeed(speed);
+                    replay.speed = speed;
+                    if (speed == 0) {
+                        pause(replay);
+                    } else if (replay.playing) {
+                        cancelNext(replay);
+                        scheduleNext(replay);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的回放操作: " + action);
+            }
+            return replay.getState();
+        }
+    }
+    
+    /**
+     * 获取回放状态
+     *
+     * @return 回放不存在时返回null
+     */
+    public Map<String, Object> getState(int replayId) {
+        Replay replay = replays.get(replayId);
+        if (replay == null) {
+            return null;
+        }
+        synchronized (replay) {
+            return replay.getState();
+        }
+    }
+    
+    /**
+     * 结束回放
+     *
+     * <p>不获取回放会话的锁：接收方可能在持有自身锁时因连接关闭调用这里，而回放线程持有会话锁时会调用接收方。</p>
+     *
+     * @return 回放不存在时返回false
+     */
+    public boolean stop(int replayId) {
+        Replay replay = replays.remove(replayId);
+        if (replay == null) {
+            return false;
+        }
+        replay.stopped = true;
+        ScheduledFuture<?> task = replay.task;
+        if (task != null) {
+            task.cancel(false);
+        }
+        log.info("结束回放 {}: 设备 {}", replayId, replay.deviceId);
+        return true;
+    }
+    
+    /**
+     * 读取不晚于给定时间的存档帧，调用方负责释放
+     *
+     * @return 给定时间之前没有录制时返回null
+     */
+    public ScreenFrame readFrame(int deviceId, long timestamp) {
+        Position position = locate(deviceId, timestamp);
+        if (position == null) {
+            return null;
+        }
+        ScreenFrame frame = position.reader.readFrame(position.index, bufferPool);
+        framesServed.incrementAndGet();
+        bytesServed.addAndGet(frame.getLength());
+        return frame;
+    }
+    
+    /**
+     * 获取回放统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("replays", replays.size());
+        result.put("framesServed", framesServed.get());
+        result.put("bytesServed", bytesServed.get());
+        result.put("framesSkipped", framesSkipped.get());
+        result.put("segmentsMapped", segmentsMapped.get());
+        synchronized (readers) {
+            result.put("openSegments", readers.size());
+        }
+        result.put("bufferPool", bufferPool.getMetrics());
+        return result;
+    }
+    
+    private void validateSpeed(double speed) {
+        if (!(speed >= 0 && speed <= mobileConfig.getReplay().getMaxSpeed())) {
+            throw new IllegalArgumentException("无效的回放倍速: " + speed);
+        }
+    }
+    
+    private void play(Replay replay) {
+        if (replay.playing) {
+            return;
+        }
+        if (replay.ended) {
+            // 播放到末尾后再次播放时继续检查新完成的分段
+            replay.ended = false;
+        }
+        cancelNext(replay);
+        replay.playing = true;
+        scheduleNext(replay);
+    }
+    
+    private void pause(Replay replay) {
+        replay.playing = false;
+        cancelNext(replay);
+        scheduleIdle(replay);
+    }
+    
+    private void cancelNext(Replay replay) {
+        if (replay.task != null) {
+            replay.task.cancel(false);
+            replay.task = null;
+        }
+        replay.next = null;
+    }
+    
+    /**
+     * 逐帧前进或后退，到达存档两端时停在端点
+     */
+    private void step(Replay replay, int frames) {
+        Position position = replay.position;
+        for (int i = 0; i < Math.abs(frames); i++) {
+            Position moved = frames > 0 ? forward(replay.deviceId, position) : backward(replay.deviceId, position);
+            if (moved == null) {
+                break;
+            }
+            position = moved;
+        }
+        replay.position = position;
+        replay.ended = false;
+        deliver(replay);
+    }
+    
+    /**
+     * 找到下一帧并按录制时的间隔除以倍速安排播放；快进时跳过间隔小于输出帧率上限的帧
+     */
+    private void scheduleNext(Replay replay) {
+        Position current = replay.position;
+        long minGap = (long) (replay.speed * 1000 / Math.max(1, mobileConfig.getReplay().getMaxFps()));
+        Position next = forward(replay.deviceId, current);
+        while (next != null && next.getTimestamp() - current.getTimestamp() < minGap) {
+            Position after = forward(replay.deviceId, next);
+            if (after == null) {
+                break;
+            }
+            framesSkipped.incrementAndGet();
+            next = after;
+        }
+        if (next == null) {
+            replay.playing = false;
+            replay.ended = true;
+            scheduleIdle(replay);
+            log.debug("回放 {} 已到达录制末尾", replay.id);
+            return;
+        }
+        
+        long delay = (long) ((next.getTimestamp() - current.getTimestamp()) / replay.speed);
+        replay.next = next;
+        replay.task = replayExecutor.schedule(() -> tick(replay), Math.max(0, Math.min(delay, MAX_FRAME_GAP)),
+                TimeUnit.MILLISECONDS);
+    }
+    
+    private void tick(Replay replay) {
+        synchronized (replay) {
+            if (replay.stopped || !replay.playing || replay.next == null) {
+                return;
+            }
+            replay.position = replay.next;
+            replay.next = null;
+            replay.task = null;
+            deliver(replay);
+            scheduleNext(replay);
+        }
+    }
+    
+    private void scheduleIdle(Replay replay) {
+        replay.task = replayExecutor.schedule(() -> refresh(replay), IDLE_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    private void refresh(Replay replay) {
+        synchronized (replay) {
+            if (replay.stopped || replay.playing) {
+                return;
+            }
+            deliver(replay);
+            scheduleIdle(replay);
+        }
+    }
+    
+    /**
+     * 把当前位置的帧交给接收方
+     */
+    private void deliver(Replay replay) {
+        if (replay.stopped) {
+            return;
+        }
+        Position position = replay.position;
+        ScreenFrame frame = position.reader.readFrame(position.index, bufferPool);
+        try {
+            replay.sink.accept(frame);
+            framesServed.incrementAndGet();
+            bytesServed.addAndGet(frame.getLength());
+        } catch (Exception e) {
+            log.error("回放帧发送失败: replayId={}", replay.id, e);
+        } finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * 定位不晚于给定时间的最后一帧
+     *
+     * @return 给定时间之前没有录制时返回null
+     */
+    private Position locate(int deviceId, long timestamp) {
+        List<RecordingSegment> segments = recordingService.getSegments(deviceId);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            RecordingSegment segment = segments.get(i);
+            if (segment.getStartTimestamp() > timestamp) {
+                continue;
+            }
+            SegmentReader reader = openReader(segment);
+            int index = reader != null ? reader.floorIndex(timestamp) : -1;
+            if (index >= 0) {
+                return new Position(reader, index);
+            }
+        }
+        return null;
+    }
+    
+    private Position first(int deviceId) {
+        for (RecordingSegment segment : recordingService.getSegments(deviceId)) {
+            SegmentReader reader = openReader(segment);
+            if (reader != null && reader.getFrameCount() > 0) {
+                return new Position(reader, 0);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 下一帧，当前分段结束时进入下一个分段
+     *
+     * @return 没有更多帧时返回null
+     */
+    private Position forward(int deviceId, Position position) {
+        if (position.index + 1 < position.reader.getFrameCount()) {
+            return new Position(position.reader, position.index + 1);
+        }
+        for (RecordingSegment segment : recordingService.getSegments(deviceId)) {
+            if (segment.getStartTimestamp() <= position.reader.getStartTimestamp()) {
+                continue;
+            }
+            SegmentReader reader = openReader(segment);
+            if (reader != null && reader.getFrameCount() > 0) {
+                return new Position(reader, 0);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 上一帧，当前分段开头时进入上一个分段
+     *
+     * @return 没有更早的帧时返回null
+     */
+    private Position backward(int deviceId, Position position) {
+        if (position.index > 0) {
+            return new Position(position.reader, position.index - 1);
+        }
+        List<RecordingSegment> segments = recordingService.getSegments(deviceId);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            RecordingSegment segment = segments.get(i);
+            if (segment.getStartTimestamp() >= position.reader.getStartTimestamp()) {
+                continue;
+            }
+            SegmentReader reader = openReader(segment);
+            if (reader != null && reader.getFrameCount() > 0) {
+                return new Position(reader, reader.getFrameCount() - 1);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 获取分段的映射，未映射时打开
+     *
+     * @return 分段已被删除或损坏时返回null
+     */
+    private SegmentReader openReader(RecordingSegment segment) {
+        Path path = recordingService.getSegmentPath(segment);
+        synchronized (readers) {
+            SegmentReader reader = readers.get(path);
+            if (reader == null) {
+                try {
+                    reader = SegmentReader.open(path);
+                } catch (IOException e) {
+                    log.warn("打开录制分段失败: {}, {}", path, e.getMessage());
+                    return null;
+                }
+                readers.put(path, reader);
+                segmentsMapped.incrementAndGet();
+            }
+            return reader;
+        }
+    }
+    
+    /**
+     * 存档中的一帧
+     */
+    private static final class Position {
+        
+        private final SegmentReader reader;
+        
+        private final int index;
+        
+        Position(SegmentReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+        
+        long getTimestamp() {
+            return reader.getTimestamp(index);
+        }
+    }
+    
+    /**
+     * 单个回放会话，除 {@link #stopped} 和 {@link #task} 外由对象锁保护
+     */
+    private static final class Replay {
+        
+        private final int id;
+        
+        private final int deviceId;
+        
+        private final Consumer<ScreenFrame> sink;
+        
+        private double speed;
+        
+        private boolean playing;
+        
+        /**
+         * 已播放到录制末尾
+         */
+        private boolean ended;
+        
+        /**
+         * 最近交给接收方的帧
+         */
+        private Position position;
+        
+        /**
+         * 已安排播放的下一帧
+         */
+        private Position next;
+        
+        private volatile ScheduledFuture<?> task;
+        
+        private volatile boolean stopped;
+        
+        Replay(int id, int deviceId, Consumer<ScreenFrame> sink) {
+            this.id = id;
+            this.deviceId = deviceId;
+            this.sink = sink;
+        }
+        
+        Map<String, Object> getState() {
+            Map<String, Object> state = new HashMap<>();
+            state.put("replayId", id);
+            state.put("deviceId", deviceId);
+            state.put("speed", speed);
+            state.put("playing", playing);
+            state.put("ended", ended);
+            state.put("position", position.getTimestamp());
+            return state;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.discovery.ScanListener;
+import com.ailin.mobile.discovery.ScanTask;
+import com.ailin.mobile.model.DeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 扫描事件SSE推送服务
+ *
+ * <p>事件在单个推送线程上按顺序写出，探测线程和HTTP检测线程不会被慢速的SSE连接阻塞。</p>
+ */
+@Slf4j
+@Service
+public class ScanStreamService implements ScanListener {
+    
+    /**
+     * SSE连接超时时间
+     */
+    private static final long EMITTER_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    
+    /**
+     * 扫描ID -> 订阅该扫描的SSE连接
+     */
+    private final ConcurrentHashMap<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    
+    /**
+     * SSE推送线程
+     */
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor(
+            new CustomizableThreadFactory("scan-sse-"));
+    
+    @PreDestroy
+    public void destroy() {
+        streamExecutor.shutdownNow();
+    }
+    
+    /**
+     * 订阅扫描事件
+     *
+     * <p>先补发已发现的设备和当前进度，扫描已结束时补发结束事件后关闭连接。
+     * 补发与实时事件之间可能重复发送同一设备，客户端按设备ID去重。</p>
+     */
+    public SseEmitter subscribe(ScanTask task) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT);
+        String scanId = task.getScanId();
+        
+        List<SseEmitter> scanEmitters = emitters.computeIfAbsent(scanId, id -> new CopyOnWriteArrayList<>());
+        scanEmitters.add(emitter);
+        emitter.onCompletion(() -> scanEmitters.remove(emitter));
+        emitter.onTimeout(() -> scanEmitters.remove(emitter));
+        
+        streamExecutor.execute(() -> {
+            for (DeviceInfo device : task.getDevices()) {
+                send(emitter, task.createDeviceFoundMessage(device));
+            }
+            send(emitter, task.createProgressMessage());
+            if (task.isCompleted()) {
+                send(emitter, task.createCompletedMessage());
+                scanEmitters.remove(emitter);
+                emitters.computeIfPresent(scanId, (id, list) -> list.isEmpty() ? null : list);
+                emitter.complete();
+            }
+        });
+        return emitter;
+    }
+    
+    @Override
+    public void onDeviceFound(ScanTask task, DeviceInfo device) {
+        publish(task, task.createDeviceFoundMessage(device), false);
+    }
+    
+    @Override
+    public void onScanProgress(ScanTask task) {
+        publish(task, task.createProgressMessage(), false);
+    }
+    
+    @Override
+    public void onScanCompleted(ScanTask task) {
+        publish(task, task.createCompletedMessage(), true);
+    }
+    
+    /**
+     * 推送事件给订阅该扫描的所有连接
+     */
+    private void publish(ScanTask task, Map<String, Object> message, boolean last) {
+        if (!emitters.containsKey(task.getScanId())) {
+            return;
+        }
+        
+        streamExecutor.execute(() -> {
+            List<SseEmitter> scanEmitters = last ? emitters.remove(task.getScanId()) : emitters.get(task.getScanId());
+            if (scanEmitters == null) {
+                return;
+            }
+            for (SseEmitter emitter : scanEmitters) {
+                if (!send(emitter, message)) {
+                    scanEmitters.remove(emitter);
+                } else if (last) {
+                    emitter.complete();
+                }
+            }
+        });
+    }
+    
+    /**
+     * 发送一个事件，事件名为消息类型
+     */
+    private boolean send(SseEmitter emitter, Map<String, Object> message) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(String.valueOf(message.get("type")))
+                    .data(message));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("SSE推送失败: {}", e.getMessage());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+    
+    /**
+     * 获取当前SSE连接数
+     */
+    public int getEmitterCount() {
+        return emitters.values().stream().mapToInt(List::size).sum();
+    }
+}
\ No newline at end of file
@@ -1,246 +1,287 @@
 package com.ailin.mobile.service;
 
+import com.ailin.mobile.capture.BlockingCaptureEngine;
+import com.ailin.mobile.capture.CaptureEngine;
+import com.ailin.mobile.capture.CaptureListener;
+import com.ailin.mobile.capture.CaptureState;
+import com.ailin.mobile.capture.CaptureSupervisor;
+import com.ailin.mobile.capture.FrameBuffer;
+import com.ailin.mobile.capture.FrameBufferPool;
+import com.ailin.mobile.capture.NioCaptureEngine;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.event.DeviceStatusEvent;
+import com.ailin.mobile.event.ViewerDemandEvent;
 import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.ScreenFrame;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 屏幕捕获服务
+ *
+ * <p>按需捕获模式下只连接有人观看的设备：设备开始被观看时立即连接，
+ * 最后一个观看者离开后经过空闲宽限期再断开，避免切换窗口时反复重连。</p>
+ *
+ * <p>连接由 {@link CaptureSupervisor} 监督：意外断开或画面停滞时退避重连，状态变化写入设备状态，
+ * 由 {@link LivenessMonitor} 合并后以 {@link DeviceStatusEvent} 通知客户端。</p>
  */
 @Slf4j
 @Service
-public class ScreenCaptureService {
+public class ScreenCaptureService implements CaptureListener {
     
     @Autowired
-    private WebSocketService webSocketService;
+    private FrameDispatcher frameDispatcher;
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private DeltaEncoder deltaEncoder;
+    
+    @Autowired
+    private LivenessMonitor livenessMonitor;
+    
+    /**
+     * 捕获引擎
+     */
+    private CaptureEngine captureEngine;
+    
+    /**
+     * 捕获会话监督，所有启动和停止都经过它
+     */
+    private CaptureSupervisor supervisor;
+    
+    /**
+     * 帧缓冲池，解析器读入的缓冲区直接作为帧数据流转到各个会话
+     */
+    private FrameBufferPool bufferPool;
+    
+    /**
+     * 设备帧序号
+     */
+    private final ConcurrentHashMap<Integer, AtomicLong> frameSequences = new ConcurrentHashMap<>();
     
     /**
-     * 设备连接映射
+     * 等待空闲宽限期结束的停止任务
      */
-    private final ConcurrentHashMap<Integer, Socket> deviceConnections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ScheduledFuture<?>> idleStops = new ConcurrentHashMap<>();
     
     /**
-     * 线程池
+     * 空闲停止调度线程
      */
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService idleScheduler = Executors.newSingleThreadScheduledExecutor(
+            new CustomizableThreadFactory("capture-idle-"));
     
     /**
-     * 开始捕获指定设备的屏幕
+     * 根据配置创建捕获引擎
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        MobileConfig.Capture capture = mobileConfig.getCapture();
+        bufferPool = new FrameBufferPool(capture.getBufferPoolMaxBytes());
+        if ("nio".equalsIgnoreCase(capture.getEngine())) {
+            captureEngine = new NioCaptureEngine(capture, mobileConfig.getNetwork().getConnectTimeout(), bufferPool,
+                    this);
+        } else {
+            captureEngine = new BlockingCaptureEngine(capture, bufferPool, this);
+        }
+        supervisor = new CaptureSupervisor(capture, captureEngine, livenessMonitor.getTimerWheel(), this::resolveDevice,
+                this::onStateChange);
+        livenessMonitor.setSupervision(supervisor::isActive);
+        log.info("屏幕捕获引擎: {}", capture.getEngine());
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        idleScheduler.shutdownNow();
+        supervisor.shutdown();
+        captureEngine.shutdown();
+    }
+    
+    /**
+     * 开始捕获指定设备的屏幕（按需捕获模式下设备无人观看时只登记，等待观看者）
      */
     @Async
     public void startCapture(DeviceInfo device) {
-        int deviceId = device.getId();
-        String ip = device.getIp();
-        int port = device.getPort();
+        if (isOnDemand() && !viewerRegistry.isWatched(device.getId())) {
+            log.debug("设备 {} 暂无观看者，等待订阅后再开始捕获", device.getId());
+            return;
+        }
         
         // 检查是否已经在捕获
-        if (deviceConnections.containsKey(deviceId)) {
-            log.warn("设备 {} 已经在捕获中", deviceId);
-            return;
+        if (!supervisor.start(device)) {
+            log.warn("设备 {} 已经在捕获中", device.getId());
         }
+    }
+    
+    @Override
+    public void onConnected(DeviceInfo device) {
+        // 收到第一帧后才进入推流状态
+        supervisor.onConnected(device);
+    }
+    
+    @Override
+    public void onFrame(DeviceInfo device, FrameBuffer buffer, int offset, int length) {
+        // 更新设备最后更新时间
+        long now = System.currentTimeMillis();
+        device.setLastUpdate(now);
+        supervisor.onFrame(device, now);
+        livenessMonitor.touch(device.getId(), now);
         
-        executorService.submit(() -> {
-            Socket socket = null;
-            try {
-                log.info("开始连接设备进行屏幕捕获: {}:{} (ID: {})", ip, port, deviceId);
-                
-                socket = new Socket(ip, port);
-                socket.setKeepAlive(true);
-                socket.setSoTimeout(30000); // 30秒超时
-                
-                deviceConnections.put(deviceId, socket);
-                
-                // 更新设备状态
-                device.setConnected(true);
-                device.setStatus("online");
-                device.setLastUpdate(System.currentTimeMillis());
-                
-                // 开始接收数据
-                captureFrames(device, socket);
-                
-            } catch (Exception e) {
-                log.error("设备 {} 屏幕捕获异常: {}", deviceId, e.getMessage());
-                device.setConnected(false);
-                device.setStatus("offline");
-            } finally {
-                // 清理连接
-                deviceConnections.remove(deviceId);
-                if (socket != null && !socket.isClosed()) {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        log.error("关闭socket连接失败", e);
-                    }
-                }
-                log.info("设备 {} 屏幕捕获已停止", deviceId);
-            }
-        });
+        long sequence = frameSequences.computeIfAbsent(device.getId(), id -> new AtomicLong()).incrementAndGet();
+        // 帧引用解析缓冲区而不拷贝，所有权交给分发器
+        ScreenFrame frame = new ScreenFrame(device.getId(), sequence, now, buffer.retain(), offset, length);
+        
+        // 交给分发器，由分发线程推送给客户端
+        frameDispatcher.publish(frame);
+    }
+    
+    @Override
+    public void onDisconnected(DeviceInfo device, Throwable error) {
+        if (error != null) {
+            log.error("设备 {} 屏幕捕获异常: {}", device.getId(), error.getMessage());
+            // 离线设备的最后画面已失效；空闲断开的设备保留缓存，供再次观看时首屏显示
+            lastFrameCache.evict(device.getId());
+        }
+        log.info("设备 {} 屏幕捕获已停止", device.getId());
+        // 非主动停止的断开由监督者退避重连
+        supervisor.onDisconnected(device, error);
     }
     
     /**
-     * 捕获帧数据
+     * 监督者重连前取得当前设备：设备已移除，或按需捕获模式下已无人观看时不再重连
      */
-    private void captureFrames(DeviceInfo device, Socket socket) throws IOException {
-        int deviceId = device.getId();
-        InputStream inputStream = socket.getInputStream();
-        
-        byte[] buffer = new byte[0];
-        int frameCount = 0;
-        
-        log.info("开始接收设备 {} 的屏幕数据", deviceId);
-        
-        while (!socket.isClosed() && socket.isConnected()) {
-            try {
-                // 读取数据
-                byte[] tempBuffer = new byte[4096];
-                int bytesRead = inputStream.read(tempBuffer);
-                
-                if (bytesRead == -1) {
-                    log.warn("设备 {} 连接已断开", deviceId);
-                    break;
-                }
-                
-                // 将新数据添加到缓冲区
-                buffer = appendBytes(buffer, tempBuffer, bytesRead);
-                
-                // 查找JPEG头尾
-                while (true) {
-                    int start = findBytes(buffer, new byte[]{(byte) 0xFF, (byte) 0xD8}); // JPEG文件头
-                    int end = findBytes(buffer, new byte[]{(byte) 0xFF, (byte) 0xD9});   // JPEG文件尾
-                    
-                    if (start != -1 && end != -1 && end > start) {
-                        // 提取完整的JPEG帧
-                        byte[] jpegFrame = extractBytes(buffer, start, end + 2);
-                        buffer = removeBytes(buffer, 0, end + 2);
-                        
-                        frameCount++;
-                        
-                        // 更新设备最后更新时间
-                        device.setLastUpdate(System.currentTimeMillis());
-                        
-                        // 通过WebSocket发送帧数据
-                        webSocketService.sendFrame(deviceId, jpegFrame);
-                        
-                        if (frameCount % 100 == 0) {
-                            log.debug("设备 {} 已捕获 {} 帧", deviceId, frameCount);
-                        }
-                    } else {
-                        break;
-                    }
-                }
-                
-                // 限制缓冲区大小，避免内存溢出
-                if (buffer.length > 1024 * 1024) { // 1MB
-                    log.warn("设备 {} 缓冲区过大，清空部分数据", deviceId);
-                    buffer = new byte[0];
-                }
-                
-            } catch (IOException e) {
-                if (!socket.isClosed()) {
-                    log.error("设备 {} 读取数据失败: {}", deviceId, e.getMessage());
-                    throw e;
-                }
-                break;
-            }
+    private DeviceInfo resolveDevice(int deviceId) {
+        if (isOnDemand() && !viewerRegistry.isWatched(deviceId)) {
+            return null;
         }
-        
-        log.info("设备 {} 屏幕捕获结束，共捕获 {} 帧", deviceId, frameCount);
+        return deviceRegistry.get(deviceId);
     }
     
     /**
-     * 停止捕获指定设备
+     * 捕获状态变化：更新设备状态并通知客户端
      */
-    public void stopCapture(int deviceId) {
-        Socket socket = deviceConnections.remove(deviceId);
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-                log.info("停止设备 {} 的屏幕捕获", deviceId);
-            } catch (IOException e) {
-                log.error("关闭设备 {} 连接失败", deviceId, e);
-            }
+    private void onStateChange(DeviceInfo device, CaptureState state) {
+        DeviceInfo current = deviceRegistry.get(device.getId());
+        if (current == null) {
+            return;
         }
+        deviceRegistry.updateStatus(current, state.getStatus(), state.isConnected());
+        livenessMonitor.reportStatus(current.getId(), state.getStatus(), state.isConnected());
     }
     
     /**
-     * 停止所有捕获
+     * 观看需求变化时启动或延迟停止捕获
      */
-    public void stopAllCaptures() {
-        log.info("停止所有设备的屏幕捕获");
-        deviceConnections.forEach((deviceId, socket) -> {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                log.error("关闭设备 {} 连接失败", deviceId, e);
+    @EventListener
+    public void onViewerDemand(ViewerDemandEvent event) {
+        if (!isOnDemand()) {
+            return;
+        }
+        if (event.getDeviceId() == ViewerDemandEvent.ALL_DEVICES) {
+            for (DeviceInfo device : deviceRegistry.getAll()) {
+                updateDemand(device.getId());
+            }
+        } else {
+            updateDemand(event.getDeviceId());
+        }
+    }
+    
+    private void updateDemand(int deviceId) {
+        if (viewerRegistry.isWatched(deviceId)) {
+            ScheduledFuture<?> idleStop = idleStops.remove(deviceId);
+            if (idleStop != null) {
+                idleStop.cancel(false);
             }
-        });
-        deviceConnections.clear();
+            
+            DeviceInfo device = deviceRegistry.get(deviceId);
+            if (device != null && supervisor.start(device)) {
+                log.info("设备 {} 有观看者，开始捕获", deviceId);
+            }
+        } else if (supervisor.isActive(deviceId)) {
+            long gracePeriod = mobileConfig.getCapture().getIdleGracePeriod();
+            idleStops.computeIfAbsent(deviceId, id -> idleScheduler.schedule(() -> stopIfIdle(id),
+                    gracePeriod, TimeUnit.MILLISECONDS));
+        }
+    }
+    
+    private void stopIfIdle(int deviceId) {
+        idleStops.remove(deviceId);
+        if (!viewerRegistry.isWatched(deviceId)) {
+            log.info("设备 {} 空闲超过 {}ms，停止捕获", deviceId, mobileConfig.getCapture().getIdleGracePeriod());
+            stopCapture(deviceId);
+        }
+    }
+    
+    private boolean isOnDemand() {
+        return mobileConfig.getCapture().isOnDemand();
     }
     
     /**
-     * 获取活跃连接数
+     * 停止捕获指定设备
      */
-    public int getActiveConnectionCount() {
-        return deviceConnections.size();
+    public void stopCapture(int deviceId) {
+        if (supervisor.stop(deviceId)) {
+            log.info("停止设备 {} 的屏幕捕获", deviceId);
+        }
+        frameDispatcher.removeDevice(deviceId);
+        renditionService.removeDevice(deviceId);
+        deltaEncoder.removeDevice(deviceId);
     }
     
-    // 工具方法
-    
     /**
-     * 连接字节数组
+     * 停止所有捕获
      */
-    private byte[] appendBytes(byte[] original, byte[] newBytes, int length) {
-        byte[] result = new byte[original.length + length];
-        System.arraycopy(original, 0, result, 0, original.length);
-        System.arraycopy(newBytes, 0, result, original.length, length);
-        return result;
+    public void stopAllCaptures() {
+        log.info("停止所有设备的屏幕捕获");
+        supervisor.stopAll();
     }
     
     /**
-     * 查找字节序列
+     * 获取捕获会话状态统计
      */
-    private int findBytes(byte[] source, byte[] target) {
-        for (int i = 0; i <= source.length - target.length; i++) {
-            boolean found = true;
-            for (int j = 0; j < target.length; j++) {
-                if (source[i + j] != target[j]) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found) {
-                return i;
-            }
-        }
-        return -1;
+    public Map<String, Object> getSupervisorStats() {
+        return supervisor.getStats();
     }
     
     /**
-     * 提取字节数组片段
+     * 获取帧缓冲池指标
      */
-    private byte[] extractBytes(byte[] source, int start, int end) {
-        int length = end - start;
-        byte[] result = new byte[length];
-        System.arraycopy(source, start, result, 0, length);
-        return result;
+    public Map<String, Object> getBufferPoolMetrics() {
+        return bufferPool.getMetrics();
     }
     
     /**
-     * 移除字节数组片段
+     * 获取活跃连接数
      */
-    private byte[] removeBytes(byte[] source, int start, int end) {
-        int remaining = source.length - end;
-        byte[] result = new byte[remaining];
-        System.arraycopy(source, end, result, 0, remaining);
-        return result;
+    public int getActiveConnectionCount() {
+        return captureEngine.getActiveConnectionCount();
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.ailin.mobile.service;
+
+import com.ailin.mobile.event.ViewerDemandEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 观看者计数
+ *
+ * <p>记录每个设备当前的观看者数量（WebSocket订阅等），设备在有人观看与无人观看之间切换时发布
+ * {@link ViewerDemandEvent}，捕获服务据此按需连接设备。</p>
+ */
+@Slf4j
+@Service
+public class ViewerRegistry {
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    /**
+     * 设备ID -> 观看者数量，无观看者时不保留
+     */
+    private final ConcurrentHashMap<Integer, Integer> viewers = new ConcurrentHashMap<>();
+    
+    /**
+     * 观看所有设备的观看者数量
+     */
+    private final AtomicInteger allDeviceViewers = new AtomicInteger();
+    
+    /**
+     * 增加设备的一个观看者
+     */
+    public void addViewer(int deviceId) {
+        if (viewers.merge(deviceId, 1, Integer::sum) == 1) {
+            log.debug("设备 {} 开始被观看", deviceId);
+            publish(deviceId);
+        }
+    }
+    
+    /**
+     * 减少设备的一个观看者
+     */
+    public void removeViewer(int deviceId) {
+        if (viewers.computeIfPresent(deviceId, (id, count) -> count > 1 ? count - 1 : null) == null) {
+            log.debug("设备 {} 已无观看者", deviceId);
+            publish(deviceId);
+        }
+    }
+    
+    /**
+     * 增加一个观看所有设备的观看者
+     */
+    public void addAllDevicesViewer() {
+        if (allDeviceViewers.incrementAndGet() == 1) {
+            publish(ViewerDemandEvent.ALL_DEVICES);
+        }
+    }
+    
+    /**
+     * 减少一个观看所有设备的观看者
+     */
+    public void removeAllDevicesViewer() {
+        if (allDeviceViewers.decrementAndGet() == 0) {
+            publish(ViewerDemandEvent.ALL_DEVICES);
+        }
+    }
+    
+    /**
+     * 设备当前是否有人观看
+     */
+    public boolean isWatched(int deviceId) {
+        return allDeviceViewers.get() > 0 || viewers.containsKey(deviceId);
+    }
+    
+    /**
+     * 获取设备的观看者数量（含观看所有设备的观看者）
+     */
+    public int getViewerCount(int deviceId) {
+        return viewers.getOrDefault(deviceId, 0) + allDeviceViewers.get();
+    }
+    
+    /**
+     * 获取观看所有设备的观看者数量
+     */
+    public int getAllDevicesViewerCount() {
+        return allDeviceViewers.get();
+    }
+    
+    /**
+     * 获取有观看者的设备数（不含观看所有设备的观看者）
+     */
+    public int getWatchedDeviceCount() {
+        return viewers.size();
+    }
+    
+    private void publish(int deviceId) {
+        eventPublisher.publishEvent(new ViewerDemandEvent(this, deviceId));
+    }
+}
\ No newline at end of file
@@ -1,54 +1,201 @@
 package com.ailin.mobile.service;
 
+import com.ailin.mobile.capture.CaptureTier;
+import com.ailin.mobile.capture.FrameConsumer;
+import com.ailin.mobile.config.MobileConfig;
+import com.ailin.mobile.discovery.ScanListener;
+import com.ailin.mobile.discovery.ScanTask;
+import com.ailin.mobile.event.DeviceStatusEvent;
+import com.ailin.mobile.model.DeviceInfo;
+import com.ailin.mobile.model.DeviceListDelta;
+import com.ailin.mobile.model.ScreenFrame;
+import com.ailin.mobile.websocket.ClientSession;
+import com.ailin.mobile.websocket.FrameCodec;
+import com.ailin.mobile.websocket.FrameFormat;
+import com.ailin.mobile.websocket.OverflowPolicy;
+import com.ailin.mobile.websocket.SessionSender;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * WebSocket服务
  */
 @Slf4j
 @Service
-public class WebSocketService {
+public class WebSocketService implements FrameConsumer, ScanListener {
+    
+    /**
+     * Tomcat阻塞发送超时属性
+     */
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+    
+    @Autowired
+    private MobileConfig mobileConfig;
+    
+    @Autowired
+    private ViewerRegistry viewerRegistry;
+    
+    @Autowired
+    private CaptureScheduler captureScheduler;
+    
+    @Autowired
+    private LastFrameCache lastFrameCache;
+    
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private MosaicService mosaicService;
+    
+    @Autowired
+    private DeltaEncoder deltaEncoder;
+    
+    @Autowired
+    private ReplayService replayService;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
     
     /**
      * WebSocket会话映射
      */
-    private final ConcurrentHashMap<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ClientSession> sessions = new ConcurrentHashMap<>();
+    
+    /**
+     * 设备订阅索引：设备ID -> 订阅该设备的会话
+     */
+    private final ConcurrentHashMap<Integer, Set<ClientSession>> deviceSubscribers = new ConcurrentHashMap<>();
+    
+    /**
+     * 接收所有设备屏幕帧的会话（未发送过订阅消息的旧客户端）
+     */
+    private final Set<ClientSession> allDeviceSessions = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 马赛克订阅索引：马赛克ID -> 订阅的会话
+     */
+    private final ConcurrentHashMap<Integer, Set<ClientSession>> mosaicSubscribers = new ConcurrentHashMap<>();
+    
+    /**
+     * 马赛克ID -> 向订阅会话推送合成画面的监听器（每个马赛克一个，所有会话共享编码结果）
+     */
+    private final ConcurrentHashMap<Integer, Consumer<ScreenFrame>> mosaicListeners = new ConcurrentHashMap<>();
     
     /**
      * JSON转换器
      */
     private final ObjectMapper objectMapper = new ObjectMapper();
     
+    /**
+     * 发送线程池，所有会话共享
+     */
+    private ExecutorService senderExecutor;
+    
+    @PostConstruct
+    public void init() {
+        senderExecutor = Executors.newFixedThreadPool(Math.max(1, mobileConfig.getWebsocket().getSenderThreads()),
+                new CustomizableThreadFactory("ws-sender-"));
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        senderExecutor.shutdownNow();
+    }
+    
     /**
      * 添加WebSocket会话
      */
     public void addSession(String sessionId, WebSocketSession session) {
-        sessions.put(sessionId, session);
-        log.info("WebSocket会话已连接: {}", sessionId);
+        MobileConfig.Websocket config = mobileConfig.getWebsocket();
+        SessionSender sender = new SessionSender(session, senderExecutor, config.getSendQueueCapacity(),
+                config.getSendBufferSizeLimit(), config.getSendTimeLimit(),
+                OverflowPolicy.parse(config.getOverflowPolicy()));
+        ClientSession clientSession = new ClientSession(session, sender);
+        
+        // 限制底层阻塞发送时间，慢速客户端不会长期占用发送线程
+        if (session instanceof NativeWebSocketSession) {
+            Object nativeSession = ((NativeWebSocketSession) session).getNativeSession();
+            if (nativeSession instanceof javax.websocket.Session) {
+                ((javax.websocket.Session) nativeSession).getUserProperties()
+                        .put(BLOCKING_SEND_TIMEOUT, (long) config.getSendTimeLimit());
+            }
+        }
+        
+        // 支持在连接地址上协商帧格式，如 /ws/screen?protocol=binary
+        FrameFormat format = FrameFormat.parse(getQueryParam(session.getUri(), "protocol"));
+        if (format != null) {
+            clientSession.setFrameFormat(format);
+        }
+        // ?delta=true 表示客户端能拼接增量图块，服务端未开启时忽略
+        if (deltaEncoder.isEnabled() && "true".equalsIgnoreCase(getQueryParam(session.getUri(), "delta"))) {
+            clientSession.setDelta(true);
+        }
+        
+        sessions.put(sessionId, clientSession);
+        log.info("WebSocket会话已连接: {}, 帧格式: {}, 增量画面: {}", sessionId, clientSession.getFrameFormat(),
+                clientSession.isDelta());
         
         // 发送欢迎消息
         sendMessage(sessionId, createMessage("welcome", "连接成功"));
+        
+        // 旧客户端默认接收所有设备画面，?subscribe=none 表示连接后再按需订阅
+        if ("none".equalsIgnoreCase(getQueryParam(session.getUri(), "subscribe"))) {
+            clientSession.setSubscribeAll(false);
+        } else {
+            addAllDeviceSession(clientSession);
+        }
     }
     
     /**
      * 移除WebSocket会话
+     *
+     * <p>连接关闭、发送失败、广播发现无效会话都经这里移除，会话持有的订阅、马赛克监听和回放只在这里释放。</p>
      */
     public void removeSession(String sessionId) {
-        WebSocketSession session = sessions.remove(sessionId);
-        if (session != null) {
+        ClientSession clientSession = sessions.remove(sessionId);
+        if (clientSession != null) {
+            clearSubscriptions(clientSession);
+            for (Integer mosaicId : clientSession.getMosaics()) {
+                unsubscribeMosaic(clientSession, mosaicId);
+            }
+            for (Integer replayId : clientSession.getReplays().values()) {
+                replayService.stop(replayId);
+            }
+            clientSession.getReplays().clear();
+            clientSession.getSender().markClosed();
             try {
-                session.close();
+                clientSession.getSession().close();
             } catch (IOException e) {
                 log.error("关闭WebSocket会话失败: {}", sessionId, e);
             }
@@ -56,68 +203,307 @@ public class WebSocketService {
         log.info("WebSocket会话已断开: {}", sessionId);
     }
     
+    @Override
+    public void onFrame(ScreenFrame frame) {
+        sendFrame(frame);
+    }
+    
     /**
      * 发送屏幕帧数据
      */
-    public void sendFrame(int deviceId, byte[] frameData) {
-        if (frameData == null || frameData.length == 0) {
+    public void sendFrame(ScreenFrame frame) {
+        if (frame.getLength() == 0) {
             return;
         }
         
+        Set<ClientSession> subscribers = deviceSubscribers.get(frame.getDeviceId());
+        if ((subscribers == null || subscribers.isEmpty()) && allDeviceSessions.isEmpty()) {
+            return;
+        }
+        
+        try {
+            // 每种格式的消息最多构建一次，所有会话共享
+            Object[] encoded = new Object[FrameFormat.values().length];
+            // 选择了缩小画面的会话按尺寸分组，转码完成后再发送
+            Map<Integer, List<ClientSession>> renditionSessions = renditionService.isEnabled() ? new HashMap<>() : null;
+            // 接收增量图块的会话共享同一份编码结果
+            List<ClientSession> deltaSessions = deltaEncoder.isEnabled() ? new ArrayList<>() : null;
+            
+            if (subscribers != null) {
+                for (ClientSession clientSession : subscribers) {
+                    routeFrame(clientSession, frame, encoded, renditionSessions, deltaSessions);
+                }
+            }
+            for (ClientSession clientSession : allDeviceSessions) {
+                routeFrame(clientSession, frame, encoded, renditionSessions, deltaSessions);
+            }
+            
+            if (renditionSessions != null) {
+                renditionSessions.forEach((size, targets) -> renditionService.transcode(frame, size,
+                        rendition -> deliverFrames(targets, rendition)));
+            }
+            if (deltaSessions != null && !deltaSessions.isEmpty()) {
+                deltaEncoder.encode(frame, (source, delta) -> deliverDeltas(deltaSessions, source, delta));
+            }
+            
+        } catch (Exception e) {
+            log.error("发送屏幕帧失败: deviceId={}", frame.getDeviceId(), e);
+        }
+    }
+    
+    /**
+     * 原始分辨率直接发送，需要缩小画面的会话加入对应尺寸的分组，接收增量图块的会话加入增量分组
+     */
+    private void routeFrame(ClientSession clientSession, ScreenFrame frame, Object[] encoded,
+                            Map<Integer, List<ClientSession>> renditionSessions, List<ClientSession> deltaSessions) {
+        int size = renditionSessions != null ? getRenditionSize(clientSession, frame.getDeviceId()) : 0;
+        if (size != 0) {
+            // 切换到缩小画面后，再回到原始分辨率时需要先发送完整帧
+            clientSession.getDeltaBases().remove(frame.getDeviceId());
+            renditionSessions.computeIfAbsent(size, key -> new ArrayList<>()).add(clientSession);
+        } else if (deltaSessions != null && clientSession.isDelta()) {
+            deltaSessions.add(clientSession);
+        } else if (!deliverFrame(clientSession, frame, encoded, FrameCodec.TYPE_FRAME)) {
+            removeSession(clientSession.getId());
+        }
+    }
+    
+    /**
+     * 会话对设备选择的画面尺寸，0表示原始分辨率；聚焦（放大）的窗口总是原始分辨率
+     */
+    private int getRenditionSize(ClientSession clientSession, int deviceId) {
+        Integer displaySize = clientSession.getDisplaySizes().get(deviceId);
+        if (displaySize == null || clientSession.getTier(deviceId) == CaptureTier.FOCUSED) {
+            return 0;
+        }
+        return renditionService.select(displaySize);
+    }
+    
+    /**
+     * 向一组会话发送转码后的帧
+     */
+    private void deliverFrames(List<ClientSession> targets, ScreenFrame frame) {
+        Object[] encoded = new Object[FrameFormat.values().length];
+        for (ClientSession clientSession : targets) {
+            try {
+                if (!deliverFrame(clientSession, frame, encoded, FrameCodec.TYPE_FRAME)) {
+                    removeSession(clientSession.getId());
+                }
+            } catch (Exception e) {
+                log.error("发送缩小画面失败: deviceId={}", frame.getDeviceId(), e);
+            }
+        }
+    }
+    
+    /**
+     * 向一组增量会话发送编码结果：已有基准帧的会话发送增量图块，其余会话发送完整帧作为基准
+     *
+     * @param delta 增量图块帧，为null时本帧是关键帧
+     */
+    private void deliverDeltas(List<ClientSession> targets, ScreenFrame source, ScreenFrame delta) {
+        Object[] encodedFrame = new Object[FrameFormat.values().length];
+        Object[] encodedDelta = new Object[FrameFormat.values().length];
+        int deviceId = source.getDeviceId();
+        for (ClientSession clientSession : targets) {
+            try {
+                boolean queued;
+                if (delta != null && clientSession.getDeltaBases().contains(deviceId)) {
+                    queued = deliverFrame(clientSession, delta, encodedDelta, FrameCodec.TYPE_DELTA);
+                } else {
+                    queued = deliverFrame(clientSession, source, encodedFrame, FrameCodec.TYPE_FRAME);
+                    if (queued) {
+                        clientSession.getDeltaBases().add(deviceId);
+                    }
+                }
+                if (!queued) {
+                    removeSession(clientSession.getId());
+                }
+            } catch (Exception e) {
+                log.error("发送增量画面失败: deviceId={}", deviceId, e);
+            }
+        }
+    }
+    
+    /**
+     * 按会话协商的格式发送屏幕帧或马赛克帧
+     *
+     * @param type {@link FrameCodec#TYPE_FRAME}、{@link FrameCodec#TYPE_DELTA}、{@link FrameCodec#TYPE_MOSAIC}
+     *             或 {@link FrameCodec#TYPE_REPLAY}
+     * @return 会话已关闭或发送失败时返回false，由调用方决定是否移除会话
+     */
+    private boolean deliverFrame(ClientSession clientSession, ScreenFrame frame, Object[] encoded, byte type) {
+        if (!clientSession.isOpen()) {
+            return false;
+        }
+        
+        FrameFormat format = clientSession.getFrameFormat();
+        Object payload = encoded[format.ordinal()];
+        if (payload == null) {
+            payload = format == FrameFormat.BINARY ? FrameCodec.encodeHeader(frame, type) : createJsonFrame(frame, type);
+            encoded[format.ordinal()] = payload;
+        }
+        
+        // 马赛克帧、回放帧与设备帧分开计算溢出丢弃
+        int streamId = frame.getDeviceId();
+        if (type == FrameCodec.TYPE_MOSAIC) {
+            streamId = -1 - frame.getDeviceId();
+        } else if (type == FrameCodec.TYPE_REPLAY) {
+            streamId = Integer.MIN_VALUE + frame.getDeviceId();
+        }
+        if (format == FrameFormat.BINARY) {
+            // 固定头与JPEG作为同一消息的两个分片发送，JPEG直接引用帧缓冲区，发送完成前保持引用
+            return clientSession.getSender().sendFrame(streamId, frame.retain(),
+                    new BinaryMessage(ByteBuffer.wrap((byte[]) payload), false),
+                    new BinaryMessage(frame.getPayload(), true));
+        }
+        return clientSession.getSender().send((TextMessage) payload, streamId);
+    }
+    
+    /**
+     * 创建JSON格式的屏幕帧消息（Base64 data URL）
+     */
+    private TextMessage createJsonFrame(ScreenFrame frame, byte type) {
         try {
             // 将图像数据转换为Base64
-            String base64Image = Base64.getEncoder().encodeToString(frameData);
+            String base64Image = new String(Base64.getEncoder().encode(frame.getPayload()).array(),
+                    StandardCharsets.ISO_8859_1);
             
             // 创建消息
             Map<String, Object> message = new HashMap<>();
-            message.put("type", "frame");
-            message.put("deviceId", deviceId);
+            if (type == FrameCodec.TYPE_MOSAIC) {
+                message.put("type", "mosaic_frame");
+                message.put("mosaicId", frame.getDeviceId());
+            } else if (type == FrameCodec.TYPE_REPLAY) {
+                message.put("type", "replay_frame");
+                message.put("deviceId", frame.getDeviceId());
+            } else {
+                message.put("type", "frame");
+                message.put("deviceId", frame.getDeviceId());
+            }
             message.put("image", "data:image/jpeg;base64," + base64Image);
-            message.put("timestamp", System.currentTimeMillis());
-            
-            // 广播给所有连接的客户端
-            broadcastMessage(message);
+            message.put("sequence", frame.getSequence());
+            message.put("timestamp", frame.getTimestamp());
             
-        } catch (Exception e) {
-            log.error("发送屏幕帧失败: deviceId={}", deviceId, e);
+            return new TextMessage(objectMapper.writeValueAsString(message));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
     }
     
     /**
-     * 发送设备状态更新
+     * 发送一批设备状态更新（一个时间轮刻度内的变化合并为一条消息）
      */
-    public void sendDeviceStatus(int deviceId, String status, boolean connected) {
+    public void sendDeviceStatus(List<DeviceStatusEvent.Change> changes) {
+        List<Map<String, Object>> updates = new ArrayList<>(changes.size());
+        for (DeviceStatusEvent.Change change : changes) {
+            Map<String, Object> update = new HashMap<>();
+            update.put("deviceId", change.getDeviceId());
+            update.put("status", change.getStatus());
+            update.put("connected", change.isConnected());
+            updates.add(update);
+        }
+        
         Map<String, Object> message = new HashMap<>();
-        message.put("type", "device_status");
-        message.put("deviceId", deviceId);
-        message.put("status", status);
-        message.put("connected", connected);
+        message.put("type", "device_status_batch");
+        message.put("updates", updates);
         message.put("timestamp", System.currentTimeMillis());
         
         broadcastMessage(message);
     }
     
     /**
-     * 发送设备列表
+     * 设备状态变化时通知客户端
+     */
+    @EventListener
+    public void onDeviceStatus(DeviceStatusEvent event) {
+        sendDeviceStatus(event.getChanges());
+    }
+    
+    /**
+     * 向所有客户端发送设备列表增量
+     *
+     * <p>每个客户端只收到自己已有版本以来新增、变化和移除的设备，没有变化的客户端不发送；
+     * 持有相同版本的客户端共用同一条消息。</p>
      */
-    public void sendDeviceList(Object deviceList) {
+    public void sendDeviceListDelta() {
+        Map<Long, DeviceListDelta> deltas = new HashMap<>();
+        Map<Long, TextMessage> messages = new HashMap<>();
+        for (Map.Entry<String, ClientSession> entry : sessions.entrySet()) {
+            ClientSession clientSession = entry.getValue();
+            sendDeviceListDelta(entry.getKey(), clientSession, clientSession.getDeviceListVersion(), deltas, messages);
+        }
+    }
+    
+    /**
+     * 向会话发送自给定版本以来的设备列表增量，并记录会话的新版本
+     */
+    private void sendDeviceListDelta(String sessionId, ClientSession clientSession, long sinceVersion,
+                                     Map<Long, DeviceListDelta> deltas, Map<Long, TextMessage> messages) {
+        boolean sent;
+        synchronized (clientSession) {
+            DeviceListDelta delta = deltas.computeIfAbsent(sinceVersion, deviceRegistry::getChangesSince);
+            if (delta.isEmpty()) {
+                return;
+            }
+            TextMessage message = messages.computeIfAbsent(sinceVersion,
+                    version -> toTextMessage(createDeviceListDeltaMessage(delta)));
+            sent = clientSession.getSender().send(message, SessionSender.NO_DEVICE);
+            if (sent) {
+                clientSession.setDeviceListVersion(delta.getVersion());
+            }
+        }
+        if (!sent) {
+            removeSession(sessionId);
+        }
+    }
+    
+    private Map<String, Object> createDeviceListDeltaMessage(DeviceListDelta delta) {
         Map<String, Object> message = new HashMap<>();
-        message.put("type", "device_list");
-        message.put("devices", deviceList);
+        message.put("type", "device_list_delta");
+        message.put("fromVersion", delta.getFromVersion());
+        message.put("version", delta.getVersion());
+        message.put("full", delta.isFull());
+        message.put("devices", delta.getDevices());
+        message.put("removed", delta.getRemoved());
         message.put("timestamp", System.currentTimeMillis());
-        
-        broadcastMessage(message);
+        return message;
+    }
+    
+    private TextMessage toTextMessage(Object message) {
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(message));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    @Override
+    public void onDeviceFound(ScanTask task, DeviceInfo device) {
+        broadcastMessage(task.createDeviceFoundMessage(device));
+    }
+    
+    @Override
+    public void onScanProgress(ScanTask task) {
+        broadcastMessage(task.createProgressMessage());
+    }
+    
+    @Override
+    public void onScanCompleted(ScanTask task) {
+        broadcastMessage(task.createCompletedMessage());
+        sendDeviceListDelta();
     }
     
     /**
      * 向指定会话发送消息
      */
     public void sendMessage(String sessionId, Object message) {
-        WebSocketSession session = sessions.get(sessionId);
-        if (session != null && session.isOpen()) {
+        ClientSession clientSession = sessions.get(sessionId);
+        if (clientSession != null && clientSession.isOpen()) {
             try {
                 String jsonMessage = objectMapper.writeValueAsString(message);
-                session.sendMessage(new TextMessage(jsonMessage));
+                if (!clientSession.getSender().send(new TextMessage(jsonMessage), SessionSender.NO_DEVICE)) {
+                    removeSession(sessionId);
+                }
             } catch (Exception e) {
                 log.error("发送消息失败: sessionId={}", sessionId, e);
                 // 移除无效会话
@@ -138,35 +524,46 @@ public class WebSocketService {
             String jsonMessage = objectMapper.writeValueAsString(message);
             TextMessage textMessage = new TextMessage(jsonMessage);
             
-            // 使用迭代器避免并发修改异常
-            sessions.entrySet().removeIf(entry -> {
-                String sessionId = entry.getKey();
-                WebSocketSession session = entry.getValue();
-                
-                if (session == null || !session.isOpen()) {
-                    log.debug("移除无效会话: {}", sessionId);
-                    return true;
-                }
-                
-                try {
-                    session.sendMessage(textMessage);
-                    return false;
-                } catch (Exception e) {
-                    log.error("广播消息失败: sessionId={}", sessionId, e);
-                    try {
-                        session.close();
-                    } catch (IOException closeEx) {
-                        log.error("关闭无效会话失败: {}", sessionId, closeEx);
-                    }
-                    return true;
-                }
-            });
+            broadcast(clientSession -> textMessage);
             
         } catch (Exception e) {
             log.error("广播消息失败", e);
         }
     }
     
+    /**
+     * 向所有会话发送消息，并移除无效会话
+     *
+     * <p>无效会话经 {@link #removeSession(String)} 移除，与连接关闭时一样释放订阅、马赛克和回放。</p>
+     */
+    private void broadcast(Function<ClientSession, WebSocketMessage<?>> messageFactory) {
+        List<String> deadSessions = new ArrayList<>();
+        for (Map.Entry<String, ClientSession> entry : sessions.entrySet()) {
+            String sessionId = entry.getKey();
+            ClientSession clientSession = entry.getValue();
+            
+            if (!clientSession.isOpen()) {
+                log.debug("移除无效会话: {}", sessionId);
+                deadSessions.add(sessionId);
+            } else if (!clientSession.getSender().send(messageFactory.apply(clientSession), SessionSender.NO_DEVICE)) {
+                log.debug("移除已关闭会话: {}", sessionId);
+                deadSessions.add(sessionId);
+            }
+        }
+        deadSessions.forEach(this::removeSession);
+    }
+    
+    /**
+     * 获取因发送队列溢出而丢弃的帧数
+     */
+    public long getDroppedFrameCount() {
+        long dropped = 0;
+        for (ClientSession clientSession : sessions.values()) {
+            dropped += clientSession.getSender().getDroppedFrames();
+        }
+        return dropped;
+    }
+    
     /**
      * 获取活跃会话数
      */
@@ -190,12 +587,63 @@ public class WebSocketService {
                     // 心跳检测
                     sendMessage(sessionId, createMessage("pong", "心跳响应"));
                     break;
-                    
+                
+                case "set_protocol":
+                    // 协商屏幕帧格式：json（默认）或 binary
+                    setFrameFormat(sessionId, (String) messageMap.get("protocol"));
+                    break;
+                
+                case "subscribe":
+                    // 订阅设备屏幕帧，deviceIds为设备ID列表或"*"
+                    updateSubscriptions(sessionId, messageMap.get("deviceIds"), true);
+                    break;
+                
+                case "unsubscribe":
+                    // 取消订阅，deviceIds为设备ID列表或"*"
+                    updateSubscriptions(sessionId, messageMap.get("deviceIds"), false);
+                    break;
+                
+                case "view_hint":
+                    // 窗口优先级提示：focused、visible、hidden；size为窗口长边像素数，用于选择缩小画面
+                    updateViewHints(sessionId, messageMap.get("deviceIds"), (String) messageMap.get("tier"),
+                            messageMap.get("size"));
+                    break;
+                
+                case "request_keyframe":
+                    // 客户端丢失了增量图块的基准帧，下一帧改发完整帧
+                    requestKeyframe(sessionId, messageMap.get("deviceId"));
+                    break;
+                
+                case "subscribe_mosaic":
+                    // 订阅马赛克合成画面
+                    subscribeMosaic(sessionId, messageMap.get("mosaicId"));
+                    break;
+                
+                case "unsubscribe_mosaic":
+                    if (messageMap.get("mosaicId") instanceof Number && sessions.containsKey(sessionId)) {
+                        unsubscribeMosaic(sessions.get(sessionId), ((Number) messageMap.get("mosaicId")).intValue());
+                    }
+                    break;
+                
+                case "replay_start":
+                    // 回放设备录制：deviceId、timestamp（起始时间）、speed（倍速，0为暂停逐帧）
+                    startReplay(sessionId, messageMap);
+                    break;
+                
+                case "replay_control":
+                    // 控制回放：replayId、action（play、pause、seek、step、speed）及对应参数
+                    controlReplay(sessionId, messageMap);
+                    break;
+                
+                case "replay_stop":
+                    stopReplay(sessionId, messageMap.get("replayId"));
+                    break;
+                
                 case "request_device_list":
-                    // 请求设备列表 - 这里可以调用NetworkScanService
-                    log.info("客户端请求设备列表: {}", sessionId);
+                    // 请求设备列表：sinceVersion为客户端已有的版本，只返回之后的增量；省略时返回完整列表
+                    requestDeviceList(sessionId, messageMap.get("sinceVersion"));
                     break;
-                    
+                
                 default:
                     log.warn("未知消息类型: {}", type);
                     break;
@@ -206,6 +654,425 @@ public class WebSocketService {
         }
     }
     
+    /**
+     * 更新会话的设备订阅，首次调用后会话不再默认接收所有设备
+     */
+    private void updateSubscriptions(String sessionId, Object deviceIds, boolean subscribe) {
+        ClientSession clientSession = sessions.get(sessionId);
+        if (clientSession == null) {
+            return;
+        }
+        
+        synchronized (clientSession) {
+            if ("*".equals(deviceIds)) {
+                clearSubscriptions(clientSession);
+                if (subscribe) {
+                    clientSession.setSubscribeAll(true);
+                    addAllDeviceSession(clientSession);
+                } else {
+                    clientSession.setSubscribeAll(false);
+                }
+            } else {
+                clientSession.setSubscribeAll(false);
+                removeAllDeviceSession(clientSession);
+                
+                for (Integer deviceId : parseDeviceIds(deviceIds)) {
+                    CaptureTier previous = clientSession.getTier(deviceId);
+                    if (subscribe) {
+                        clientSession.getSubscriptions().add(deviceId);
+                    } else {
+                        clientSession.getSubscriptions().remove(deviceId);
+                    }
+                    applyTier(deviceId, clientSession, previous, clientSession.getTier(deviceId));
+                }
+            }
+        }
+        
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "subscriptions");
+        message.put("all", clientSession.isSubscribeAll());
+        message.put("deviceIds", new TreeSet<>(clientSession.getSubscriptions()));
+        message.put("timestamp", System.currentTimeMillis());
+        sendMessage(sessionId, message);
+        
+        log.debug("会话 {} 订阅更新: all={}, deviceIds={}", sessionId, clientSession.isSubscribeAll(),
+                clientSession.getSubscriptions());
+    }
+    
+    /**
+     * 清除会话的所有订阅
+     */
+    private void clearSubscriptions(ClientSession clientSession) {
+        removeAllDeviceSession(clientSession);
+        for (Integer deviceId : clientSession.getSubscriptions()) {
+            applyTier(deviceId, clientSession, clientSession.getTier(deviceId), null);
+        }
+        clientSession.getSubscriptions().clear();
+    }
+    
+    /**
+     * 更新会话对设备窗口的优先级和显示尺寸提示，两者都可单独提示
+     */
+    private void updateViewHints(String sessionId, Object deviceIds, String tierValue, Object sizeValue) {
+        ClientSession clientSession = sessions.get(sessionId);
+        CaptureTier tier = CaptureTier.parse(tierValue);
+        Integer size = sizeValue instanceof Number ? ((Number) sizeValue).intValue() : null;
+        if (clientSession == null || (tier == null && size == null)) {
+            log.warn("无效的窗口提示: sessionId={}, tier={}, size={}", sessionId, tierValue, sizeValue);
+            return;
+        }
+        
+        synchronized (clientSession) {
+            for (Integer deviceId : parseDeviceIds(deviceIds)) {
+                if (size != null) {
+                    if (size > 0) {
+                        clientSession.getDisplaySizes().put(deviceId, size);
+                    } else {
+                        clientSession.getDisplaySizes().remove(deviceId);
+                    }
+                }
+                if (tier != null) {
+                    CaptureTier previous = clientSession.getTier(deviceId);
+                    clientSession.getViewHints().put(deviceId, tier);
+                    applyTier(deviceId, clientSession, previous, clientSession.getTier(deviceId));
+                }
+            }
+        }
+    }
+    
+    /**
+     * 会话对设备的有效优先级变化：隐藏或未订阅时不推送画面、不计为观看者
+     */
+    private void applyTier(int deviceId, ClientSession clientSession, CaptureTier previous, CaptureTier current) {
+        if (previous == current) {
+            return;
+        }
+        boolean wasWatching = previous != null && previous != CaptureTier.HIDDEN;
+        boolean watching = current != null && current != CaptureTier.HIDDEN;
+        if (watching && !wasWatching) {
+            addSubscriber(deviceId, clientSession);
+        } else if (wasWatching && !watching) {
+            removeSubscriber(deviceId, clientSession);
+        }
+        captureScheduler.updateVote(deviceId, previous, current);
+    }
+    
+    /**
+     * 将会话加入订阅索引，并登记为设备的观看者
+     */
+    private void addSubscriber(int deviceId, ClientSession clientSession) {
+        boolean[] added = new boolean[1];
+        deviceSubscribers.compute(deviceId, (id, subscribers) -> {
+            Set<ClientSession> result = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            added[0] = result.add(clientSession);
+            return result;
+        });
+        if (added[0]) {
+            viewerRegistry.addViewer(deviceId);
+            clientSession.getDeltaBases().remove(deviceId);
+            sendCachedFrame(clientSession, lastFrameCache.get(deviceId));
+        }
+    }
+    
+    /**
+     * 客户端请求完整帧：立即发送缓存的最新帧，并让下一帧以完整帧作为新的增量基准
+     */
+    private void requestKeyframe(String sessionId, Object deviceIdValue) {
+        ClientSession clientSession = sessions.get(sessionId);
+        if (clientSession == null || !(deviceIdValue instanceof Number)) {
+            return;
+        }
+        int deviceId = ((Number) deviceIdValue).intValue();
+        if (clientSession.getDeltaBases().remove(deviceId)) {
+            sendCachedFrame(clientSession, lastFrameCache.get(deviceId));
+        }
+    }
+    
+    /**
+     * 从订阅索引中移除会话，设备无订阅者时删除索引项
+     */
+    private void removeSubscriber(int deviceId, ClientSession clientSession) {
+        boolean[] removed = new boolean[1];
+        deviceSubscribers.computeIfPresent(deviceId, (id, subscribers) -> {
+            removed[0] = subscribers.remove(clientSession);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+        if (removed[0]) {
+            viewerRegistry.removeViewer(deviceId);
+        }
+    }
+    
+    private void addAllDeviceSession(ClientSession clientSession) {
+        if (allDeviceSessions.add(clientSession)) {
+            viewerRegistry.addAllDevicesViewer();
+            for (ScreenFrame frame : lastFrameCache.getAll()) {
+                sendCachedFrame(clientSession, frame);
+            }
+        }
+    }
+    
+    /**
+     * 向新观看者发送缓存的最新帧作为首屏，不必等待设备产生下一帧；发送后释放帧引用
+     */
+    private void sendCachedFrame(ClientSession clientSession, ScreenFrame frame) {
+        if (frame == null) {
+            return;
+        }
+        try {
+            if (!deliverFrame(clientSession, frame, new Object[FrameFormat.values().length], FrameCodec.TYPE_FRAME)) {
+                removeSession(clientSession.getId());
+            }
+        } catch (Exception e) {
+            log.error("发送缓存帧失败: deviceId={}", frame.getDeviceId(), e);
+        } finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * 订阅马赛克，第一个会话订阅时向合成服务注册监听器，并立即发送最近的合成画面
+     */
+    private void subscribeMosaic(String sessionId, Object mosaicIdValue) {
+        ClientSession clientSession = sessions.get(sessionId);
+        Integer mosaicId = mosaicIdValue instanceof Number ? ((Number) mosaicIdValue).intValue() : null;
+        if (clientSession == null || mosaicId == null || mosaicService.get(mosaicId) == null) {
+            sendMessage(sessionId, createMessage("error", "马赛克不存在: " + mosaicIdValue));
+            return;
+        }
+        
+        // 合成线程推送画面时不获取该锁，注册与注销互斥即可
+        synchronized (mosaicSubscribers) {
+            // 会话已被移除时不再注册，否则监听器不会再有人注销
+            if (sessions.get(sessionId) != clientSession) {
+                return;
+            }
+            Set<ClientSession> subscribers = mosaicSubscribers.computeIfAbsent(mosaicId,
+                    id -> ConcurrentHashMap.newKeySet());
+            if (!subscribers.add(clientSession)) {
+                return;
+            }
+            clientSession.getMosaics().add(mosaicId);
+            if (subscribers.size() == 1) {
+                mosaicService.subscribe(mosaicId, mosaicListeners.computeIfAbsent(mosaicId,
+                        id -> frame -> sendMosaicFrame(id, frame)));
+            }
+        }
+        
+        ScreenFrame latest = mosaicService.getLatestFrame(mosaicId);
+        if (latest != null) {
+            try {
+                deliverFrame(clientSession, latest, new Object[FrameFormat.values().length], FrameCodec.TYPE_MOSAIC);
+            } finally {
+                latest.release();
+            }
+        }
+    }
+    
+    /**
+     * 取消订阅马赛克，最后一个会话离开时注销监听器
+     */
+    private void unsubscribeMosaic(ClientSession clientSession, int mosaicId) {
+        synchronized (mosaicSubscribers) {
+            clientSession.getMosaics().remove(mosaicId);
+            Set<ClientSession> subscribers = mosaicSubscribers.get(mosaicId);
+            if (subscribers == null || !subscribers.remove(clientSession)) {
+                return;
+            }
+            if (subscribers.isEmpty()) {
+                mosaicSubscribers.remove(mosaicId);
+                mosaicService.unsubscribe(mosaicId, mosaicListeners.get(mosaicId));
+            }
+        }
+    }
+    
+    /**
+     * 向订阅会话推送马赛克画面（合成线程调用）
+     *
+     * <p>发送失败的会话不在这里移除，连接关闭时经 {@link #removeSession(String)} 统一清理。</p>
+     */
+    private void sendMosaicFrame(int mosaicId, ScreenFrame frame) {
+        Set<ClientSession> subscribers = mosaicSubscribers.get(mosaicId);
+        if (subscribers == null) {
+            return;
+        }
+        Object[] encoded = new Object[FrameFormat.values().length];
+        for (ClientSession clientSession : subscribers) {
+            deliverFrame(clientSession, frame, encoded, FrameCodec.TYPE_MOSAIC);
+        }
+    }
+    
+    /**
+     * 开始回放，同一设备已有回放时先结束；回放帧以 {@link FrameCodec#TYPE_REPLAY} 发送
+     */
+    private void startReplay(String sessionId, Map<String, Object> messageMap) {
+        ClientSession clientSession = sessions.get(sessionId);
+        Object deviceIdValue = messageMap.get("deviceId");
+        if (clientSession == null || !(deviceIdValue instanceof Number)) {
+            sendMessage(sessionId, createMessage("error", "无效的设备ID: " + deviceIdValue));
+            return;
+        }
+        int deviceId = ((Number) deviceIdValue).intValue();
+        long timestamp = messageMap.get("timestamp") instanceof Number
+                ? ((Number) messageMap.get("timestamp")).longValue() : 0;
+        double speed = messageMap.get("speed") instanceof Number ? ((Number) messageMap.get("speed")).doubleValue() : 1;
+        
+        Integer previous = clientSession.getReplays().remove(deviceId);
+        if (previous != null) {
+            replayService.stop(previous);
+        }
+        if (clientSession.getReplays().size() >= mobileConfig.getReplay().getMaxSessionsPerClient()) {
+            sendMessage(sessionId, createMessage("error", "同时进行的回放数已达上限"));
+            return;
+        }
+        
+        int replayId;
+        try {
+            // 发送失败说明会话正在关闭，回放随会话移除结束
+            replayId = replayService.start(deviceId, timestamp, speed,
+                    frame -> deliverFrame(clientSession, frame, new Object[FrameFormat.values().length],
+                            FrameCodec.TYPE_REPLAY));
+        } catch (IllegalArgumentException e) {
+            sendMessage(sessionId, createMessage("error", e.getMessage()));
+            return;
+        }
+        clientSession.getReplays().put(deviceId, replayId);
+        if (!sessions.containsKey(sessionId)) {
+            // 会话在此期间已移除
+            replayService.stop(replayId);
+            return;
+        }
+        Map<String, Object> state = replayService.getState(replayId);
+        if (state != null) {
+            sendReplayState(sessionId, state);
+        }
+    }
+    
+    /**
+     * 控制会话自己的回放，回复最新的回放状态
+     */
+    private void controlReplay(String sessionId, Map<String, Object> messageMap) {
+        ClientSession clientSession = sessions.get(sessionId);
+        Object replayIdValue = messageMap.get("replayId");
+        if (clientSession == null || !(replayIdValue instanceof Number)
+                || !clientSession.getReplays().containsValue(((Number) replayIdValue).intValue())) {
+            sendMessage(sessionId, createMessage("error", "回放不存在: " + replayIdValue));
+            return;
+        }
+        
+        Object timestamp = messageMap.get("timestamp");
+        Object frames = messageMap.get("frames");
+        Object speed = messageMap.get("speed");
+        try {
+            Map<String, Object> state = replayService.control(((Number) replayIdValue).intValue(),
+                    (String) messageMap.get("action"),
+                    timestamp instanceof Number ? ((Number) timestamp).longValue() : null,
+                    frames instanceof Number ? ((Number) frames).intValue() : null,
+                    speed instanceof Number ? ((Number) speed).doubleValue() : null);
+            if (state == null) {
+                sendMessage(sessionId, createMessage("error", "回放不存在: " + replayIdValue));
+                return;
+            }
+            sendReplayState(sessionId, state);
+        } catch (IllegalArgumentException e) {
+            sendMessage(sessionId, createMessage("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 客户端请求设备列表：返回其版本以来的增量，版本缺失或过旧时返回完整列表，没有变化时回复空增量
+     */
+    private void requestDeviceList(String sessionId, Object sinceVersionValue) {
+        ClientSession clientSession = sessions.get(sessionId);
+        if (clientSession == null) {
+            return;
+        }
+        long sinceVersion = sinceVersionValue instanceof Number ? ((Number) sinceVersionValue).longValue() : 0;
+        synchronized (clientSession) {
+            DeviceListDelta delta = deviceRegistry.getChangesSince(sinceVersion);
+            clientSession.setDeviceListVersion(delta.getVersion());
+            sendMessage(sessionId, createDeviceListDeltaMessage(delta));
+        }
+    }
+    
+    private void stopReplay(String sessionId, Object replayIdValue) {
+        ClientSession clientSession = sessions.get(sessionId);
+        if (clientSession == null || !(replayIdValue instanceof Number)) {
+            return;
+        }
+        int replayId = ((Number) replayIdValue).intValue();
+        if (clientSession.getReplays().values().remove(replayId)) {
+            replayService.stop(replayId);
+        }
+    }
+    
+    private void sendReplayState(String sessionId, Map<String, Object> state) {
+        Map<String, Object> message = new HashMap<>(state);
+        message.put("type", "replay_state");
+        sendMessage(sessionId, message);
+    }
+    
+    private void removeAllDeviceSession(ClientSession clientSession) {
+        if (allDeviceSessions.remove(clientSession)) {
+            viewerRegistry.removeAllDevicesViewer();
+        }
+    }
+    
+    /**
+     * 解析消息中的设备ID列表
+     */
+    private List<Integer> parseDeviceIds(Object deviceIds) {
+        if (!(deviceIds instanceof Collection)) {
+            return Collections.emptyList();
+        }
+        List<Integer> result = new ArrayList<>();
+        for (Object deviceId : (Collection<?>) deviceIds) {
+            if (deviceId instanceof Number) {
+                result.add(((Number) deviceId).intValue());
+            } else if (deviceId != null) {
+                try {
+                    result.add(Integer.parseInt(deviceId.toString()));
+                } catch (NumberFormatException e) {
+                    log.warn("无效的设备ID: {}", deviceId);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 获取指定设备的订阅会话数（包括接收所有设备的会话）
+     */
+    public int getSubscriberCount(int deviceId) {
+        Set<ClientSession> subscribers = deviceSubscribers.get(deviceId);
+        return (subscribers == null ? 0 : subscribers.size()) + allDeviceSessions.size();
+    }
+    
+    /**
+     * 设置会话的屏幕帧格式
+     */
+    private void setFrameFormat(String sessionId, String protocol) {
+        ClientSession clientSession = sessions.get(sessionId);
+        FrameFormat format = FrameFormat.parse(protocol);
+        if (clientSession == null || format == null) {
+            log.warn("无法设置帧格式: sessionId={}, protocol={}", sessionId, protocol);
+            return;
+        }
+        
+        clientSession.setFrameFormat(format);
+        log.info("会话 {} 切换帧格式: {}", sessionId, format);
+        sendMessage(sessionId, createMessage("protocol", format.name().toLowerCase()));
+    }
+    
+    /**
+     * 读取连接地址中的查询参数
+     */
+    private String getQueryParam(URI uri, String name) {
+        if (uri == null) {
+            return null;
+        }
+        return UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name);
+    }
+    
     /**
      * 创建消息对象
      */
@@ -0,0 +1,158 @@
+package com.ailin.mobile.websocket;
+
+import com.ailin.mobile.capture.CaptureTier;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端会话状态
+ */
+public class ClientSession {
+    
+    private final WebSocketSession session;
+    
+    /**
+     * 发送器
+     */
+    private final SessionSender sender;
+    
+    /**
+     * 协商的屏幕帧格式，默认JSON以兼容旧客户端
+     */
+    private volatile FrameFormat frameFormat = FrameFormat.JSON;
+    
+    /**
+     * 是否接收所有设备的屏幕帧；旧客户端从不发送订阅消息，默认全部接收
+     */
+    private volatile boolean subscribeAll = true;
+    
+    /**
+     * 显式订阅的设备ID
+     */
+    private final Set<Integer> subscriptions = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 客户端对设备窗口的优先级提示，未提示的订阅按可见处理
+     */
+    private final Map<Integer, CaptureTier> viewHints = new ConcurrentHashMap<>();
+    
+    /**
+     * 客户端窗口显示尺寸（长边像素数），未提示的设备发送原始分辨率
+     */
+    private final Map<Integer, Integer> displaySizes = new ConcurrentHashMap<>();
+    
+    /**
+     * 是否接收增量图块（仅二进制帧格式）
+     */
+    private volatile boolean delta;
+    
+    /**
+     * 已收到增量编码基准帧的设备ID，不在其中的设备先发送完整帧
+     */
+    private final Set<Integer> deltaBases = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 订阅的马赛克ID
+     */
+    private final Set<Integer> mosaics = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 设备ID -> 回放ID，每个设备同时只有一个回放
+     */
+    private final Map<Integer, Integer> replays = new ConcurrentHashMap<>();
+    
+    /**
+     * 已发送给客户端的设备列表版本，0表示尚未发送
+     */
+    private volatile long deviceListVersion;
+    
+    public ClientSession(WebSocketSession session, SessionSender sender) {
+        this.session = session;
+        this.sender = sender;
+    }
+    
+    public WebSocketSession getSession() {
+        return session;
+    }
+    
+    public SessionSender getSender() {
+        return sender;
+    }
+    
+    public String getId() {
+        return session.getId();
+    }
+    
+    public boolean isOpen() {
+        return session.isOpen() && !sender.isClosed();
+    }
+    
+    public FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+    
+    public void setFrameFormat(FrameFormat frameFormat) {
+        this.frameFormat = frameFormat;
+    }
+    
+    public boolean isSubscribeAll() {
+        return subscribeAll;
+    }
+    
+    public void setSubscribeAll(boolean subscribeAll) {
+        this.subscribeAll = subscribeAll;
+    }
+    
+    public Set<Integer> getSubscriptions() {
+        return subscriptions;
+    }
+    
+    public Map<Integer, CaptureTier> getViewHints() {
+        return viewHints;
+    }
+    
+    public Map<Integer, Integer> getDisplaySizes() {
+        return displaySizes;
+    }
+    
+    public boolean isDelta() {
+        return delta && frameFormat == FrameFormat.BINARY;
+    }
+    
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+    
+    public Set<Integer> getDeltaBases() {
+        return deltaBases;
+    }
+    
+    public Set<Integer> getMosaics() {
+        return mosaics;
+    }
+    
+    public Map<Integer, Integer> getReplays() {
+        return replays;
+    }
+    
+    public long getDeviceListVersion() {
+        return deviceListVersion;
+    }
+    
+    public void setDeviceListVersion(long deviceListVersion) {
+        this.deviceListVersion = deviceListVersion;
+    }
+    
+    /**
+     * 获取会话对设备的有效优先级，未订阅时返回null
+     */
+    public CaptureTier getTier(int deviceId) {
+        if (!subscriptions.contains(deviceId)) {
+            return null;
+        }
+        return viewHints.getOrDefault(deviceId, CaptureTier.VISIBLE);
+    }
+}
\ No newline at end of file
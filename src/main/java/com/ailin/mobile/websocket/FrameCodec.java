@@ -0,0 +1,129 @@
+package com.ailin.mobile.websocket;
+
+import com.ailin.mobile.model.ScreenFrame;
+
+import java.util.List;
+
+/**
+ * 二进制帧编码
+ *
+ * <pre>
+ * 偏移  长度  字段
+ * 0     1     消息类型（1 = 屏幕帧，2 = 增量图块，3 = 马赛克帧，4 = 回放帧）
+ * 1     1     标志位（保留，当前为0）
+ * 2     4     设备ID或马赛克ID（int32，大端）
+ * 6     4     帧序号（uint32，大端）
+ * 10    8     捕获时间戳（int64毫秒，大端）
+ * 18    ...   JPEG数据（增量图块见下）
+ * </pre>
+ *
+ * <p>增量图块消息在固定头之后是相对基准帧变化的图块，客户端当前画面的帧序号与基准帧序号一致时才能拼接：</p>
+ *
+ * <pre>
+ * 偏移  长度  字段
+ * 18    4     基准帧序号（uint32，大端）
+ * 22    2     图块数（uint16，大端）
+ * 24    ...   图块：x（uint16）、y（uint16）、JPEG长度（uint32）、JPEG数据
+ * </pre>
+ */
+public final class FrameCodec {
+    
+    /**
+     * 消息类型：屏幕帧
+     */
+    public static final byte TYPE_FRAME = 1;
+    
+    /**
+     * 消息类型：增量图块
+     */
+    public static final byte TYPE_DELTA = 2;
+    
+    /**
+     * 消息类型：马赛克合成帧
+     */
+    public static final byte TYPE_MOSAIC = 3;
+    
+    /**
+     * 消息类型：录制回放帧（设备ID为回放的设备）
+     */
+    public static final byte TYPE_REPLAY = 4;
+    
+    /**
+     * 增量图块消息中每个图块的头长度
+     */
+    public static final int TILE_HEADER_SIZE = 8;
+    
+    /**
+     * 固定头长度
+     */
+    public static final int HEADER_SIZE = 18;
+    
+    private FrameCodec() {
+    }
+    
+    /**
+     * 编码固定头；JPEG数据作为同一消息的后续分片直接发送，不再拷贝
+     */
+    public static byte[] encodeHeader(ScreenFrame frame) {
+        return encodeHeader(frame, TYPE_FRAME);
+    }
+    
+    /**
+     * 按指定消息类型编码固定头
+     */
+    public static byte[] encodeHeader(ScreenFrame frame, byte type) {
+        byte[] header = new byte[HEADER_SIZE];
+        writeHeader(header, type, (byte) 0, frame.getDeviceId(), frame.getSequence(), frame.getTimestamp());
+        return header;
+    }
+    
+    /**
+     * 写入固定头
+     */
+    public static void writeHeader(byte[] target, byte type, byte flags, int deviceId, long sequence, long timestamp) {
+        target[0] = type;
+        target[1] = flags;
+        writeInt(target, 2, deviceId);
+        writeInt(target, 6, (int) sequence);
+        writeInt(target, 10, (int) (timestamp >>> 32));
+        writeInt(target, 14, (int) timestamp);
+    }
+    
+    /**
+     * 编码增量图块消息在固定头之后的部分
+     *
+     * @param tiles 每个图块为 {x, y}，与 jpegs 一一对应
+     */
+    public static byte[] encodeTiles(long baseSequence, List<int[]> tiles, List<byte[]> jpegs) {
+        int length = 6;
+        for (byte[] jpeg : jpegs) {
+            length += TILE_HEADER_SIZE + jpeg.length;
+        }
+        
+        byte[] target = new byte[length];
+        writeInt(target, 0, (int) baseSequence);
+        writeShort(target, 4, tiles.size());
+        int offset = 6;
+        for (int i = 0; i < tiles.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            writeShort(target, offset, tiles.get(i)[0]);
+            writeShort(target, offset + 2, tiles.get(i)[1]);
+            writeInt(target, offset + 4, jpeg.length);
+            System.arraycopy(jpeg, 0, target, offset + TILE_HEADER_SIZE, jpeg.length);
+            offset += TILE_HEADER_SIZE + jpeg.length;
+        }
+        return target;
+    }
+    
+    private static void writeShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 8);
+        target[offset + 1] = (byte) value;
+    }
+    
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.ailin.mobile.websocket;
+
+/**
+ * 屏幕帧传输格式
+ */
+public enum FrameFormat {
+    
+    /**
+     * JSON文本消息，图像为Base64 data URL（旧客户端）
+     */
+    JSON,
+    
+    /**
+     * 二进制消息：固定头 + 原始JPEG
+     */
+    BINARY;
+    
+    /**
+     * 解析客户端协商的格式，无法识别时返回null
+     */
+    public static FrameFormat parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (FrameFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value.trim())) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.ailin.mobile.websocket;
+
+/**
+ * 会话发送队列溢出策略
+ */
+public enum OverflowPolicy {
+    
+    /**
+     * 丢弃同一设备最早的排队帧（没有时丢弃最早的任意帧），控制消息不丢弃
+     */
+    DROP_OLDEST,
+    
+    /**
+     * 关闭会话
+     */
+    CLOSE_SESSION;
+    
+    /**
+     * 解析配置值，如 drop-oldest、close-session
+     */
+    public static OverflowPolicy parse(String value) {
+        if (value != null) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().replace('_', '-').equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return DROP_OLDEST;
+    }
+}
\ No newline at end of file
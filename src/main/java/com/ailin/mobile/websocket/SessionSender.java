@@ -0,0 +1,306 @@
+package com.ailin.mobile.websocket;
+
+import com.ailin.mobile.model.ScreenFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话发送器
+ *
+ * <p>每个会话一个有界发送队列，由共享发送线程池中的单个任务按顺序发送，
+ * 捕获线程只负责入队，不会被慢速客户端的网络写阻塞。</p>
+ *
+ * <p>屏幕帧入队时由发送器接管帧的一次引用，发送完成、被丢弃或会话关闭时释放。</p>
+ */
+@Slf4j
+public class SessionSender {
+    
+    /**
+     * 控制消息的设备ID
+     */
+    public static final int NO_DEVICE = -1;
+    
+    /**
+     * 单次调度最多发送的消息数，超过后重新排队，保证会话间公平
+     */
+    private static final int MAX_BATCH = 32;
+    
+    private final WebSocketSession session;
+    
+    private final Executor executor;
+    
+    private final int queueCapacity;
+    
+    private final long bufferSizeLimit;
+    
+    private final long sendTimeLimit;
+    
+    private final OverflowPolicy overflowPolicy;
+    
+    private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+    
+    private long queuedBytes;
+    
+    private boolean draining;
+    
+    /**
+     * 当前消息开始发送的时间，空闲时为0
+     */
+    private volatile long sendStartTime;
+    
+    private volatile boolean closed;
+    
+    private final AtomicLong droppedFrames = new AtomicLong();
+    
+    public SessionSender(WebSocketSession session, Executor executor, int queueCapacity, long bufferSizeLimit,
+                         long sendTimeLimit, OverflowPolicy overflowPolicy) {
+        this.session = session;
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimit = sendTimeLimit;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * 消息入队
+     *
+     * @param deviceId 屏幕帧所属设备，控制消息为 {@link #NO_DEVICE}
+     * @return 会话已关闭时返回false
+     */
+    public boolean send(WebSocketMessage<?> message, int deviceId) {
+        return enqueue(new Outbound(new WebSocketMessage<?>[]{message}, deviceId, null));
+    }
+    
+    /**
+     * 屏幕帧入队，接管帧的一次引用
+     *
+     * @param messages 组成一条完整消息的分片
+     * @return 会话已关闭时返回false（帧引用已释放）
+     */
+    public boolean sendFrame(ScreenFrame frame, WebSocketMessage<?>... messages) {
+        return sendFrame(frame.getDeviceId(), frame, messages);
+    }
+    
+    /**
+     * 屏幕帧入队，接管帧的一次引用
+     *
+     * @param streamId 溢出时按该标识丢弃同一路最早的帧（设备ID，其他帧流使用负数）
+     * @return 会话已关闭时返回false（帧引用已释放）
+     */
+    public boolean sendFrame(int streamId, ScreenFrame frame, WebSocketMessage<?>... messages) {
+        return enqueue(new Outbound(messages, streamId, frame));
+    }
+    
+    private boolean enqueue(Outbound outbound) {
+        if (closed) {
+            outbound.release();
+            return false;
+        }
+        int deviceId = outbound.deviceId;
+        
+        // 当前消息发送超时，判定为慢速客户端
+        long startTime = sendStartTime;
+        if (startTime != 0 && System.currentTimeMillis() - startTime > sendTimeLimit) {
+            outbound.release();
+            close(CloseStatus.SESSION_NOT_RELIABLE, "发送超时");
+            return false;
+        }
+        
+        boolean overflow = false;
+        boolean schedule = false;
+        synchronized (this) {
+            queue.addLast(outbound);
+            queuedBytes += outbound.size;
+            
+            while (isOverLimit()) {
+                if (overflowPolicy == OverflowPolicy.CLOSE_SESSION || !dropOldestFrame(deviceId)) {
+                    overflow = overflowPolicy == OverflowPolicy.CLOSE_SESSION;
+                    break;
+                }
+            }
+            
+            if (!overflow && !draining) {
+                draining = true;
+                schedule = true;
+            }
+        }
+        
+        if (overflow) {
+            close(CloseStatus.SESSION_NOT_RELIABLE, "发送缓冲区溢出");
+            return false;
+        }
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+        return true;
+    }
+    
+    private boolean isOverLimit() {
+        return queue.size() > queueCapacity || queuedBytes > bufferSizeLimit;
+    }
+    
+    /**
+     * 丢弃指定设备最早的排队帧，没有时丢弃最早的任意帧
+     */
+    private boolean dropOldestFrame(int deviceId) {
+        Outbound victim = null;
+        for (Outbound outbound : queue) {
+            if (outbound.deviceId == deviceId && deviceId != NO_DEVICE) {
+                victim = outbound;
+                break;
+            }
+            if (victim == null && outbound.deviceId != NO_DEVICE) {
+                victim = outbound;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        
+        Iterator<Outbound> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == victim) {
+                iterator.remove();
+                break;
+            }
+        }
+        queuedBytes -= victim.size;
+        victim.release();
+        droppedFrames.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * 按顺序发送队列中的消息
+     */
+    private void drain() {
+        for (int i = 0; i < MAX_BATCH; i++) {
+            Outbound outbound;
+            synchronized (this) {
+                outbound = queue.pollFirst();
+                if (outbound == null || closed) {
+                    if (outbound != null) {
+                        outbound.release();
+                    }
+                    clearQueue();
+                    draining = false;
+                    return;
+                }
+                queuedBytes -= outbound.size;
+            }
+            
+            sendStartTime = System.currentTimeMillis();
+            try {
+                for (WebSocketMessage<?> message : outbound.messages) {
+                    session.sendMessage(message);
+                }
+            } catch (Exception e) {
+                log.error("发送消息失败: sessionId={}", session.getId(), e);
+                close(CloseStatus.SERVER_ERROR, "发送失败");
+            } finally {
+                sendStartTime = 0;
+                outbound.release();
+            }
+        }
+        
+        // 还有剩余消息，让出线程后继续
+        executor.execute(this::drain);
+    }
+    
+    /**
+     * 关闭会话并丢弃未发送的消息
+     */
+    public void close(CloseStatus status, String reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            clearQueue();
+        }
+        
+        log.warn("关闭会话 {}: {}", session.getId(), reason);
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.error("关闭WebSocket会话失败: {}", session.getId(), e);
+        }
+    }
+    
+    /**
+     * 标记为已关闭（会话已由外部关闭），释放未发送的帧
+     */
+    public void markClosed() {
+        closed = true;
+        synchronized (this) {
+            clearQueue();
+        }
+    }
+    
+    /**
+     * 清空队列并释放帧引用，需持有锁
+     */
+    private void clearQueue() {
+        for (Outbound outbound : queue) {
+            outbound.release();
+        }
+        queue.clear();
+        queuedBytes = 0;
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+    
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+    
+    /**
+     * 排队中的消息
+     */
+    private static class Outbound {
+        
+        private final WebSocketMessage<?>[] messages;
+        
+        private final int deviceId;
+        
+        private final int size;
+        
+        private ScreenFrame frame;
+        
+        Outbound(WebSocketMessage<?>[] messages, int deviceId, ScreenFrame frame) {
+            this.messages = messages;
+            this.deviceId = deviceId;
+            this.frame = frame;
+            int total = 0;
+            for (WebSocketMessage<?> message : messages) {
+                total += message.getPayloadLength();
+            }
+            this.size = total;
+        }
+        
+        /**
+         * 释放帧引用，重复调用无副作用
+         */
+        void release() {
+            if (frame != null) {
+                frame.release();
+                frame = null;
+            }
+        }
+    }
+}
\ No newline at end of file